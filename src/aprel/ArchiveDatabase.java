@@ -17,21 +17,32 @@
 package aprel;
 
 import aprel.db.beans.DirectoryBean;
+import aprel.jdbi.ConnectionPool;
 import aprel.jdbi.Delete;
 import aprel.jdbi.Insert;
 import aprel.jdbi.Query;
+import com.google.common.io.ByteStreams;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import org.skife.jdbi.v2.DBI;
 import org.skife.jdbi.v2.Handle;
+import org.skife.jdbi.v2.ResultIterator;
+import org.skife.jdbi.v2.TransactionCallback;
+import org.skife.jdbi.v2.TransactionStatus;
+import org.skife.jdbi.v2.tweak.HandleCallback;
+import org.skife.jdbi.v2.util.LongColumnMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
 /**
@@ -39,8 +50,14 @@ import org.xml.sax.SAXException;
  * @author Aprel
  */
 public class ArchiveDatabase {
-    private final String user, pass, sqlServer, dbName;
+    private final String url, user, pass;
+    private final ConnectionPool pool;
     private final DBI dbi;
+    /**
+     * Whether this object opened {@link #pool}, rather than sharing it with 
+     * the object that did.
+     */
+    private final boolean ownsPool;
     private final Handle h;
     private final Query query;
     private final Insert insert;
@@ -49,26 +66,213 @@ public class ArchiveDatabase {
     private static final Logger LOG = LoggerFactory.getLogger(ArchiveDatabase.class);
     
     private static final String SQL_SERVER_URL_PREFIX = "jdbc:mysql://";
+    /**
+     * Lets Connector/J send JDBC batches as multi-row statements, and send 
+     * files for {@code LOAD DATA LOCAL INFILE}. Statements are prepared on the 
+     * server once per pooled connection and kept in a per-connection cache; 
+     * those the server cannot prepare, such as LOAD DATA, are emulated.
+     */
+    private static final String SQL_SERVER_URL_PARAMETERS = 
+            "?rewriteBatchedStatements=true&allowLoadLocalInfile=true"
+            + "&useServerPrepStmts=true&cachePrepStmts=true"
+            + "&prepStmtCacheSize=250&prepStmtCacheSqlLimit=2048";
+    /**
+     * System property for the maximum number of connections of an 
+     * {@code ArchiveDatabase} and its sessions.
+     */
+    public static final String PROPERTY_POOL_SIZE = "aprel.db.poolSize";
+    public static final int DEFAULT_POOL_SIZE = 8;
+    /**
+     * How long to wait for a connection when all are in use.
+     */
+    private static final long POOL_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final int FILE_SIZE_FETCH_SIZE = 10_000;
+    /**
+     * Schema scripts, one per JDBC subprotocol, e.g. schema-h2.sql for 
+     * {@code jdbc:h2:} URLs. Statements are separated by semicolons at the end 
+     * of a line.
+     */
+    private static final String SCHEMA_RESOURCE_FORMAT = "/aprel/db/schema-%s.sql";
 
     public ArchiveDatabase(String user, String pass, String server, String dbName, 
             boolean canDelete) throws SQLException {
+        this(user, pass, server, dbName, canDelete, 
+                Integer.getInteger(PROPERTY_POOL_SIZE, DEFAULT_POOL_SIZE));
+    }
+    
+    /**
+     * 
+     * @param user
+     * @param pass
+     * @param server
+     * @param dbName
+     * @param canDelete
+     * @param poolSize maximum number of connections, including the one held 
+     * by this object for {@link #getHandle()}
+     * @throws SQLException 
+     */
+    public ArchiveDatabase(String user, String pass, String server, String dbName, 
+            boolean canDelete, int poolSize) throws SQLException {
+        this(SQL_SERVER_URL_PREFIX + server + (server.endsWith("/") ? "" : "/") 
+                + dbName + SQL_SERVER_URL_PARAMETERS, 
+                user, pass, canDelete, poolSize);
+    }
+    
+    /**
+     * Opens a database at any JDBC URL whose driver is on the classpath, e.g. 
+     * an embedded H2 database in a file: 
+     * {@code jdbc:h2:file:/var/archive/aprel;MODE=MySQL;DATABASE_TO_UPPER=FALSE}. 
+     * The schema of a database other than MySQL is created if it is missing; 
+     * see {@link #bootstrapSchema()}.
+     * @param url
+     * @param user
+     * @param pass
+     * @param canDelete
+     * @param poolSize maximum number of connections, including the one held 
+     * by this object for {@link #getHandle()}
+     * @throws SQLException 
+     */
+    public ArchiveDatabase(String url, String user, String pass, boolean canDelete, 
+            int poolSize) throws SQLException {
+        this.url = url;
         this.user = user;
         this.pass = pass;
-        sqlServer = server;
-        this.dbName = dbName;
-        dbi = new DBI(SQL_SERVER_URL_PREFIX + sqlServer +
-                (sqlServer.endsWith("/") ? "" : "/") + this.dbName,
-                this.user, this.pass);
-        h = dbi.open();
+        pool = new ConnectionPool(this.url, this.user, this.pass, poolSize, 
+                POOL_TIMEOUT_MILLIS);
+        dbi = new DBI(pool);
+        ownsPool = true;
+        try {
+            if(!isMySql())
+                bootstrapSchema();
+            h = dbi.open();
+        }
+        catch(IOException ex) {
+            pool.close();
+            throw new SQLException("Cannot read schema for " + this.url, ex);
+        }
+        catch(RuntimeException ex) {
+            pool.close();
+            throw ex;
+        }
         query = h.attach(Query.class);
         insert = h.attach(Insert.class);
         delete = canDelete ? h.attach(Delete.class) : null;
     }
     
+    private ArchiveDatabase(ArchiveDatabase parent) {
+        url = parent.url;
+        user = parent.user;
+        pass = parent.pass;
+        pool = parent.pool;
+        dbi = parent.dbi;
+        ownsPool = false;
+        h = dbi.open();
+        query = h.attach(Query.class);
+        insert = h.attach(Insert.class);
+        delete = parent.delete != null ? h.attach(Delete.class) : null;
+    }
+    
+    /**
+     * Opens another {@code ArchiveDatabase} with its own handle on a 
+     * connection from the same pool, for use by another thread. Closing it 
+     * returns the connection to the pool.
+     * @return 
+     */
+    public ArchiveDatabase newSession() {
+        return new ArchiveDatabase(this);
+    }
+    
+    /**
+     * Runs a unit of work in a transaction on a handle of its own, which is 
+     * committed if the callback returns and rolled back if it throws. Safe to 
+     * call from any thread, unlike {@link #getHandle()}.
+     * @param <T>
+     * @param callback
+     * @return what the callback returns
+     */
+    public <T> T inTransaction(TransactionCallback<T> callback) {
+        return dbi.inTransaction(callback);
+    }
+    
+    /**
+     * Runs work on a handle of its own, which is closed afterwards. Safe to 
+     * call from any thread, unlike {@link #getHandle()}.
+     * @param <T>
+     * @param callback
+     * @return what the callback returns
+     */
+    public <T> T withHandle(HandleCallback<T> callback) {
+        return dbi.withHandle(callback);
+    }
+    
     public ArchiveDatabase(String user, String pass, String server, String dbName) throws SQLException {
         this(user, pass, server, dbName, false);
     }
     
+    /**
+     * 
+     * @return whether this is a MySQL database, as opposed to an embedded one, 
+     * so that MySQL-only statements such as {@code LOAD DATA} can be used
+     */
+    public boolean isMySql() {
+        return url.startsWith(SQL_SERVER_URL_PREFIX);
+    }
+    
+    /**
+     * Creates the tables and indexes that do not exist yet, with the schema 
+     * script for the subprotocol of this database's URL. Running it again is 
+     * harmless.
+     * @throws IOException if there is no schema script for this kind of 
+     * database
+     */
+    public final void bootstrapSchema() throws IOException {
+        final String subprotocol = url.split(":", 3)[1];
+        final String resource = String.format(SCHEMA_RESOURCE_FORMAT, subprotocol);
+        final List<String> statements;
+        try(InputStream in = ArchiveDatabase.class.getResourceAsStream(resource)) {
+            if(in == null)
+                throw new IOException("No schema script " + resource + " for " + url);
+            statements = splitStatements(new String(ByteStreams.toByteArray(in), 
+                    StandardCharsets.UTF_8));
+        }
+        dbi.inTransaction((Handle handle, TransactionStatus status) -> {
+            statements.forEach(handle::execute);
+            return null;
+        });
+        LOG.debug("Bootstrapped schema of {} with {}", url, resource);
+    }
+    
+    static List<String> splitStatements(String script) {
+        final List<String> statements = new ArrayList<>();
+        final StringBuilder current = new StringBuilder();
+        for(String line : script.split("\\r?\\n")) {
+            final String trimmed = line.trim();
+            if(trimmed.isEmpty() || trimmed.startsWith("--"))
+                continue;
+            current.append(line).append('\n');
+            if(trimmed.endsWith(";")) {
+                statements.add(current.substring(0, current.lastIndexOf(";")).trim());
+                current.setLength(0);
+            }
+        }
+        if(current.toString().trim().length() > 0)
+            statements.add(current.toString().trim());
+        return statements;
+    }
+    
+    /**
+     * On MySQL, rows are streamed from the server (Integer.MIN_VALUE is 
+     * Connector/J's streaming fetch size), so no other statement can run on 
+     * {@link #getHandle()} until the iterator is closed. Other drivers reject 
+     * a negative fetch size and get a bounded one instead.
+     * @return the distinct sizes of all files in the database, unordered
+     */
+    public ResultIterator<Long> iterateFileSizes() {
+        return h.createQuery("SELECT DISTINCT size FROM files")
+                .setFetchSize(isMySql() ? Integer.MIN_VALUE : FILE_SIZE_FETCH_SIZE)
+                .map(LongColumnMapper.WRAPPER).iterator();
+    }
+    
     public List<DirectoryBean> getCatalogs() {
         return query.getCatalogs();
     }
@@ -88,35 +292,80 @@ public class ArchiveDatabase {
         return delete;
     }
     
+    /**
+     * 
+     * @return the handle of this object, which the query, insert and delete 
+     * objects are attached to. Like them, it must only be used by one thread 
+     * at a time; see {@link #newSession()}.
+     */
     public Handle getHandle() {
         return h;
     }
     
+    /**
+     * Closes the handle of this object. If this object is not a session, the 
+     * connection pool is also closed.
+     * @throws SQLException 
+     */
     public void close() throws SQLException {
-        h.close();
+        try {
+            h.close();
+        }
+        finally {
+            if(ownsPool)
+                pool.close();
+        }
     }
     
     public static ArchiveDatabase createDefaultDatabase() throws 
             ParserConfigurationException, SAXException, IOException, SQLException {
-        return createDatabaseImpl(false);
+        return createDatabaseImpl(false, Integer.getInteger(PROPERTY_POOL_SIZE, DEFAULT_POOL_SIZE));
+    }
+    
+    /**
+     * 
+     * @param poolSize maximum number of connections of the database and its 
+     * sessions
+     * @return 
+     */
+    public static ArchiveDatabase createDefaultDatabase(int poolSize) throws 
+            ParserConfigurationException, SAXException, IOException, SQLException {
+        return createDatabaseImpl(false, poolSize);
     }
     
     public static ArchiveDatabase createDangerousDefaultDatabase() throws 
             ParserConfigurationException, SAXException, IOException, SQLException {
-        return createDatabaseImpl(true);
+        return createDatabaseImpl(true, Integer.getInteger(PROPERTY_POOL_SIZE, DEFAULT_POOL_SIZE));
     }
     
-    private static ArchiveDatabase createDatabaseImpl(boolean canDelete) throws 
+    /**
+     * Reads /aprel/db-credentials.xml. If it has a {@code url} element, that 
+     * JDBC URL is opened, and {@code user} and {@code password} are optional; 
+     * otherwise, {@code server} and {@code database} name a MySQL database.
+     */
+    private static ArchiveDatabase createDatabaseImpl(boolean canDelete, int poolSize) throws 
             ParserConfigurationException, SAXException, IOException, SQLException {
         InputStream credStream = ArchiveDatabase.class.getResourceAsStream(
                 "/aprel/db-credentials.xml");
         DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
 	DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
         Document doc = dBuilder.parse(credStream);
+        String url = getElementText(doc, "url");
+        if(url != null) {
+            String user = getElementText(doc, "user");
+            String pass = getElementText(doc, "password");
+            return new ArchiveDatabase(url, user == null ? "" : user, 
+                    pass == null ? "" : pass, canDelete, poolSize);
+        }
         String user = doc.getElementsByTagName("user").item(0).getTextContent();
         String pass = doc.getElementsByTagName("password").item(0).getTextContent();
         String server = doc.getElementsByTagName("server").item(0).getTextContent();
         String db = doc.getElementsByTagName("database").item(0).getTextContent();
-        return new ArchiveDatabase(user, pass, server, db, canDelete);
+        return new ArchiveDatabase(user, pass, server, db, canDelete, poolSize);
+    }
+    
+    private static String getElementText(Document doc, String tag) {
+        NodeList nodes = doc.getElementsByTagName(tag);
+        return nodes.getLength() == 0 ? null : nodes.item(0).getTextContent().trim();
     }
 }
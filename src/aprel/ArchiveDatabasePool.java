@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel;
+
+import com.google.common.collect.Lists;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import javax.xml.parsers.ParserConfigurationException;
+import org.xml.sax.SAXException;
+
+/**
+ * A fixed number of {@link ArchiveDatabase}s, each with its own connection, 
+ * shared by threads that each need a connection of their own for a while. 
+ * An {@code ArchiveDatabase} is used by one thread at a time.
+ * @author Aprel
+ */
+public class ArchiveDatabasePool implements AutoCloseable {
+    private final List<ArchiveDatabase> all;
+    private final BlockingQueue<ArchiveDatabase> idle;
+    
+    public ArchiveDatabasePool(List<ArchiveDatabase> databases) {
+        if(databases.isEmpty())
+            throw new IllegalArgumentException("Empty pool");
+        all = Collections.unmodifiableList(new ArrayList<>(databases));
+        idle = new ArrayBlockingQueue<>(all.size(), false, all);
+    }
+    
+    /**
+     * Opens {@code size} sessions with the default credentials, which share 
+     * one connection pool.
+     * @param size
+     * @return 
+     * @see ArchiveDatabase#createDefaultDatabase() 
+     * @see ArchiveDatabase#newSession() 
+     */
+    public static ArchiveDatabasePool createDefault(int size) throws 
+            ParserConfigurationException, SAXException, IOException, SQLException {
+        if(size < 1)
+            throw new IllegalArgumentException("Pool size must be positive: " + size);
+        final List<ArchiveDatabase> databases = new ArrayList<>(size);
+        databases.add(ArchiveDatabase.createDefaultDatabase(size));
+        try {
+            for(int i = 1; i < size; i++)
+                databases.add(databases.get(0).newSession());
+        }
+        catch(RuntimeException ex) {
+            closeInReverse(databases);
+            throw ex;
+        }
+        return new ArchiveDatabasePool(databases);
+    }
+    
+    /**
+     * Waits until a database is idle. It must be given back with 
+     * {@link #release}.
+     * @return 
+     * @throws InterruptedException 
+     */
+    public ArchiveDatabase borrow() throws InterruptedException {
+        return idle.take();
+    }
+    
+    public void release(ArchiveDatabase db) {
+        if(!all.contains(db))
+            throw new IllegalArgumentException("Not from this pool: " + db);
+        idle.add(db);
+    }
+    
+    public int size() {
+        return all.size();
+    }
+    
+    /**
+     * Closes every session, including borrowed ones, and their connection 
+     * pool.
+     * @throws SQLException 
+     */
+    @Override
+    public void close() throws SQLException {
+        closeInReverse(all);
+    }
+    
+    /**
+     * Sessions are closed before the database that opened them.
+     */
+    private static void closeInReverse(List<ArchiveDatabase> databases) throws SQLException {
+        SQLException first = null;
+        for(ArchiveDatabase db : Lists.reverse(databases)) {
+            try {
+                db.close();
+            }
+            catch(SQLException ex) {
+                if(first == null)
+                    first = ex;
+                else
+                    first.addSuppressed(ex);
+            }
+        }
+        if(first != null)
+            throw first;
+    }
+}
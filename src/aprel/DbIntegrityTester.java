@@ -17,13 +17,17 @@
 package aprel;
 
 import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import org.skife.jdbi.v2.Handle;
+import org.skife.jdbi.v2.PreparedBatch;
 
 /**
  *
@@ -38,8 +42,13 @@ public class DbIntegrityTester {
         db = ArchiveDatabase.createDefaultDatabase();
         h = db.getHandle();
         
+        final boolean rebuildPaths = Arrays.asList(args).contains("--rebuild-paths");
+        
         boolean allTestsPassed =
         assertTrue(checkDatabaseDirectoryStructure(), "Database Directory Structure Test");
+        //paths can only be computed when every parent exists
+        allTestsPassed = allTestsPassed &&
+        assertTrue(checkDirectoryPaths(rebuildPaths), "Directory Full Path Test");
         
         System.out.println();
         if(allTestsPassed) System.out.println("ALL TESTS PASSED");
@@ -51,7 +60,7 @@ public class DbIntegrityTester {
     private static boolean checkDatabaseDirectoryStructure() {
         List<Map<String,Object>> dirQuery = h.select("SELECT id,dirParentId FROM directories");
         List<BigInteger> listDirIds = dirQuery.parallelStream().map(row -> row.get("id"))
-                .map(o -> (BigInteger) o).collect(Collectors.toList());
+                .map(o -> new BigInteger(o.toString())).collect(Collectors.toList());
         Set<BigInteger> dirIds = new HashSet<>(listDirIds);
         if(listDirIds.size() != dirIds.size()) {
             System.out.println("Database contains directories with duplicate ids");
@@ -61,7 +70,7 @@ public class DbIntegrityTester {
         List<Map<String,Object>> parentQuery = h.select("SELECT dirParentId FROM files");
         Set<BigInteger> parentIds = Stream.concat(parentQuery.parallelStream(), dirQuery.parallelStream())
                 .map(row -> row.get("dirParentId")).distinct().filter(o -> o != null)
-                .map(o -> (BigInteger) o).collect(Collectors.toSet());
+                .map(o -> new BigInteger(o.toString())).collect(Collectors.toSet());
         if(!dirIds.containsAll(parentIds)) {
             System.out.println("Files have missing parent directories");
             parentIds.removeAll(dirIds);
@@ -79,6 +88,57 @@ public class DbIntegrityTester {
         return true;
     }
     
+    /**
+     * Checks that each directory's fullPath is its parent's followed by its 
+     * name. Databases created before the fullPath column existed are fixed 
+     * with {@code --rebuild-paths}.
+     * @param rebuild whether to rewrite the paths that are wrong
+     * @return whether all paths are (now) correct
+     */
+    private static boolean checkDirectoryPaths(boolean rebuild) {
+        List<Map<String,Object>> dirQuery = h.select("SELECT id,dirName,dirParentId,fullPath FROM directories");
+        Map<Object,Map<String,Object>> byId = dirQuery.stream()
+                .collect(Collectors.toMap(row -> row.get("id"), row -> row));
+        Map<Object,String> expected = new HashMap<>();
+        dirQuery.forEach(row -> expectedPath(row, byId, expected));
+        List<Map<String,Object>> wrong = dirQuery.stream().filter(row -> 
+                !Objects.equals(row.get("fullPath"), expected.get(row.get("id"))))
+                .collect(Collectors.toList());
+        if(wrong.isEmpty())
+            return true;
+        System.out.println(wrong.size() + " directories have a wrong full path");
+        if(!rebuild) {
+            System.out.println("Run with --rebuild-paths to fix them");
+            return false;
+        }
+        h.begin();
+        try {
+            PreparedBatch update = h.prepareBatch("UPDATE directories SET fullPath= :path WHERE id= :id");
+            wrong.forEach(row -> update.add().bind("path", expected.get(row.get("id")))
+                    .bind("id", row.get("id")));
+            update.execute();
+            h.commit();
+        }
+        catch(RuntimeException ex) {
+            h.rollback();
+            throw ex;
+        }
+        System.out.println("Rebuilt " + wrong.size() + " full paths");
+        return true;
+    }
+    
+    private static String expectedPath(Map<String,Object> row, 
+            Map<Object,Map<String,Object>> byId, Map<Object,String> expected) {
+        String path = expected.get(row.get("id"));
+        if(path != null)
+            return path;
+        Object parentId = row.get("dirParentId");
+        path = (parentId == null ? "" : expectedPath(byId.get(parentId), byId, expected)) 
+                + row.get("dirName") + "/";
+        expected.put(row.get("id"), path);
+        return path;
+    }
+    
     private static boolean assertTrue(boolean condition, String testName) {
         System.out.print(testName + ": ");
         if(condition) System.out.println("SUCCESS");
@@ -29,6 +29,7 @@ public class Delegator {
     private static enum Program {
         FILEWALKER("FileWalker", FileWalker.class),
         INSERTER("Inserter", Inserter.class),
+        INGEST("Ingest", Ingester.class),
         CONSOLE("Console", UserInterface.class),
         ISOIFY("Isoify", Isoifier.class),
         VERIFY("Verify", Verifier.class),
@@ -69,6 +70,7 @@ public class Delegator {
         switch(called) {
             case FILEWALKER: FileWalker.main(passArgs); break;
             case INSERTER: Inserter.main(passArgs); break;
+            case INGEST: Ingester.main(passArgs); break;
             case CONSOLE: UserInterface.main(passArgs); break;
             case ISOIFY: Isoifier.main(passArgs); break;
             case VERIFY: Verifier.main(passArgs); break;
@@ -90,6 +92,9 @@ public class Delegator {
         System.out.println(Program.INSERTER.getConsoleCommand());
         System.out.println("Reads METADATA.xml and inserts files into the database");
         System.out.println();
+        System.out.println("(or " + Program.INGEST.getConsoleCommand() + ", instead of both)");
+        System.out.println("Descends into directories and inserts files into the database while they are hashed, without METADATA.xml");
+        System.out.println();
         System.out.println(Program.ISOIFY.getConsoleCommand());
         System.out.println("Queries database for files not yet on optical media and prepares burnable images containing these files");
         System.out.println();
@@ -17,32 +17,41 @@
 package aprel;
 
 import aprel.db.beans.FileBean;
-import aprel.db.beans.FilesRootContainer;
-import com.google.common.hash.HashCode;
-import com.google.common.hash.HashFunction;
-import com.google.common.hash.Hashing;
-import java.io.BufferedReader;
+import aprel.db.beans.FileBeanSink;
+import aprel.db.beans.MetadataXmlReader;
+import aprel.db.beans.MetadataXmlWriter;
+import aprel.hash.Digests;
+import aprel.hash.FileHashCache;
+import aprel.hash.HashCache;
+import aprel.hash.HashingEngine;
+import aprel.hash.Md5SumIndex;
+import aprel.hash.SizeIndex;
+import aprel.hash.XattrHashCache;
+import aprel.media.FfprobeExecutor;
+import aprel.media.WtvHeaderReader;
+import aprel.walk.FileIdentity;
+import aprel.walk.IoScheduler;
+import aprel.walk.OrderedPipeline;
+import aprel.walk.ParallelTreeWalker;
+import com.google.common.util.concurrent.Futures;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.nio.file.FileVisitResult;
 import java.nio.file.FileVisitor;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.Marshaller;
-import javax.xml.bind.util.JAXBSource;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.stream.StreamResult;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
@@ -50,6 +59,7 @@ import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
+import org.skife.jdbi.v2.ResultIterator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -60,33 +70,111 @@ import org.slf4j.LoggerFactory;
 public class FileWalker implements FileVisitor<Path> {
     
     private final Path base;
+    private final FileBeanSink out;
+    private final Path outPath;
+    private final Map<String,FileBean> alreadyWritten;
+    private final ExecutorService workers;
+    private final IoScheduler scheduler;
+    private final OrderedPipeline<FileBean> pipeline;
+    /**
+     * First links to inodes with several links, until all links have been 
+     * found.
+     */
+    private final Map<FileIdentity,HardLink> hardLinks = new HashMap<>();
+    /**
+     * Files found to be in the archive already. Only accessed by the thread 
+     * that writes {@code out}.
+     */
+    private int archivedDuplicates = 0;
     private static boolean useFFprobe;
+    private static boolean ffprobeOnly;
     private static boolean noRecursion;
     private static boolean doMd5;
-    private static Map<String, String> md5Map = null;
-    private static final List<FileBean> fileBeans = new ArrayList<>();
+    private static boolean detectHardLinks = true;
+    private static Md5SumIndex md5Index = null;
+    private static HashCache hashCache = null;
+    private static FfprobeExecutor ffprobe = null;
+    private static ArchiveDatabase archive = null;
+    private static SizeIndex archivedSizes = null;
     private static final Logger LOG = LoggerFactory.getLogger(FileWalker.class);
     
-    private static final String OPTION_PATH = "p";
+    static final String OPTION_PATH = "p";
     private static final String OPTION_NO_FFPROBE = "no-ffprobe";
     private static final String OPTION_NO_RECURSION = "no-recursion";
     private static final String OPTION_NO_MD5 = "no-md5";
     private static final String OPTION_MD5_FILE = "m";
+    private static final String OPTION_THREADS = "t";
+    private static final String OPTION_HASH_CACHE = "hash-cache";
+    private static final String OPTION_XATTR_CACHE = "xattr-cache";
+    private static final String OPTION_RESUME = "resume";
+    private static final String OPTION_FFPROBE_THREADS = "ffprobe-threads";
+    private static final String OPTION_FFPROBE_TIMEOUT = "ffprobe-timeout";
+    private static final String OPTION_FFPROBE_ONLY = "ffprobe-only";
+    private static final String OPTION_DEVICE_THREADS = "device-threads";
+    private static final String OPTION_WALK_THREADS = "walk-threads";
+    private static final String OPTION_IGNORE_HARD_LINKS = "ignore-hard-links";
+    private static final String OPTION_CHECK_ARCHIVE = "check-archive";
+    /**
+     * METADATA.xml is written under this suffix until the walk completes.
+     */
+    private static final String JOURNAL_SUFFIX = ".journal";
+    /**
+     * Number of files that may be waiting per worker thread before the tree 
+     * walk is paused.
+     */
+    private static final int QUEUED_FILES_PER_THREAD = 4;
+    /**
+     * Number of files that may be waiting when reads are scheduled per device. 
+     * The more reads are waiting, the better the scheduler can order them.
+     */
+    private static final int SCHEDULED_FILES = 256;
+    /**
+     * Number of directories that may be listed ahead of the walk.
+     */
+    private static final int PREFETCHED_DIRECTORIES = 1024;
+    
+    private static class HardLink {
+        private final Path path;
+        private final Future<FileBean> bean;
+        /**
+         * Links not found yet.
+         */
+        private int remaining;
+
+        HardLink(Path path, Future<FileBean> bean, int remaining) {
+            this.path = path;
+            this.bean = bean;
+            this.remaining = remaining;
+        }
+    }
+    
+    /**
+     * The threads of a walk, from the options shared with {@link Ingester}.
+     */
+    static class WalkSettings {
+        private final int threads, deviceThreads, walkThreads;
+
+        private WalkSettings(int threads, int deviceThreads, int walkThreads) {
+            this.threads = threads;
+            this.deviceThreads = deviceThreads;
+            this.walkThreads = walkThreads;
+        }
+    }
     
     public static void main(String[] args) throws Exception {
         Options options = new Options();
-        options.addOption(Option.builder(OPTION_PATH).required().longOpt("path")
-                .desc("root directory from which to traverse files").numberOfArgs(1).build());
-        options.addOption(Option.builder().longOpt(OPTION_NO_FFPROBE).numberOfArgs(0)
-                .desc("do not generate media metadata for .wtv files").build());
-        options.addOption(Option.builder().longOpt(OPTION_NO_RECURSION).numberOfArgs(0)
-                .desc("do not enter any directory besides root directory").build());
+        addWalkOptions(options);
         options.addOption(Option.builder().longOpt(OPTION_NO_MD5).numberOfArgs(0)
                 .desc("do not generate MD5 checksums of files").build());
-        options.addOption(Option.builder(OPTION_MD5_FILE).longOpt("md5-file")
-                .desc("import MD5 checksums from file. Files not listed in the "
-                        + "MD5-checksum file will be generated unless --" + OPTION_NO_MD5
-                + " is set").numberOfArgs(1).build());
+        options.addOption(Option.builder().longOpt(OPTION_RESUME).numberOfArgs(0)
+                .desc("continue an interrupted run. Files already recorded in "
+                        + "METADATA.xml" + JOURNAL_SUFFIX + " are not processed again.")
+                .build());
+        options.addOption(Option.builder().longOpt(OPTION_CHECK_ARCHIVE).numberOfArgs(0)
+                .desc("report files that are already in the archive database "
+                        + "during the walk. Only files with the size of an archived "
+                        + "file are looked up; with --" + OPTION_NO_MD5 + ", only "
+                        + "those files are hashed.").build());
         
         CommandLineParser parser = new DefaultParser();
         HelpFormatter formatter = new HelpFormatter();
@@ -100,23 +188,22 @@ public class FileWalker implements FileVisitor<Path> {
             System.exit(1);
             return;
         }
-        useFFprobe = !cmd.hasOption(OPTION_NO_FFPROBE);
-        noRecursion = cmd.hasOption(OPTION_NO_RECURSION);
-        doMd5 = !cmd.hasOption(OPTION_NO_MD5);
-        if(cmd.hasOption(OPTION_MD5_FILE)) {
-            md5Map = new HashMap<>();
-            String md5File = cmd.getOptionValue(OPTION_MD5_FILE);
-            BufferedReader reader = new BufferedReader(new FileReader(md5File));
-            String line;
-            while((line = reader.readLine()) != null) {
-                if(line.trim().length() == 0)
-                    continue;
-                String[] parts = line.split("  ", 2);
-                String file = parts[1];
-                String checksum = parts[0];
-                md5Map.put(file, checksum);
+        final WalkSettings settings;
+        try {
+            settings = configureWalk(cmd, !cmd.hasOption(OPTION_NO_MD5));
+        }
+        catch(IllegalArgumentException ex) {
+            System.out.println(ex.getMessage());
+            formatter.printHelp(FileWalker.class.getSimpleName(), options);
+            System.exit(1);
+            return;
+        }
+        if(cmd.hasOption(OPTION_CHECK_ARCHIVE)) {
+            archive = ArchiveDatabase.createDefaultDatabase();
+            try(ResultIterator<Long> sizes = archive.iterateFileSizes()) {
+                archivedSizes = SizeIndex.of(sizes);
             }
-            reader.close();
+            LOG.info("Loaded {} distinct sizes of archived files", archivedSizes.size());
         }
         if(doMd5)
             System.out.println("MD5 hash is slow; consider using another program for hashing.");
@@ -128,24 +215,293 @@ public class FileWalker implements FileVisitor<Path> {
                     + " to before running this program.");
             System.exit(-1);
         }
+        //completed files are journaled; the journal becomes METADATA.xml at the end
+        final Path journal = Paths.get(outFileLocation + JOURNAL_SUFFIX);
+        //holds the journal being resumed while it is copied into a new journal
+        final Path oldJournal = Paths.get(outFileLocation + JOURNAL_SUFFIX + ".old");
+        final boolean resume = cmd.hasOption(OPTION_RESUME);
+        if(!resume && (Files.exists(journal) || Files.exists(oldJournal))) {
+            System.err.println(journal + " exists from an interrupted run.\nUse --" 
+                    + OPTION_RESUME + " to continue it, or delete it to start over.");
+            System.exit(-1);
+            return;
+        }
+        if(resume && !Files.exists(journal) && !Files.exists(oldJournal)) {
+            System.err.println("Nothing to resume: " + journal + " does not exist.");
+            System.exit(-1);
+            return;
+        }
+        if(resume) {
+            if(Files.exists(oldJournal)) {
+                //an earlier resume was interrupted while copying the old journal,
+                //which is still complete
+                Files.deleteIfExists(journal);
+            }
+            else {
+                Files.move(journal, oldJournal);
+            }
+        }
         
-        FileWalker fw = new FileWalker(p);
-        Files.walkFileTree(p, fw);
+        MetadataXmlWriter writer = new MetadataXmlWriter(new BufferedOutputStream(
+                new FileOutputStream(journal.toFile())));
+        final Map<String,FileBean> journaled = new HashMap<>();
+        if(resume) {
+            try(MetadataXmlReader reader = new MetadataXmlReader(new BufferedInputStream(
+                    new FileInputStream(oldJournal.toFile())), true)) {
+                FileBean bean;
+                while((bean = reader.next()) != null) {
+                    writer.write(bean);
+                    journaled.put(bean.getPath(), bean);
+                }
+            }
+            writer.flush();
+            Files.delete(oldJournal);
+            LOG.info("Resuming after {} journaled files", journaled.size());
+        }
         
-        JAXBContext jaxbContext = JAXBContext.newInstance(FilesRootContainer.class);
-        Marshaller marsh = jaxbContext.createMarshaller();
-        JAXBSource jsource = new JAXBSource(marsh, new FilesRootContainer(fileBeans));
-        TransformerFactory transformerFactory = TransformerFactory.newInstance();
-        Transformer transformer = transformerFactory.newTransformer();
-        transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-        transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
-        transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
-        StreamResult result = new StreamResult(outFile);
-        transformer.transform(jsource, result);
+        final FileWalker fw;
+        try {
+            fw = walk(p, writer, journal, settings, journaled);
+        }
+        finally {
+            if(archive != null)
+                archive.close();
+        }
+        if(archivedSizes != null)
+            System.out.println("Files already in the archive: " + fw.archivedDuplicates);
+        writer.close();
+        Files.move(journal, outFile.toPath());
+        LOG.info("Wrote {} files to {}", writer.getFilesWritten(), outFile);
+        if(doMd5 || archivedSizes != null)
+            LOG.info(HashingEngine.getDefault().getThroughputSummary());
+    }
+    
+    /**
+     * Adds the options that {@link Ingester} shares with this program.
+     * @param options 
+     */
+    static void addWalkOptions(Options options) {
+        options.addOption(Option.builder(OPTION_PATH).required().longOpt("path")
+                .desc("root directory from which to traverse files").numberOfArgs(1).build());
+        options.addOption(Option.builder().longOpt(OPTION_NO_FFPROBE).numberOfArgs(0)
+                .desc("do not generate media metadata for .wtv files").build());
+        options.addOption(Option.builder().longOpt(OPTION_NO_RECURSION).numberOfArgs(0)
+                .desc("do not enter any directory besides root directory").build());
+        options.addOption(Option.builder(OPTION_MD5_FILE).longOpt("md5-file")
+                .desc("import MD5 checksums from file, in md5sum (text or binary "
+                        + "mode) or BSD format. Files not listed in the "
+                        + "MD5-checksum file will be generated unless --" + OPTION_NO_MD5
+                + " is set").numberOfArgs(1).build());
+        options.addOption(Option.builder(OPTION_THREADS).longOpt("threads")
+                .desc("number of worker threads that hash files and run ffprobe "
+                        + "while the directory tree is walked. Output is identical "
+                        + "to a single-threaded run. Default: 1").numberOfArgs(1).build());
+        options.addOption(Option.builder().longOpt(OPTION_HASH_CACHE)
+                .desc("file in which MD5 checksums are remembered between runs. "
+                        + "Files whose size, modification time and inode are "
+                        + "unchanged since they were cached are not read again. "
+                        + "The file is created if it does not exist.").numberOfArgs(1).build());
+        options.addOption(Option.builder().longOpt(OPTION_XATTR_CACHE).numberOfArgs(0)
+                .desc("remember MD5 checksums between runs in a user extended "
+                        + "attribute (" + XattrHashCache.ATTRIBUTE_NAME + ") of "
+                        + "each file instead of in a cache file").build());
+        options.addOption(Option.builder().longOpt(OPTION_DEVICE_THREADS)
+                .desc("read files with this many threads per storage device "
+                        + "instead of a single pool of --threads. Devices are read "
+                        + "concurrently, and the files of each device in inode "
+                        + "order. Use 1 for hard disks, more for SSDs.")
+                .numberOfArgs(1).build());
+        options.addOption(Option.builder().longOpt(OPTION_WALK_THREADS)
+                .desc("list directories and read file attributes with this many "
+                        + "threads ahead of the walk. Useful on network mounts, "
+                        + "where each listing is a round trip. Output is identical "
+                        + "to a single-threaded walk.").numberOfArgs(1).build());
+        options.addOption(Option.builder().longOpt(OPTION_IGNORE_HARD_LINKS).numberOfArgs(0)
+                .desc("hash every hard link to a file separately. By default, "
+                        + "each file is read once, and additional links are "
+                        + "written with HARD_LINK_OF set to the first link.").build());
+        options.addOption(Option.builder().longOpt(OPTION_FFPROBE_THREADS)
+                .desc("maximum number of ffprobe processes running at once. "
+                        + "Default: the number of worker threads").numberOfArgs(1).build());
+        options.addOption(Option.builder().longOpt(OPTION_FFPROBE_TIMEOUT)
+                .desc("seconds after which an ffprobe process is killed and "
+                        + "its file is written without media metadata. Default: " 
+                        + FfprobeExecutor.DEFAULT_TIMEOUT_SECONDS).numberOfArgs(1).build());
+        options.addOption(Option.builder().longOpt(OPTION_FFPROBE_ONLY).numberOfArgs(0)
+                .desc("always run ffprobe for .wtv files. By default, metadata "
+                        + "is read directly from the file header and ffprobe is "
+                        + "only run for files that cannot be read that way").build());
+    }
+    
+    /**
+     * Applies the options added by {@link #addWalkOptions}.
+     * @param cmd
+     * @param md5 whether to compute MD5 checksums
+     * @return the threads to walk with
+     * @throws IllegalArgumentException with a message for the user if an 
+     * option is invalid
+     * @throws IOException if the MD5-checksum file or hash cache cannot be read
+     */
+    static WalkSettings configureWalk(CommandLine cmd, boolean md5) throws IOException {
+        final int threads, deviceThreads, walkThreads;
+        try {
+            threads = cmd.hasOption(OPTION_THREADS) ? 
+                    Integer.parseInt(cmd.getOptionValue(OPTION_THREADS)) : 1;
+            deviceThreads = cmd.hasOption(OPTION_DEVICE_THREADS) ? 
+                    Integer.parseInt(cmd.getOptionValue(OPTION_DEVICE_THREADS)) : 0;
+            walkThreads = cmd.hasOption(OPTION_WALK_THREADS) ? 
+                    Integer.parseInt(cmd.getOptionValue(OPTION_WALK_THREADS)) : 0;
+            if(threads < 1 || (cmd.hasOption(OPTION_DEVICE_THREADS) && deviceThreads < 1)
+                    || (cmd.hasOption(OPTION_WALK_THREADS) && walkThreads < 1))
+                throw new NumberFormatException("must be at least 1");
+        }
+        catch(NumberFormatException ex) {
+            throw new IllegalArgumentException("Illegal number of threads: " + ex.getMessage(), ex);
+        }
+        final int ffprobeThreads;
+        final long ffprobeTimeout;
+        try {
+            ffprobeThreads = cmd.hasOption(OPTION_FFPROBE_THREADS) ? 
+                    Integer.parseInt(cmd.getOptionValue(OPTION_FFPROBE_THREADS)) : threads;
+            ffprobeTimeout = cmd.hasOption(OPTION_FFPROBE_TIMEOUT) ? 
+                    Long.parseLong(cmd.getOptionValue(OPTION_FFPROBE_TIMEOUT)) : 
+                    FfprobeExecutor.DEFAULT_TIMEOUT_SECONDS;
+            if(ffprobeThreads < 1 || ffprobeTimeout < 1)
+                throw new NumberFormatException("must be at least 1");
+        }
+        catch(NumberFormatException ex) {
+            throw new IllegalArgumentException("Illegal ffprobe setting: " + ex.getMessage(), ex);
+        }
+        if(cmd.hasOption(OPTION_HASH_CACHE) && cmd.hasOption(OPTION_XATTR_CACHE))
+            throw new IllegalArgumentException("--" + OPTION_HASH_CACHE + " and --" 
+                    + OPTION_XATTR_CACHE + " cannot be used together");
+        useFFprobe = !cmd.hasOption(OPTION_NO_FFPROBE);
+        ffprobeOnly = cmd.hasOption(OPTION_FFPROBE_ONLY);
+        //settings of an earlier walk in the same process are replaced
+        ffprobe = useFFprobe ? 
+                new FfprobeExecutor(ffprobeThreads, ffprobeTimeout, TimeUnit.SECONDS) : null;
+        noRecursion = cmd.hasOption(OPTION_NO_RECURSION);
+        doMd5 = md5;
+        detectHardLinks = !cmd.hasOption(OPTION_IGNORE_HARD_LINKS);
+        md5Index = cmd.hasOption(OPTION_MD5_FILE) ? 
+                Md5SumIndex.load(Paths.get(cmd.getOptionValue(OPTION_MD5_FILE))) : null;
+        if(cmd.hasOption(OPTION_HASH_CACHE))
+            hashCache = new FileHashCache(Paths.get(cmd.getOptionValue(OPTION_HASH_CACHE)));
+        else if(cmd.hasOption(OPTION_XATTR_CACHE))
+            hashCache = new XattrHashCache();
+        else
+            hashCache = null;
+        return new WalkSettings(threads, deviceThreads, walkThreads);
+    }
+    
+    /**
+     * Walks a tree and writes its files to a sink, then releases what 
+     * {@link #configureWalk} opened.
+     * @param p
+     * @param out
+     * @param outPath see {@link #FileWalker}
+     * @param settings
+     * @param alreadyWritten see {@link #FileWalker}
+     * @return the walker, after {@link #finish}
+     * @throws IOException 
+     */
+    static FileWalker walk(Path p, FileBeanSink out, Path outPath, WalkSettings settings, 
+            Map<String,FileBean> alreadyWritten) throws IOException {
+        FileWalker fw = new FileWalker(p, out, outPath, settings.threads, 
+                settings.deviceThreads, alreadyWritten);
+        try {
+            if(settings.walkThreads > 0)
+                new ParallelTreeWalker(settings.walkThreads, PREFETCHED_DIRECTORIES, !noRecursion)
+                        .walk(p, fw);
+            else
+                Files.walkFileTree(p, fw);
+        }
+        finally {
+            fw.finish();
+            if(ffprobe != null)
+                ffprobe.close();
+            if(hashCache != null)
+                hashCache.close();
+        }
+        return fw;
     }
     
-    public FileWalker(Path base) {
+    /**
+     * 
+     * @param base
+     * @param out receives the files in walk order
+     * @param outPath location of {@code out}, which is skipped if it lies in 
+     * the walked tree, or {@code null} if {@code out} is not a file
+     * @param threads if greater than 1, files are hashed and probed by a pool 
+     * of this many threads while the walk continues. Results are still 
+     * written in walk order.
+     * @param threadsPerDevice if positive, files are instead hashed and probed 
+     * by an {@link IoScheduler} with this many threads per device, and 
+     * {@code threads} is ignored
+     * @param alreadyWritten files that are already in {@code out} and are 
+     * skipped, by relative path. Paths are removed from the map as they are 
+     * encountered. Those with several links still count as the first link 
+     * to their inode.
+     */
+    public FileWalker(Path base, FileBeanSink out, Path outPath, int threads, 
+            int threadsPerDevice, Map<String,FileBean> alreadyWritten) {
         this.base = base;
+        this.out = out;
+        this.outPath = outPath == null ? null : outPath.toAbsolutePath().normalize();
+        this.alreadyWritten = alreadyWritten;
+        if(threadsPerDevice > 0) {
+            workers = null;
+            scheduler = new IoScheduler(threadsPerDevice);
+            pipeline = new OrderedPipeline<>(SCHEDULED_FILES, this::write);
+        }
+        else if(threads > 1) {
+            workers = Executors.newFixedThreadPool(threads);
+            scheduler = null;
+            pipeline = new OrderedPipeline<>(threads * QUEUED_FILES_PER_THREAD, 
+                    this::write);
+        }
+        else {
+            workers = null;
+            scheduler = null;
+            pipeline = null;
+        }
+    }
+    
+    /**
+     * Waits for all files handed to worker threads to be processed and flushes 
+     * the output. Must be called after the walk has completed.
+     * @throws IOException if processing any file failed
+     */
+    public void finish() throws IOException {
+        if(pipeline != null) {
+            try {
+                pipeline.close();
+            }
+            finally {
+                if(workers != null)
+                    workers.shutdownNow();
+                if(scheduler != null)
+                    scheduler.close();
+            }
+        }
+        out.flush();
+    }
+    
+    /**
+     * Writes a completed file and, if the archive is checked, reports it if 
+     * its checksum is already archived.
+     */
+    private void write(FileBean bean) throws IOException {
+        out.write(bean);
+        if(archivedSizes == null || bean.getMd5() == null || bean.isHardLink()
+                || !archivedSizes.contains(bean.getSize()))
+            return;
+        final FileBean archived = archive.getQueryObject().getByMd5(bean.getMd5());
+        if(archived != null) {
+            archivedDuplicates++;
+            System.out.println("Already archived: " + bean.getPath() + " (same as " 
+                    + archived.getDirParentId() + "/" + archived.getName() + ")");
+        }
     }
 
     @Override
@@ -159,82 +515,136 @@ public class FileWalker implements FileVisitor<Path> {
 
     @Override
     public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        if(outPath != null && file.toAbsolutePath().normalize().equals(outPath))
+            return FileVisitResult.CONTINUE;
         final Path relative = base.relativize(file);
+        final FileBean journaled = alreadyWritten.remove(relative.toString());
+        if(journaled != null) {
+            LOG.debug("Already journaled: {}", relative);
+            //later links to the same inode are still aliases of this one
+            if(detectHardLinks) {
+                final FileIdentity identity = FileIdentity.of(file);
+                if(identity.getLinks() > 1) {
+                    final HardLink first = hardLinks.get(identity);
+                    if(first == null)
+                        hardLinks.put(identity, new HardLink(relative, 
+                                Futures.immediateFuture(journaled), identity.getLinks() - 1));
+                    else if(--first.remaining <= 0)
+                        hardLinks.remove(identity);
+                }
+            }
+            return FileVisitResult.CONTINUE;
+        }
         LOG.info("Found file " + relative);
+        final FileIdentity identity = scheduler != null || detectHardLinks 
+                ? FileIdentity.of(file) : null;
+        final boolean linked = detectHardLinks && identity.getLinks() > 1;
+        if(linked) {
+            final HardLink first = hardLinks.get(identity);
+            if(first != null) {
+                //the first link is hashed once for all of them
+                LOG.info("{} is a hard link to {}", relative, first.path);
+                if(--first.remaining <= 0)
+                    hardLinks.remove(identity);
+                final Future<FileBean> alias = Futures.lazyTransform(first.bean, 
+                        bean -> aliasOf(bean, relative));
+                if(pipeline == null)
+                    write(Futures.getUnchecked(alias));
+                else
+                    pipeline.add(alias);
+                return FileVisitResult.CONTINUE;
+            }
+        }
+        //the cheap check: files of other sizes cannot be in the archive
+        final boolean candidate = archivedSizes != null && archivedSizes.contains(attrs.size());
+        if(candidate)
+            LOG.info("{} has the size of an archived file", relative);
+        final boolean hash = doMd5 || candidate;
+        final Future<FileBean> bean;
+        if(pipeline == null) {
+            final FileBean described = describe(file, relative, attrs, hash);
+            write(described);
+            bean = Futures.immediateFuture(described);
+        }
+        else {
+            if(scheduler != null)
+                bean = scheduler.submit(identity, () -> describe(file, relative, attrs, hash));
+            else
+                bean = workers.submit(() -> describe(file, relative, attrs, hash));
+            pipeline.add(bean);
+        }
+        if(linked)
+            hardLinks.put(identity, new HardLink(relative, bean, identity.getLinks() - 1));
+        return FileVisitResult.CONTINUE;
+    }
+    
+    /**
+     * 
+     * @param first bean of the first link to an inode
+     * @param relative path of another link to it
+     * @return bean for the other link, with the checksums and metadata of the 
+     * first
+     */
+    private static FileBean aliasOf(FileBean first, Path relative) {
+        final FileBean alias = new FileBean();
+        alias.setPath(relative.toString());
+        alias.setSize(first.getSize());
+        alias.setMd5(first.getMd5());
+        alias.setXxh64(first.getXxh64());
+        alias.setMedia(first.getMedia());
+        alias.setHardLinkOf(first.isHardLink() ? first.getHardLinkOf() : first.getPath());
+        return alias;
+    }
+
+    /**
+     * Creates the bean for a file: determines its size, checksum and media 
+     * metadata. Safe to call from multiple threads.
+     * @param hash whether to compute the checksum if it is not imported or cached
+     */
+    private static FileBean describe(Path file, Path relative, BasicFileAttributes attrs,
+            boolean hash) throws IOException {
+        FileBean.MediaMetadata nativeMedia = null;
+        Future<FileBean.MediaMetadata> media = null;
+        if(useFFprobe && file.toString().endsWith(".wtv")) {
+            if(!ffprobeOnly)
+                nativeMedia = WtvHeaderReader.read(file);
+            //ffprobe is the fallback; it runs while the file is hashed
+            if(nativeMedia == null)
+                media = ffprobe.probe(file);
+        }
         FileBean bean = new FileBean();
         bean.setPath(relative.toString());
-        fileBeans.add(bean);
         long size = Files.size(file);
         bean.setSize(size);
         String md5String = null;
-        if(md5Map != null) {
-            md5String = md5Map.get(relative.toString());
+        Digests digests = null;
+        if(md5Index != null) {
+            md5String = md5Index.get(relative.toString());
+        }
+        if(hash && md5String == null && hashCache != null) {
+            digests = hashCache.lookup(file, attrs);
+            if(digests != null)
+                LOG.debug("Using cached checksum for {}", relative);
         }
-        if(doMd5 && md5String == null) {
-            @SuppressWarnings("deprecation")
-            HashFunction md5 = Hashing.md5();
-            HashCode hc = com.google.common.io.Files.asByteSource(file.toFile()).hash(md5);
-            md5String = hc.toString();
+        if(hash && md5String == null && digests == null) {
+            //MD5 and XXH64 in one read pass
+            digests = HashingEngine.getDefault().digests(file);
+            if(hashCache != null)
+                hashCache.update(file, attrs, digests);
+        }
+        if(digests != null) {
+            md5String = digests.getMd5();
+            bean.setXxh64(digests.getXxh64());
         }
         bean.setMd5(md5String);
         if(md5String == null) {
             LOG.warn(relative + " has not been assigned a checksum.");
         }
-        if(useFFprobe && file.toString().endsWith(".wtv")) {
-            ProcessBuilder pb = new ProcessBuilder("ffprobe", file.toString());
-            Process p = pb.start();
-            try {
-                p.waitFor();
-            }
-            catch(InterruptedException ex) {
-                LOG.error("Interrupted while waiting for process. How could this happen?", ex);
-            }
-            if(p.exitValue() != 0) {
-                LOG.error("Error calling ffprobe for file " + file);
-            }
-            else {
-                BufferedReader ffprobe = new BufferedReader(new InputStreamReader(p.getErrorStream()));
-                String line;
-                while((line = ffprobe.readLine())!=null) {
-                    String[] parts = line.split(":", 2);
-                    String possibleKey = parts[0].trim();
-                    WtvMetadata corresponding = WtvMetadata.getFromWtvMetadataKey(possibleKey);
-                    if(corresponding != null) {
-                        String value = parts[1].trim();
-                        if(!bean.hasMediaData()) {
-                            bean.setMedia(new FileBean.MediaMetadata());
-                        }
-                        FileBean.MediaMetadata media = bean.getMedia();
-                        if(corresponding == WtvMetadata.DURATION) {
-                            //ffprobe/WTV has two duration values: one as
-                            //100*nanoseconds and another as hrs:mins:secs.fraction
-                            String durationParts[] = value.split(",");
-                            if(durationParts.length > 1) { //is hrs:mins:secs
-                                media.setDuration(durationParts[0]);
-                            }
-                            else {
-                                media.setDuration100Nanos(value);
-                            }
-                            continue;
-                        }
-                        switch(corresponding) {
-                            case TITLE: media.setTitle(value); break;
-                            case SUBTITLE: media.setSubtitle(value); break;
-                            case DESCRIPTION: media.setDescription(value); break;
-                            case CHANNEL: media.setChannel(value); break;
-                            case ORIGINAL_BROADCAST_DATETIME: 
-                                //convert into MySQL datetime
-                                value = value.replace("T", " ").replace("Z", "");
-                                media.setOriginalBroadcast(value);
-                                break;
-                            case ORIGINAL_RUNTIME: media.setOriginalRuntime(value); break;
-                            default: LOG.error("Misprocessed a WtvMetadata enum: " + corresponding); break;
-                        }
-                    }
-                }
-            }
-        }
-        return FileVisitResult.CONTINUE;
+        if(nativeMedia != null)
+            bean.setMedia(nativeMedia);
+        else if(media != null)
+            bean.setMedia(FfprobeExecutor.get(media));
+        return bean;
     }
 
     @Override
@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel;
+
+import aprel.db.beans.CatalogDoesNotExistException;
+import aprel.db.beans.DirectoryCache;
+import aprel.db.beans.FileBean;
+import aprel.db.beans.FileBeanSink;
+import aprel.hash.HashingEngine;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Walks a directory tree like {@link FileWalker} and inserts the files into 
+ * the database as they are described, like {@link Inserter}, without writing 
+ * METADATA.xml. Walking, hashing and inserting run at the same time: files 
+ * are handed to the database thread through a bounded queue, which pauses 
+ * the walk when the database falls behind, and are inserted in batches of 
+ * whatever has been queued. Each batch resolves and creates its own 
+ * directories.
+ * 
+ * Files that are already in the archive are reported and skipped, so an 
+ * interrupted ingest is continued by running it again.
+ * @author Aprel
+ */
+public class Ingester {
+    
+    private static final String OPTION_OUTPUT_PATH = "o";
+    private static final String OPTION_CATALOG = "c";
+    private static final String OPTION_FORCE_CREATE_CATALOG = "force-create-catalog";
+    private static final String OPTION_BATCH_SIZE = "batch-size";
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+    /**
+     * Number of batches that may wait for the database before the walk is 
+     * paused.
+     */
+    private static final int QUEUED_BATCHES = 4;
+    private static final Logger LOG = LoggerFactory.getLogger(Ingester.class);
+    
+    public static void main(String[] args) throws Exception {
+        Options options = new Options();
+        FileWalker.addWalkOptions(options);
+        options.addOption(Option.builder(OPTION_OUTPUT_PATH).required()
+                .desc("the destination path in the catalog").numberOfArgs(1).build());
+        options.addOption(Option.builder(OPTION_CATALOG).required().longOpt("catalog")
+                .desc("the catalog in the archive to receive the files").numberOfArgs(1).build());
+        options.addOption(Option.builder().longOpt(OPTION_FORCE_CREATE_CATALOG)
+                .numberOfArgs(0).build());
+        options.addOption(Option.builder().longOpt(OPTION_BATCH_SIZE)
+                .desc("maximum number of files inserted per transaction. Default: " 
+                        + DEFAULT_BATCH_SIZE).numberOfArgs(1).build());
+        CommandLineParser parser = new DefaultParser();
+        HelpFormatter formatter = new HelpFormatter();
+        CommandLine cmd;
+        final FileWalker.WalkSettings settings;
+        final int batchSize;
+        try {
+            cmd = parser.parse(options, args);
+            batchSize = cmd.hasOption(OPTION_BATCH_SIZE) ? 
+                    Integer.parseInt(cmd.getOptionValue(OPTION_BATCH_SIZE)) : DEFAULT_BATCH_SIZE;
+            if(batchSize < 1)
+                throw new IllegalArgumentException("Illegal batch size: must be at least 1");
+            //files are checked for duplicates by their checksums
+            settings = FileWalker.configureWalk(cmd, true);
+        } catch (ParseException | IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            formatter.printHelp(Ingester.class.getSimpleName(), options);
+
+            System.exit(1);
+            return;
+        }
+        final Path p = Paths.get(cmd.getOptionValue(FileWalker.OPTION_PATH));
+        final Inserter job = new Inserter(p.toString(), cmd.getOptionValue(OPTION_CATALOG), 
+                cmd.getOptionValue(OPTION_OUTPUT_PATH), false, false, false, batchSize, false);
+        
+        ArchiveDatabase db = ArchiveDatabase.createDefaultDatabase();
+        if(!job.ensureCatalog(db, cmd.hasOption(OPTION_FORCE_CREATE_CATALOG))) {
+            db.close();
+            formatter.printHelp(Ingester.class.getSimpleName(), options);
+            System.exit(-1);
+            return;
+        }
+        final DatabaseSink sink = new DatabaseSink(db, job, batchSize);
+        try {
+            FileWalker.walk(p, sink, null, settings, new HashMap<>());
+        }
+        finally {
+            try {
+                sink.close();
+            }
+            finally {
+                db.close();
+            }
+        }
+        System.out.println("Inserted: " + sink.inserted);
+        System.out.println("Skipped, already in the archive: " + sink.duplicates);
+        System.out.println("Skipped hard links: " + sink.hardLinks);
+        LOG.info(HashingEngine.getDefault().getThroughputSummary());
+        LOG.info(DirectoryCache.getDefault().getStatsSummary());
+    }
+    
+    /**
+     * Inserts files on a thread of its own, which alone uses the database 
+     * while the walk runs.
+     */
+    static class DatabaseSink implements FileBeanSink, Closeable {
+        private final ArchiveDatabase db;
+        private final Inserter job;
+        private final int batchSize;
+        private final BlockingQueue<FileBean> queue;
+        private final FileBean endOfInput = new FileBean();
+        private final Thread inserter;
+        private volatile Throwable failure = null;
+        private boolean closed = false;
+        //only written by the inserter thread; read after it is joined
+        long inserted = 0, duplicates = 0, hardLinks = 0;
+
+        DatabaseSink(ArchiveDatabase db, Inserter job, int batchSize) {
+            this.db = db;
+            this.job = job;
+            this.batchSize = batchSize;
+            queue = new ArrayBlockingQueue<>(batchSize * QUEUED_BATCHES);
+            inserter = new Thread(this::run, Ingester.class.getSimpleName() + "-inserter");
+            inserter.start();
+        }
+
+        /**
+         * Queues a file. Blocks while the queue is full.
+         * @throws IOException if inserting an earlier batch failed
+         */
+        @Override
+        public void write(FileBean bean) throws IOException {
+            if(closed)
+                throw new IllegalStateException("Already closed");
+            put(bean);
+        }
+        
+        private void put(FileBean bean) throws IOException {
+            try {
+                //the inserter thread stops taking files if it fails
+                while(!queue.offer(bean, 1, TimeUnit.SECONDS))
+                    checkFailure();
+            }
+            catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while queueing " + bean.getPath());
+            }
+            checkFailure();
+        }
+
+        /**
+         * Files are committed by the inserter thread; this only reports 
+         * whether it has failed.
+         * @throws IOException 
+         */
+        @Override
+        public void flush() throws IOException {
+            checkFailure();
+        }
+
+        /**
+         * Waits for every queued file to be inserted.
+         * @throws IOException if any batch could not be inserted
+         */
+        @Override
+        public void close() throws IOException {
+            if(closed)
+                return;
+            closed = true;
+            if(failure == null)
+                put(endOfInput);
+            try {
+                inserter.join();
+            }
+            catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for inserts");
+            }
+            checkFailure();
+        }
+        
+        private void checkFailure() throws IOException {
+            final Throwable t = failure;
+            if(t == null)
+                return;
+            if(t instanceof IOException)
+                throw (IOException) t;
+            throw new IOException("Could not insert files. Those already inserted "
+                    + "are skipped when the ingest is run again.", t);
+        }
+
+        private void run() {
+            final List<FileBean> batch = new ArrayList<>(batchSize);
+            try {
+                boolean end = false;
+                while(!end) {
+                    //whatever has been queued, up to a full batch
+                    batch.add(queue.take());
+                    queue.drainTo(batch, batchSize - 1);
+                    if(batch.get(batch.size() - 1) == endOfInput) {
+                        batch.remove(batch.size() - 1);
+                        end = true;
+                    }
+                    if(!batch.isEmpty())
+                        insert(batch);
+                    batch.clear();
+                }
+            }
+            catch(InterruptedException | RuntimeException ex) {
+                LOG.error("Could not insert files", ex);
+                failure = ex;
+            }
+        }
+        
+        private void insert(List<FileBean> batch) {
+            final Map<String,FileBean> byMd5 = new LinkedHashMap<>();
+            for(FileBean bean : batch) {
+                if(bean.isHardLink()) {
+                    //additional hard links have the same contents as their first link
+                    LOG.info("Skipping {}, a hard link to {}", bean.getPath(), 
+                            bean.getHardLinkOf());
+                    hardLinks++;
+                }
+                else if(bean.getMd5() == null) {
+                    throw new IllegalStateException(bean.getPath() + " has no checksum");
+                }
+                else {
+                    final FileBean same = byMd5.putIfAbsent(bean.getMd5(), bean);
+                    if(same != null) {
+                        System.out.println("Already archived: " + bean.getPath() 
+                                + " (same as " + same.getPath() + ")");
+                        duplicates++;
+                    }
+                }
+            }
+            //files of earlier batches have been committed, so they are found too
+            Inserter.getByMd5s(db, byMd5.keySet()).forEach(archived -> {
+                final FileBean bean = byMd5.remove(archived.getMd5());
+                if(bean != null) {
+                    System.out.println("Already archived: " + bean.getPath() + " (same as " 
+                            + archived.getDirParentId() + "/" + archived.getName() + ")");
+                    duplicates++;
+                }
+            });
+            if(byMd5.isEmpty())
+                return;
+            final List<FileBean> files = new ArrayList<>(byMd5.values());
+            try {
+                job.insertChunk(db, files, 0);
+            }
+            catch(CatalogDoesNotExistException ex) {
+                throw new IllegalStateException(ex);
+            }
+            inserted += files.size();
+            LOG.info("Inserted {} files", inserted);
+        }
+    }
+}
@@ -18,24 +18,55 @@ package aprel;
 
 import aprel.db.beans.CatalogDoesNotExistException;
 import aprel.db.beans.Directories;
+import aprel.db.beans.DirectoryCache;
 import aprel.db.beans.FileBean;
-import aprel.db.beans.FilesRootContainer;
+import aprel.db.beans.MetadataXmlReader;
+import aprel.hash.XxHash64;
 import aprel.jdbi.Insert;
+import aprel.jdbi.beanmappers.FileBeanMapper;
 import aprel.optical.Part;
+import com.google.common.base.CharMatcher;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.BufferedInputStream;
 import java.io.File;
-import java.util.HashSet;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.Unmarshaller;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.MissingOptionException;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
+import org.skife.jdbi.v2.Handle;
+import org.skife.jdbi.v2.Query;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -59,26 +90,104 @@ public class Inserter {
     private static final String OPTION_CATALOG = "c";
     private static final String OPTION_FORCE_CREATE_CATALOG = "force-create-catalog";
     private static final String OPTION_ADD_FROM_OPTICAL = "add-from-optical";
+    private static final String OPTION_PENDING_MD5 = "pending-md5";
+    private static final String OPTION_CHUNK_SIZE = "chunk-size";
+    private static final String OPTION_RESUME = "resume";
+    private static final String OPTION_BULK_LOAD = "bulk-load";
+    private static final int DEFAULT_CHUNK_SIZE = 1000;
+    /**
+     * The progress of an insert is kept next to METADATA.xml under this suffix 
+     * until all files are committed.
+     */
+    private static final String PROGRESS_SUFFIX = ".progress";
+    /**
+     * Number of FILE elements of METADATA.xml, including skipped hard links, 
+     * whose chunks have been committed.
+     */
+    private static final String PROGRESS_FILES = "files";
+    /**
+     * Disc number of files added from optical.
+     */
+    private static final String PROGRESS_DISC = "disc";
+    /**
+     * Checksums per duplicate-check query.
+     */
+    private static final int MD5_LOOKUP_CHUNK = 1000;
     private static final Logger LOG = LoggerFactory.getLogger(Inserter.class);
     
-    private static String archivePath, localPath, catalog;
-    private static boolean addFromOptical;
+    private static final String OPTION_JOBS = "jobs";
+    private static final String OPTION_JOB_THREADS = "threads";
+    private static final int DEFAULT_JOB_THREADS = 4;
+    
+    private final String archivePath, localPath, catalog;
+    private final boolean addFromOptical, allowPendingMd5, bulkLoad;
+    private boolean resume;
+    private final int chunkSize;
+    private final File metadataFile;
+    private final Path progressFile;
+    private final Properties progress = new Properties();
+    private long committed;
+    /**
+     * Fingerprints of the checksums checked by {@link #check}.
+     */
+    private long[] fingerprints;
     
     /*
+    Files are inserted in chunks, each in its own transaction. If an insert 
+    stops between the commit of a chunk and the update of the progress file, 
+    the resumed run finds that chunk's files in the database at their paths 
+    with their checksums, and moves its progress past them before checking.
+    
     Things that must be checked prior to insertion into database:
     -that no file to be inserted has the same md5 as another or a file in the db
     -that no file has the same name as another with the same directory parent in the db
     ^--Handled in Directories/DirectoryStructure
+    
+    With --jobs, several METADATA.xml are inserted at once, each over its own 
+    connection. Each job only creates directories below its archive path, so 
+    jobs whose archive paths are not within one another run in parallel; the 
+    others run in the order of the jobs file. All jobs are checked before 
+    any is inserted, so that a checksum in two of them is also caught.
     */
     
+    Inserter(String localPath, String catalog, String archivePath, 
+            boolean addFromOptical, boolean allowPendingMd5, boolean resume, int chunkSize, 
+            boolean bulkLoad) {
+        this.localPath = localPath.endsWith("/") ? localPath.substring(0, localPath.length()-1) : localPath;
+        this.catalog = catalog;
+        this.archivePath = archivePath;
+        this.addFromOptical = addFromOptical;
+        this.allowPendingMd5 = allowPendingMd5;
+        this.resume = resume;
+        this.chunkSize = chunkSize;
+        this.bulkLoad = bulkLoad;
+        metadataFile = new File(this.localPath + "/METADATA.xml");
+        //the number of FILE elements committed is recorded after each chunk
+        progressFile = Paths.get(metadataFile.getPath() + PROGRESS_SUFFIX);
+    }
+    
     public static void main(String[] args) throws Exception {
         Options options = new Options();
-        options.addOption(Option.builder(OPTION_INPUT_PATH).required()
+        options.addOption(Option.builder(OPTION_INPUT_PATH)
                 .desc("the local path to the directory of files to be archived").numberOfArgs(1).build());
-        options.addOption(Option.builder(OPTION_OUTPUT_PATH).required()
+        options.addOption(Option.builder(OPTION_OUTPUT_PATH)
                 .desc("the destination path in the catalog").numberOfArgs(1).build());
-        options.addOption(Option.builder(OPTION_CATALOG).required().longOpt("catalog")
+        options.addOption(Option.builder(OPTION_CATALOG).longOpt("catalog")
                 .desc("the catalog in the archive to receive the files").numberOfArgs(1).build());
+        options.addOption(Option.builder().longOpt(OPTION_JOBS)
+                .desc("insert several directories instead of one -" + OPTION_INPUT_PATH 
+                        + " -" + OPTION_OUTPUT_PATH + " -" + OPTION_CATALOG + ". Each "
+                        + "line of the file is a local path, catalog and destination "
+                        + "path separated by tabs; lines starting with # are ignored. "
+                        + "Jobs whose destinations are not within one another are "
+                        + "inserted at the same time. The other options apply to all "
+                        + "jobs; with --" + OPTION_RESUME + ", interrupted jobs are "
+                        + "continued and the others started.")
+                .numberOfArgs(1).build());
+        options.addOption(Option.builder().longOpt(OPTION_JOB_THREADS)
+                .desc("number of jobs inserted at the same time, each with its own "
+                        + "database connection. Default: " + DEFAULT_JOB_THREADS)
+                .numberOfArgs(1).build());
         options.addOption(Option.builder().longOpt(OPTION_FORCE_CREATE_CATALOG)
                 .numberOfArgs(0).build());
         options.addOption(Option.builder().longOpt(OPTION_ADD_FROM_OPTICAL)
@@ -87,11 +196,46 @@ public class Inserter {
                         + "print the optical's serial number to standard out. "
                         + "Write this number and the catalog name on the optical medium.")
                 .numberOfArgs(0).build());
+        options.addOption(Option.builder().longOpt(OPTION_PENDING_MD5)
+                .desc("allow files without an MD5 checksum, e.g. from FileWalker "
+                        + "--no-md5. Their checksums are computed by Isoifier "
+                        + "while it copies them, which saves reading every file "
+                        + "once more. They are only checked for duplicates then.")
+                .numberOfArgs(0).build());
+        options.addOption(Option.builder().longOpt(OPTION_CHUNK_SIZE)
+                .desc("number of files inserted per transaction. METADATA.xml is "
+                        + "read one chunk at a time, and each committed chunk is "
+                        + "recorded in METADATA.xml" + PROGRESS_SUFFIX + ". Default: " 
+                        + DEFAULT_CHUNK_SIZE).numberOfArgs(1).build());
+        options.addOption(Option.builder().longOpt(OPTION_RESUME).numberOfArgs(0)
+                .desc("continue an insert that stopped partway. Files in chunks "
+                        + "already committed are not checked or inserted again.")
+                .build());
+        options.addOption(Option.builder().longOpt(OPTION_BULK_LOAD).numberOfArgs(0)
+                .desc("insert each chunk with LOAD DATA LOCAL INFILE instead of "
+                        + "batched INSERTs, which is much faster for millions of files. "
+                        + "Use a large --" + OPTION_CHUNK_SIZE + ". The MySQL server "
+                        + "must have local_infile enabled.")
+                .build());
         CommandLineParser parser = new DefaultParser();
         HelpFormatter formatter = new HelpFormatter();
         CommandLine cmd;
         try {
             cmd = parser.parse(options, args);
+            //either a jobs file or a single job
+            if(cmd.hasOption(OPTION_JOBS)) {
+                if(cmd.hasOption(OPTION_INPUT_PATH) || cmd.hasOption(OPTION_OUTPUT_PATH) 
+                        || cmd.hasOption(OPTION_CATALOG))
+                    throw new ParseException("--" + OPTION_JOBS + " cannot be used with -" 
+                            + OPTION_INPUT_PATH + ", -" + OPTION_OUTPUT_PATH + " or -" 
+                            + OPTION_CATALOG);
+            }
+            else {
+                final List<String> missing = Stream.of(OPTION_INPUT_PATH, OPTION_OUTPUT_PATH, 
+                        OPTION_CATALOG).filter(o -> !cmd.hasOption(o)).collect(Collectors.toList());
+                if(!missing.isEmpty())
+                    throw new MissingOptionException(missing);
+            }
         } catch (ParseException e) {
             System.out.println(e.getMessage());
             formatter.printHelp(Inserter.class.getSimpleName(), options);
@@ -99,109 +243,658 @@ public class Inserter {
             System.exit(1);
             return;
         }
-        archivePath = cmd.getOptionValue(OPTION_OUTPUT_PATH);
-        localPath = cmd.getOptionValue(OPTION_INPUT_PATH);
-        localPath = localPath.endsWith("/") ? localPath.substring(0, localPath.length()-1) : localPath;
-        catalog = cmd.getOptionValue(OPTION_CATALOG);
-        addFromOptical = cmd.hasOption(OPTION_ADD_FROM_OPTICAL);
-        String metadataFileLoc = localPath + (localPath.endsWith("/") ? "" : "/") + "METADATA.xml";
-        File metadataFile = new File(metadataFileLoc);
-        if(!metadataFile.exists()) {
-            LOG.error("No METADATA.xml at " + metadataFile.getAbsolutePath());
+        final boolean addFromOptical = cmd.hasOption(OPTION_ADD_FROM_OPTICAL);
+        final boolean allowPendingMd5 = cmd.hasOption(OPTION_PENDING_MD5);
+        if(allowPendingMd5 && addFromOptical) {
+            System.out.println("--" + OPTION_PENDING_MD5 + " cannot be used with --" 
+                    + OPTION_ADD_FROM_OPTICAL);
+            System.exit(1);
             return;
         }
-        JAXBContext jaxbContext = JAXBContext.newInstance(FilesRootContainer.class);
-        Unmarshaller unmarsh = jaxbContext.createUnmarshaller();
-        FilesRootContainer files = (FilesRootContainer) unmarsh.unmarshal(metadataFile);
-        List<FileBean> l = files.getFiles();
-        //files are not on optical; they are on local storage
-        l.stream().forEach(bean ->  {
-            if(addFromOptical) {
-                bean.setOnOptical(true);
-                bean.setMd5Verified(true);
-                bean.setOnLocalDisc(false);
-            }
-            else {
-                bean.setOnOptical(false);
-                bean.setMd5Verified(false);
-                bean.setOnLocalDisc(true);
+        final int chunkSize, threads;
+        try {
+            chunkSize = cmd.hasOption(OPTION_CHUNK_SIZE) ? 
+                    Integer.parseInt(cmd.getOptionValue(OPTION_CHUNK_SIZE)) : DEFAULT_CHUNK_SIZE;
+            if(chunkSize < 1)
+                throw new NumberFormatException("chunk size must be at least 1");
+            threads = cmd.hasOption(OPTION_JOB_THREADS) ? 
+                    Integer.parseInt(cmd.getOptionValue(OPTION_JOB_THREADS)) : DEFAULT_JOB_THREADS;
+            if(threads < 1)
+                throw new NumberFormatException("threads must be at least 1");
+        }
+        catch(NumberFormatException ex) {
+            System.out.println("Illegal number: " + ex.getMessage());
+            formatter.printHelp(Inserter.class.getSimpleName(), options);
+            System.exit(1);
+            return;
+        }
+        final boolean resume = cmd.hasOption(OPTION_RESUME);
+        final boolean forceCreateCatalog = cmd.hasOption(OPTION_FORCE_CREATE_CATALOG);
+        final boolean bulkLoad = cmd.hasOption(OPTION_BULK_LOAD);
+        
+        if(cmd.hasOption(OPTION_JOBS)) {
+            final List<Inserter> jobs = new ArrayList<>();
+            for(String[] job : readJobs(Paths.get(cmd.getOptionValue(OPTION_JOBS)))) {
+                final Inserter inserter = new Inserter(job[0], job[1], job[2], addFromOptical, 
+                        allowPendingMd5, false, chunkSize, bulkLoad);
+                //only the jobs that were interrupted are resumed
+                inserter.resume = resume && Files.exists(inserter.progressFile);
+                jobs.add(inserter);
             }
-            bean.setCatalog(catalog);
-        });
+            System.exit(runJobs(jobs, threads, forceCreateCatalog) ? 0 : -1);
+            return;
+        }
+        
+        final Inserter job = new Inserter(cmd.getOptionValue(OPTION_INPUT_PATH), 
+                cmd.getOptionValue(OPTION_CATALOG), cmd.getOptionValue(OPTION_OUTPUT_PATH), 
+                addFromOptical, allowPendingMd5, resume, chunkSize, bulkLoad);
+        if(!job.prepare()) {
+            System.exit(-1);
+            return;
+        }
         
         ArchiveDatabase db = ArchiveDatabase.createDefaultDatabase();
-        //check for md5sum duplicates
-        final Set<FileBean> md5Duplicates = new HashSet<>();
+        //check for missing checksums and md5sum duplicates before inserting anything
         LOG.debug("Begin checking for MD5 duplicates...");
-        l.forEach(b -> {
-            FileBean databaseDuplicate = db.getQueryObject().getByMd5(b.getMd5());
-            if(databaseDuplicate != null) {
-                LOG.info("Found duplicate: {}", databaseDuplicate);
-                md5Duplicates.add(databaseDuplicate);
-            }
-        });
-        if(!md5Duplicates.isEmpty()) {
-            System.out.println("There are files with the same MD5 in the database");
-            md5Duplicates.forEach(b -> {
-                System.out.println(b.getDirParentId() + "/" + b.getName());
-            });
-            System.out.println("Total # of duplicates: " + md5Duplicates.size());
+        if(!job.check(db)) {
             db.close();
             System.exit(0);
         }
         LOG.debug("Completed MD5 duplicate check.");
-        Directories directories;
+        if(!job.ensureCatalog(db, forceCreateCatalog)) {
+            formatter.printHelp(Inserter.class.getSimpleName(), options);
+            System.exit(-1);
+            return;
+        }
+        
+        job.insert(db);
+        LOG.info(DirectoryCache.getDefault().getStatsSummary());
+        
+        db.close();
+    }
+    
+    /**
+     * 
+     * @param jobsFile
+     * @return the local path, catalog and archive path of each job
+     * @throws IOException if the file cannot be read or a line is malformed
+     */
+    private static List<String[]> readJobs(Path jobsFile) throws IOException {
+        final List<String[]> jobs = new ArrayList<>();
+        int lineNumber = 0;
+        for(String line : Files.readAllLines(jobsFile)) {
+            lineNumber++;
+            if(line.trim().isEmpty() || line.startsWith("#"))
+                continue;
+            final String[] fields = line.split("\t");
+            if(fields.length != 3)
+                throw new IOException(jobsFile + ":" + lineNumber + ": expected a local "
+                        + "path, catalog and destination path separated by tabs");
+            jobs.add(fields);
+        }
+        return jobs;
+    }
+    
+    /**
+     * Checks every job, then inserts those that passed.
+     * @param jobs
+     * @param threads number of jobs processed at once
+     * @param forceCreateCatalog
+     * @return whether every job was inserted
+     */
+    private static boolean runJobs(List<Inserter> jobs, int threads, boolean forceCreateCatalog) 
+            throws Exception {
+        final List<Inserter> prepared = jobs.stream().filter(Inserter::prepare)
+                .collect(Collectors.toList());
+        int inserted = 0;
+        if(!prepared.isEmpty()) {
+            try(ArchiveDatabasePool pool = ArchiveDatabasePool.createDefault(
+                    Math.min(threads, prepared.size()))) {
+                inserted = runJobs(prepared, pool, threads, forceCreateCatalog);
+            }
+            LOG.info(DirectoryCache.getDefault().getStatsSummary());
+        }
+        System.out.println("Inserted " + inserted + " of " + jobs.size() + " jobs");
+        return inserted == jobs.size();
+    }
+    
+    /**
+     * Checks prepared jobs, then inserts those that passed. Jobs whose archive 
+     * paths are within one another are inserted one after the other, in the 
+     * order given.
+     * @param prepared
+     * @param pool
+     * @param threads number of jobs processed at once
+     * @param forceCreateCatalog
+     * @return the number of jobs inserted
+     */
+    static int runJobs(List<Inserter> prepared, ArchiveDatabasePool pool, int threads, 
+            boolean forceCreateCatalog) throws InterruptedException {
+        final ExecutorService workers = Executors.newFixedThreadPool(threads, 
+                new ThreadFactoryBuilder().setNameFormat("inserter-%d").build());
+        try {
+            //checks only read, so they can all run at once
+            final List<Future<Boolean>> checks = new ArrayList<>();
+            for(Inserter job : prepared) {
+                checks.add(workers.submit(() -> {
+                    final ArchiveDatabase db = pool.borrow();
+                    try {
+                        return job.check(db);
+                    }
+                    finally {
+                        pool.release(db);
+                    }
+                }));
+            }
+            final List<Inserter> checked = new ArrayList<>();
+            for(int i = 0; i < prepared.size(); i++) {
+                final Inserter job = prepared.get(i);
+                try {
+                    if(checks.get(i).get())
+                        checked.add(job);
+                    else
+                        System.out.println("Skipping " + job + ": it did not pass its checks");
+                }
+                catch(ExecutionException ex) {
+                    LOG.error("Could not check " + job, ex.getCause());
+                }
+            }
+            final List<Inserter> accepted = new ArrayList<>();
+            final ArchiveDatabase catalogs = pool.borrow();
+            try {
+                for(Inserter job : withoutSharedChecksums(checked)) {
+                    try {
+                        if(job.ensureCatalog(catalogs, forceCreateCatalog))
+                            accepted.add(job);
+                    }
+                    catch(IllegalArgumentException ex) {
+                        System.out.println("Skipping " + job + ": " + ex.getMessage());
+                    }
+                }
+            }
+            finally {
+                pool.release(catalogs);
+            }
+            
+            //each job waits for the earlier jobs it conflicts with
+            final List<CompletableFuture<Void>> inserts = new ArrayList<>();
+            for(int i = 0; i < accepted.size(); i++) {
+                final Inserter job = accepted.get(i);
+                final CompletableFuture<?>[] earlier = IntStream.range(0, i)
+                        .filter(j -> accepted.get(j).conflictsWith(job))
+                        .mapToObj(inserts::get).toArray(CompletableFuture<?>[]::new);
+                inserts.add(CompletableFuture.allOf(earlier)
+                        //run even if an earlier job failed
+                        .handle((v, ex) -> null)
+                        .thenRunAsync(() -> {
+                            try {
+                                final ArchiveDatabase db = pool.borrow();
+                                try {
+                                    job.insert(db);
+                                }
+                                finally {
+                                    pool.release(db);
+                                }
+                            }
+                            catch(Exception ex) {
+                                throw new CompletionException(ex);
+                            }
+                        }, workers));
+            }
+            int inserted = 0;
+            for(int i = 0; i < accepted.size(); i++) {
+                try {
+                    inserts.get(i).join();
+                    inserted++;
+                }
+                catch(CompletionException ex) {
+                    LOG.error("Could not insert " + accepted.get(i), ex.getCause());
+                }
+            }
+            return inserted;
+        }
+        finally {
+            workers.shutdown();
+        }
+    }
+    
+    /**
+     * 
+     * @param jobs that have been checked
+     * @return the jobs that share no checksum with an earlier job. The 
+     * others are reported.
+     */
+    private static List<Inserter> withoutSharedChecksums(List<Inserter> jobs) {
+        final List<Inserter> kept = new ArrayList<>();
+        long[] seen = new long[0];
+        for(Inserter job : jobs) {
+            long shared = 0;
+            for(long f : job.fingerprints) {
+                if(Arrays.binarySearch(seen, f) >= 0)
+                    shared++;
+            }
+            if(shared > 0) {
+                System.out.println("Skipping " + job + ": " + shared 
+                        + " of its checksums are also in an earlier job");
+                continue;
+            }
+            kept.add(job);
+            seen = LongStream.concat(Arrays.stream(seen), Arrays.stream(job.fingerprints))
+                    .sorted().toArray();
+        }
+        return kept;
+    }
+    
+    /**
+     * 
+     * @param other
+     * @return whether the archive path of either job is within the other's, 
+     * or both jobs take the next disc number of the same catalog
+     */
+    boolean conflictsWith(Inserter other) {
+        if(addFromOptical && other.addFromOptical && catalog.equals(other.catalog))
+            return true;
+        final String subtree = getSubtree(), otherSubtree = other.getSubtree();
+        return subtree.startsWith(otherSubtree) || otherSubtree.startsWith(subtree);
+    }
+    
+    private String getSubtree() {
+        final String path = CharMatcher.is('/').trimFrom(archivePath);
+        return catalog + "/" + (path.isEmpty() ? "" : path + "/");
+    }
+    
+    /**
+     * Checks that METADATA.xml exists and loads the progress of an earlier 
+     * run. Problems are printed.
+     * @return whether the job can go on
+     */
+    boolean prepare() {
+        if(!metadataFile.exists()) {
+            LOG.error("No METADATA.xml at " + metadataFile.getAbsolutePath());
+            return false;
+        }
+        if(!resume && Files.exists(progressFile)) {
+            System.err.println(progressFile + " exists from an interrupted run.\nUse --" 
+                    + OPTION_RESUME + " to continue it.");
+            return false;
+        }
+        if(resume && !Files.exists(progressFile)) {
+            System.err.println("Nothing to resume: " + progressFile + " does not exist.");
+            return false;
+        }
+        if(resume) {
+            try(InputStream in = Files.newInputStream(progressFile)) {
+                progress.load(in);
+            }
+            catch(IOException ex) {
+                LOG.error("Could not read " + progressFile, ex);
+                return false;
+            }
+        }
+        committed = Long.parseLong(progress.getProperty(PROGRESS_FILES, "0"));
+        if(resume)
+            System.out.println("Resuming after " + committed + " files");
+        return true;
+    }
+    
+    boolean check(ArchiveDatabase db) throws IOException {
+        if(resume)
+            skipCommittedFiles(db);
+        return checkFiles(db, metadataFile, committed, chunkSize);
+    }
+    
+    /**
+     * Moves the progress past files after the recorded progress that are 
+     * already in the database, at their path in the archive and with their 
+     * checksum: a chunk whose commit was not recorded because the earlier run 
+     * stopped right after it. Since chunks are committed in order, the 
+     * search stops at the first file that is not there.
+     * @return the number of files found
+     */
+    private long skipCommittedFiles(ArchiveDatabase db) throws IOException {
+        final aprel.jdbi.Query query = db.getQueryObject();
+        final String subtree = getSubtree();
+        long found = 0;
+        long position = 0, done = committed;
+        try(MetadataXmlReader reader = openMetadata(metadataFile)) {
+            FileBean bean;
+            while((bean = reader.next()) != null) {
+                if(position++ < committed || bean.isHardLink())
+                    continue;
+                final String path = CharMatcher.is('/').trimLeadingFrom(bean.getPath());
+                final int slash = path.lastIndexOf('/');
+                final FileBean inDb = query.getFileByPath(
+                        subtree + (slash == -1 ? "" : path.substring(0, slash + 1)), 
+                        bean.getFilename());
+                if(inDb == null || (bean.getMd5() != null && !bean.getMd5().equals(inDb.getMd5())))
+                    break;
+                found++;
+                done = position;
+            }
+        }
+        if(found > 0) {
+            System.out.println(found + " files after the first " + committed 
+                    + " were already committed; resuming after " + done + " files");
+            committed = done;
+            progress.setProperty(PROGRESS_FILES, Long.toString(committed));
+            saveProgress(progress, progressFile);
+        }
+        return found;
+    }
+    
+    /**
+     * 
+     * @return whether the catalog exists, or has been created
+     * @throws IllegalArgumentException if the archive path is malformed or 
+     * not in the archive
+     */
+    boolean ensureCatalog(ArchiveDatabase db, boolean forceCreateCatalog) {
         try {
-            directories = new Directories(catalog, archivePath, db);
+            new Directories(catalog, archivePath, db);
         }
         catch(CatalogDoesNotExistException ex) {
-            if(cmd.hasOption(OPTION_FORCE_CREATE_CATALOG)) {
+            if(forceCreateCatalog) {
                 LOG.info("Catalog does not exist. Now creating it...");
                 db.getInsertObject().createCatalog(catalog);
-                directories = new Directories(catalog, archivePath, db);
+                //the archive path must be in the new catalog too
+                try {
+                    new Directories(catalog, archivePath, db);
+                }
+                catch(CatalogDoesNotExistException impossible) {
+                    throw new IllegalStateException(impossible);
+                }
             }
             else {
                 LOG.error("Catalog does not exist: " + catalog);
                 System.err.println("There is no catalog by name \"" + catalog + 
                         "\" in the archive. Use --" + OPTION_FORCE_CREATE_CATALOG + 
                         " to create it.");
-                formatter.printHelp(Inserter.class.getSimpleName(), options);
-                System.exit(-1);
-                return;
+                return false;
             }
         }
-        directories.addFiles(l, localPath);
-        System.out.println(directories.getDirectoriesToBeCreated());
-        directories.commitToDatabase();
+        return true;
+    }
+    
+    void insert(ArchiveDatabase db) throws IOException, CatalogDoesNotExistException {
+        //since these files are already burned to optical, they share one new disc
+        final int discNumber;
+        if(!addFromOptical)
+            discNumber = 0;
+        else if(resume)
+            discNumber = Integer.parseInt(progress.getProperty(PROGRESS_DISC));
+        else
+            discNumber = db.getQueryObject().getLastDiscNumberInSeries(catalog) + 1;
+        if(addFromOptical)
+            progress.setProperty(PROGRESS_DISC, Integer.toString(discNumber));
+        
+        try(MetadataXmlReader reader = openMetadata(metadataFile)) {
+            long position = 0;
+            while(position < committed) {
+                if(reader.next() == null)
+                    throw new IOException("METADATA.xml has only " + position 
+                            + " files, but " + committed + " were committed");
+                position++;
+            }
+            final List<FileBean> chunk = new ArrayList<>(chunkSize);
+            while(true) {
+                final FileBean bean = reader.next();
+                if(bean != null) {
+                    position++;
+                    //additional hard links have the same contents as their first link
+                    if(bean.isHardLink())
+                        LOG.info("Skipping {}, a hard link to {}", bean.getPath(), 
+                                bean.getHardLinkOf());
+                    else
+                        chunk.add(bean);
+                }
+                if(chunk.size() == chunkSize || (bean == null && !chunk.isEmpty())) {
+                    try {
+                        insertChunk(db, chunk, discNumber);
+                    }
+                    catch(RuntimeException ex) {
+                        System.err.println("Could not insert the files of " + metadataFile 
+                                + " after the first " + (position - chunk.size()) 
+                                + ". Fix the problem and use --" + OPTION_RESUME 
+                                + " to continue.");
+                        throw ex;
+                    }
+                    progress.setProperty(PROGRESS_FILES, Long.toString(position));
+                    saveProgress(progress, progressFile);
+                    LOG.info("Committed {} files", position);
+                    chunk.clear();
+                }
+                if(bean == null)
+                    break;
+            }
+        }
+        Files.deleteIfExists(progressFile);
         
         if(addFromOptical) {
-            //now, add the Parts to the database
-            //since these are files already burned to optical, they are each one single part
-            final Insert ins = db.getInsertObject();
-            final int newDiscNumber = db.getQueryObject()
-                    .getLastDiscNumberInSeries(catalog) + 1;
-            List<Part> parts = l.stream().map(file -> {
-                Part p = new Part(file);
-                p.setCatalog(catalog);
-                p.setDiscNumber(newDiscNumber);
-                p.setMd5(file.getMd5());
-                p.setMd5Verified(true);
-                p.setOnOptical(true);
-                p.setOrdinal(1);
-                p.setTotalInSet(1);
-                p.setPartFilename(file.getFilename());
-                p.setSize(file.getSize());
-                return p;
-            }).collect(Collectors.toList());
-            parts.forEach(p -> {
-                String id = ins.insertPart(p);
-                p.setId(id);
-            });
             System.out.println("Label optical disc:");
             System.out.println("Catalog: " + catalog);
-            System.out.println("Number: " + newDiscNumber);
+            System.out.println("Number: " + discNumber);
         }
-        
-        db.close();
+    }
+    
+    @Override
+    public String toString() {
+        return localPath + " -> " + getSubtree();
+    }
+    
+    private static MetadataXmlReader openMetadata(File metadataFile) throws IOException {
+        return new MetadataXmlReader(new BufferedInputStream(
+                new FileInputStream(metadataFile)), false);
+    }
+    
+    /**
+     * Checks the files after the first {@code skip} in METADATA.xml without 
+     * holding them in memory: that they have checksums unless pending 
+     * checksums are allowed, and that no two of them and no file in the 
+     * database have the same checksum. Problems are printed.
+     * 
+     * Duplicates within METADATA.xml are found through a 64-bit fingerprint 
+     * per checksum, i.e. 8 bytes per file. If any fingerprints repeat, the 
+     * document is read a second time for the paths of the files concerned.
+     * @param db
+     * @param metadataFile
+     * @param skip files already committed by an earlier run
+     * @param chunkSize checksums per database query
+     * @return whether the files can be inserted
+     * @throws IOException 
+     */
+    private boolean checkFiles(ArchiveDatabase db, File metadataFile, long skip, 
+            int chunkSize) throws IOException {
+        long pendingMd5 = 0;
+        long hardLinks = 0;
+        long[] fingerprints = new long[1024];
+        int count = 0;
+        final List<String> databaseDuplicates = new ArrayList<>();
+        final Map<String,String> md5ToPath = new LinkedHashMap<>();
+        try(MetadataXmlReader reader = openMetadata(metadataFile)) {
+            long position = 0;
+            while(true) {
+                final FileBean bean = reader.next();
+                if(bean != null && position++ < skip)
+                    continue;
+                if(bean != null && bean.isHardLink()) {
+                    hardLinks++;
+                }
+                else if(bean != null && bean.getMd5() == null) {
+                    pendingMd5++;
+                    if(!allowPendingMd5)
+                        System.out.println(bean.getPath());
+                }
+                else if(bean != null) {
+                    if(count == fingerprints.length)
+                        fingerprints = Arrays.copyOf(fingerprints, count * 2);
+                    fingerprints[count++] = fingerprint(bean.getMd5());
+                    md5ToPath.putIfAbsent(bean.getMd5(), bean.getPath());
+                }
+                if(md5ToPath.size() == chunkSize || (bean == null && !md5ToPath.isEmpty())) {
+                    getByMd5s(db, md5ToPath.keySet()).forEach(b -> {
+                        LOG.info("Found duplicate: {}", b);
+                        databaseDuplicates.add(b.getDirParentId() + "/" + b.getName() 
+                                + " = " + md5ToPath.get(b.getMd5()));
+                    });
+                    md5ToPath.clear();
+                }
+                if(bean == null)
+                    break;
+            }
+        }
+        if(hardLinks > 0)
+            System.out.println("Skipped hard links: " + hardLinks);
+        if(pendingMd5 > 0 && !allowPendingMd5) {
+            System.out.println(pendingMd5 + " files have no MD5 checksum. Use --" 
+                    + OPTION_PENDING_MD5 + " to insert them anyway.");
+            return false;
+        }
+        this.fingerprints = Arrays.copyOf(fingerprints, count);
+        Arrays.sort(this.fingerprints);
+        final List<List<String>> incomingDuplicates = findIncomingDuplicates(metadataFile, 
+                skip, Arrays.copyOf(this.fingerprints, count));
+        if(!incomingDuplicates.isEmpty()) {
+            System.out.println("There are files with the same MD5 in METADATA.xml");
+            incomingDuplicates.forEach(paths -> System.out.println(String.join(" = ", paths)));
+            System.out.println("Total # of duplicated checksums: " + incomingDuplicates.size());
+        }
+        if(!databaseDuplicates.isEmpty()) {
+            System.out.println("There are files with the same MD5 in the database");
+            databaseDuplicates.forEach(System.out::println);
+            System.out.println("Total # of duplicates: " + databaseDuplicates.size());
+        }
+        return incomingDuplicates.isEmpty() && databaseDuplicates.isEmpty();
+    }
+    
+    /**
+     * 
+     * @param metadataFile
+     * @param skip files already committed by an earlier run
+     * @param fingerprints of the checksums of the other files
+     * @return the paths of each group of files with the same checksum
+     * @throws IOException 
+     */
+    private static List<List<String>> findIncomingDuplicates(File metadataFile, long skip, 
+            long[] fingerprints) throws IOException {
+        Arrays.sort(fingerprints);
+        int repeated = 0;
+        for(int i = 1; i < fingerprints.length; i++) {
+            if(fingerprints[i] == fingerprints[i-1] 
+                    && (repeated == 0 || fingerprints[repeated-1] != fingerprints[i]))
+                fingerprints[repeated++] = fingerprints[i];
+        }
+        if(repeated == 0)
+            return Collections.emptyList();
+        final long[] candidates = Arrays.copyOf(fingerprints, repeated);
+        final Map<String,List<String>> md5ToPaths = new LinkedHashMap<>();
+        try(MetadataXmlReader reader = openMetadata(metadataFile)) {
+            long position = 0;
+            FileBean bean;
+            while((bean = reader.next()) != null) {
+                if(position++ < skip || bean.isHardLink() || bean.getMd5() == null)
+                    continue;
+                if(Arrays.binarySearch(candidates, fingerprint(bean.getMd5())) >= 0)
+                    md5ToPaths.computeIfAbsent(bean.getMd5(), md5 -> new ArrayList<>())
+                            .add(bean.getPath());
+            }
+        }
+        //fingerprints of different checksums may collide
+        return md5ToPaths.values().stream().filter(paths -> paths.size() > 1)
+                .collect(Collectors.toList());
+    }
+    
+    private static long fingerprint(String md5) {
+        return XxHash64.hash(md5.getBytes(StandardCharsets.US_ASCII));
+    }
+    
+    /**
+     * Inserts files, their directories and, for files already on optical, 
+     * their parts in one transaction.
+     */
+    void insertChunk(ArchiveDatabase db, List<FileBean> chunk, int discNumber) 
+            throws CatalogDoesNotExistException {
+        //files are not on optical; they are on local storage
+        chunk.forEach(bean ->  {
+            if(addFromOptical) {
+                bean.setOnOptical(true);
+                bean.setMd5Verified(true);
+                bean.setOnLocalDisc(false);
+            }
+            else {
+                bean.setOnOptical(false);
+                bean.setMd5Verified(false);
+                bean.setOnLocalDisc(true);
+            }
+            bean.setCatalog(catalog);
+        });
+        final Handle h = db.getHandle();
+        h.begin();
+        try {
+            final Directories directories = new Directories(catalog, archivePath, db);
+            directories.addFiles(chunk, localPath);
+            System.out.println(directories.getDirectoriesToBeCreated());
+            directories.commitToDatabase(bulkLoad);
+            if(addFromOptical) {
+                //now, add the Parts to the database
+                //since these are files already burned to optical, they are each one single part
+                final Insert ins = db.getInsertObject();
+                chunk.forEach(file -> {
+                    Part p = new Part(file);
+                    p.setCatalog(catalog);
+                    p.setDiscNumber(discNumber);
+                    p.setMd5(file.getMd5());
+                    p.setMd5Verified(true);
+                    p.setOnOptical(true);
+                    p.setOrdinal(1);
+                    p.setTotalInSet(1);
+                    p.setPartFilename(file.getFilename());
+                    p.setSize(file.getSize());
+                    String id = ins.insertPart(p);
+                    p.setId(id);
+                });
+            }
+            h.commit();
+        }
+        catch(RuntimeException | CatalogDoesNotExistException ex) {
+            h.rollback();
+            DirectoryCache.getDefault().invalidateAll();
+            throw ex;
+        }
+    }
+    
+    /**
+     * Replaces the progress file atomically, so that it is never left 
+     * incomplete.
+     */
+    private static void saveProgress(Properties progress, Path progressFile) 
+            throws IOException {
+        final Path tmp = Paths.get(progressFile + ".tmp");
+        try(OutputStream out = Files.newOutputStream(tmp)) {
+            progress.store(out, "Inserter progress; delete to start over");
+        }
+        Files.move(tmp, progressFile, StandardCopyOption.REPLACE_EXISTING, 
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    /**
+     * Looks up checksums in chunks of {@value #MD5_LOOKUP_CHUNK}, so that a 
+     * large METADATA.xml takes a few round trips instead of one per file.
+     * @param db
+     * @param md5s
+     * @return every file in the database with one of the checksums
+     */
+    static List<FileBean> getByMd5s(ArchiveDatabase db, Collection<String> md5s) {
+        final List<FileBean> found = new ArrayList<>();
+        for(List<String> chunk : Iterables.partition(md5s, MD5_LOOKUP_CHUNK)) {
+            final String placeholders = chunk.stream().map(md5 -> "?")
+                    .collect(Collectors.joining(","));
+            final Query<FileBean> query = db.getHandle().createQuery(
+                    "SELECT * FROM files WHERE md5 IN (" + placeholders + ")")
+                    .map(new FileBeanMapper());
+            for(int i = 0; i < chunk.size(); i++)
+                query.bind(i, chunk.get(i));
+            found.addAll(query.list());
+        }
+        return found;
     }
 }
@@ -63,7 +63,7 @@ public class UserInterface {
         "lsd", "du", "dub"
     };
     public static final String[] DIRECTORY_COMMANDS = new String[] {
-        "cd", "rmdir", "mv", "rename"
+        "cd", "rmdir", "mv", "rename", "du", "dub"
     };
     public static final String[] FILE_COMMANDS = new String[] {
         "mv", "rename", "metadata", "du", "dub"
@@ -435,13 +435,17 @@ public class UserInterface {
     /**
      * 
      * @param filename
-     * @return the size of the file
+     * @return the size of the file, or of everything below the directory
      * @throws IllegalArgumentException if no file by that name
      */
     public Size size(String filename) throws IllegalArgumentException {
         FileBean f = filesCompleter.getFileByName(filename);
-        if(f == null) throw new IllegalArgumentException("No file by name " + filename);
-        else return new Size(f.getSize());
+        if(f != null)
+            return new Size(f.getSize());
+        DirectoryBean d = filesCompleter.getDirectoryByName(filename);
+        if(d == null) throw new IllegalArgumentException("No file by name " + filename);
+        //everything below the directory, in one query
+        else return new Size(db.getQueryObject().getSubtreeSize(d));
     }
     
     public static void main(String[] args) throws Exception {
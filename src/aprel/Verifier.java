@@ -17,13 +17,14 @@
 package aprel;
 
 import aprel.db.beans.FileBean;
+import aprel.hash.HashingEngine;
 import aprel.jdbi.Insert;
 import aprel.optical.Isoifier;
 import aprel.optical.Part;
+import aprel.walk.FileIdentity;
+import aprel.walk.IoScheduler;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
-import com.google.common.hash.HashFunction;
-import com.google.common.hash.Hashing;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
@@ -36,12 +37,16 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import java.util.zip.GZIPInputStream;
 import org.apache.commons.cli.CommandLine;
@@ -59,15 +64,17 @@ import org.skife.jdbi.v2.Query;
  */
 public class Verifier implements FileVisitor<Path> {
     private static final String OPTION_FILE_DIR = "i";
+    private static final String OPTION_DEVICE_THREADS = "device-threads";
     
     private final String opticalRoot;
     private final Map<String,String> fileToMd5sum;
-    private final HashFunction md5;
+    private final HashingEngine hasher;
+    private final IoScheduler scheduler;
+    private final List<Future<?>> pending;
     private final Set<String> verifiedIds;
-    private boolean hasMd5VerificationErrors = false;
+    private volatile boolean hasMd5VerificationErrors = false;
     
-    @SuppressWarnings("deprecation")
-    private Verifier(String opticalRoot) throws IOException {
+    private Verifier(String opticalRoot, int threadsPerDevice) throws IOException {
         this.opticalRoot = opticalRoot.endsWith(File.separator) ? opticalRoot 
                 : opticalRoot + File.separator;
         BufferedReader reader = new BufferedReader(new InputStreamReader(
@@ -83,14 +90,21 @@ public class Verifier implements FileVisitor<Path> {
             String checksum = parts[0];
             fileToMd5sum.put(filename, checksum);
         }
-        md5 = Hashing.md5();
-        verifiedIds = new HashSet<>();
+        hasher = HashingEngine.getDefault();
+        scheduler = new IoScheduler(threadsPerDevice);
+        pending = new ArrayList<>();
+        verifiedIds = ConcurrentHashMap.newKeySet();
     }
     
     public static void main(String[] args) throws Exception {
         Options options = new Options();
         options.addOption(Option.builder(OPTION_FILE_DIR).required()
                 .desc("The root of the optical media").numberOfArgs(1).build());
+        options.addOption(Option.builder().longOpt(OPTION_DEVICE_THREADS)
+                .desc("number of files read at once from each device. Files "
+                        + "on different devices are read concurrently, and the "
+                        + "files of each device in inode order. Default: 1")
+                .numberOfArgs(1).build());
         
         CommandLineParser parser = new DefaultParser();
         HelpFormatter formatter = new HelpFormatter();
@@ -105,10 +119,30 @@ public class Verifier implements FileVisitor<Path> {
             return;
         }
         final String opticalDir = cmd.getOptionValue(OPTION_FILE_DIR);
+        final int threadsPerDevice;
+        try {
+            threadsPerDevice = cmd.hasOption(OPTION_DEVICE_THREADS) ? 
+                    Integer.parseInt(cmd.getOptionValue(OPTION_DEVICE_THREADS)) : 1;
+            if(threadsPerDevice < 1)
+                throw new NumberFormatException("must be at least 1");
+        }
+        catch(NumberFormatException ex) {
+            System.out.println("Illegal number of threads: " + ex.getMessage());
+            formatter.printHelp(Verifier.class.getSimpleName(), options);
+            System.exit(1);
+            return;
+        }
         
         ArchiveDatabase db = ArchiveDatabase.createDefaultDatabase();
-        Verifier v = new Verifier(opticalDir);
-        Files.walkFileTree(Paths.get(opticalDir), v);
+        Verifier v = new Verifier(opticalDir, threadsPerDevice);
+        try {
+            Files.walkFileTree(Paths.get(opticalDir), v);
+            v.awaitReads();
+        }
+        finally {
+            v.scheduler.close();
+        }
+        System.out.println(v.hasher.getThroughputSummary());
         if(v.hasVerificationErrors()) {
             System.err.println("Verification errors encountered. Database will not be updated.");
         }
@@ -188,18 +222,43 @@ public class Verifier implements FileVisitor<Path> {
             System.err.println("No checksum in checksum file for " + file);
             return FileVisitResult.TERMINATE;
         }
-        String calculatedSum = com.google.common.io.Files.asByteSource(file.toFile())
-                .hash(md5).toString();
+        if(hasMd5VerificationErrors)
+            return FileVisitResult.TERMINATE;
+        pending.add(scheduler.submit(FileIdentity.of(file), () -> {
+            verify(file, fromChecksumFile);
+            return null;
+        }));
+        return FileVisitResult.CONTINUE;
+    }
+    
+    private void verify(Path file, String fromChecksumFile) throws IOException {
+        if(hasMd5VerificationErrors)
+            return;
+        String calculatedSum = hasher.md5(file);
         if(fromChecksumFile.equalsIgnoreCase(calculatedSum)) {
             System.out.println(file.getFileName() + ": OK");
             verifiedIds.add(file.getFileName().toString().split(
                     Isoifier.FILENAME_ORDINAL_SEPARATOR)[0]);
-            return FileVisitResult.CONTINUE;
         }
         else {
             hasMd5VerificationErrors = true;
             System.err.println("FAILED: " + file.getFileName());
-            return FileVisitResult.TERMINATE;
+        }
+    }
+    
+    /**
+     * Waits for all files found by the walk to be read.
+     * @throws IOException if a file could not be read
+     */
+    private void awaitReads() throws IOException, InterruptedException {
+        for(Future<?> read : pending) {
+            try {
+                read.get();
+            }
+            catch(ExecutionException ex) {
+                hasMd5VerificationErrors = true;
+                throw new IOException("Could not verify file", ex.getCause());
+            }
         }
     }
 
@@ -16,6 +16,8 @@
  */
 package aprel;
 
+import aprel.db.beans.FileBean;
+import java.math.BigDecimal;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -36,6 +38,11 @@ public enum WtvMetadata {
     
     private static final Map<String,WtvMetadata> map = new HashMap<>(10);
     
+    static {
+        for(WtvMetadata w : WtvMetadata.values())
+            map.put(w.getWtvMetadataKey(), w);
+    }
+    
     private WtvMetadata(String wtvKey) {
         this.wtvKey = wtvKey;
     }
@@ -57,11 +64,44 @@ public enum WtvMetadata {
      * if there is no such association.
      */
     public static WtvMetadata getFromWtvMetadataKey(String key) {
-        if(map.isEmpty()) {
-            //initialize
-            for(WtvMetadata w : WtvMetadata.values())
-                map.put(w.getWtvMetadataKey(), w);
-        }
         return map.get(key);
     }
+    
+    /**
+     * Stores the value ffprobe reported for this key in the corresponding 
+     * field of <code>media</code>. For {@link #DURATION}, the value is the 
+     * duration tag in units of 100 nanoseconds.
+     * 
+     * @param media
+     * @param value 
+     */
+    public void applyTo(FileBean.MediaMetadata media, String value) {
+        switch(this) {
+            case TITLE: media.setTitle(value); break;
+            case SUBTITLE: media.setSubtitle(value); break;
+            case DESCRIPTION: media.setDescription(value); break;
+            case CHANNEL: media.setChannel(value); break;
+            case ORIGINAL_BROADCAST_DATETIME: 
+                //convert into MySQL datetime
+                media.setOriginalBroadcast(value.replace("T", " ").replace("Z", ""));
+                break;
+            case ORIGINAL_RUNTIME: media.setOriginalRuntime(value); break;
+            case DURATION: media.setDuration100Nanos(value); break;
+        }
+    }
+    
+    /**
+     * Formats a duration the way ffprobe prints it in its human-readable 
+     * output, i.e. hrs:mins:secs.hundredths, rounded to the nearest hundredth.
+     * 
+     * @param seconds decimal number of seconds, e.g. <code>1797.648000</code>
+     * @return e.g. <code>00:29:57.65</code>
+     * @throws NumberFormatException if <code>seconds</code> is not a number
+     */
+    public static String formatDuration(String seconds) {
+        final long micros = new BigDecimal(seconds).movePointRight(6).longValue() + 5000;
+        final long totalSecs = micros / 1_000_000;
+        return String.format("%02d:%02d:%02d.%02d", totalSecs / 3600, 
+                (totalSecs / 60) % 60, totalSecs % 60, (micros % 1_000_000) / 10_000);
+    }
 }
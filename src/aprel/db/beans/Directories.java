@@ -17,13 +17,18 @@
 package aprel.db.beans;
 
 import aprel.ArchiveDatabase;
+import aprel.jdbi.BatchInsert;
+import aprel.jdbi.BulkLoader;
 import com.google.common.base.CharMatcher;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -44,7 +49,12 @@ public class Directories {
     private final Map<String, DirectoryStructure> pathsToDirs;
     private final DirectoryBean catalogBean;
     private final LinkedList<DirectoryBean> basePath;
+    /**
+     * Directories to be created, parents before children.
+     */
     private final LinkedList<DirectoryBean> newDirs = new LinkedList<>();
+    private final Set<DirectoryBean> pendingDirs = 
+            Collections.newSetFromMap(new IdentityHashMap<>());
     private boolean canAcceptFiles = true;
     private Collection<DirectoryStructure> structures;
     private final ArchiveDatabase db;
@@ -55,12 +65,10 @@ public class Directories {
             throws CatalogDoesNotExistException {
         path = DirectoryStructure.sanitizePath(path);
         this.db = db;
-        catalogBean = DirectoryStructure.getCatalog(catalog, db);
         pathsToDirs = new HashMap<>();
-        basePath = new LinkedList<>();
-        basePath.add(catalogBean);
         final String[] pathParts = path.split("/");
         //create the base path. Note: files cannot be added into the base path
+        final List<String> parts = new ArrayList<>();
         if(pathParts[0].length() != 0) { // == 0 when path is just the root dir, i.e. ""
             for(String s : pathParts) {
                 if(s.length() == 0) {
@@ -68,15 +76,18 @@ public class Directories {
                     LOG.error(msg + " {} {}", path, pathParts);
                     throw new IllegalArgumentException(msg);
                 }
-                DirectoryBean nextDir = DirectoryStructure.getDir(s, basePath.getLast().getId(), db);
-                if(nextDir == null) {
-                    String msg = "Base path contains a directory not in the archive: " + s;
-                    LOG.error(msg + " {} {}", path, pathParts);
-                    throw new IllegalArgumentException(msg);
-                }
-                basePath.add(nextDir);
+                parts.add(s);
             }
         }
+        //one query for the whole path, by full path
+        basePath = new LinkedList<>(DirectoryStructure.getDirsAlongPath(catalog, parts, db));
+        catalogBean = basePath.getFirst();
+        if(basePath.size() <= parts.size()) {
+            String msg = "Base path contains a directory not in the archive: " 
+                    + parts.get(basePath.size() - 1);
+            LOG.error(msg + " {} {}", path, pathParts);
+            throw new IllegalArgumentException(msg);
+        }
     }
     
     public LinkedList<DirectoryBean> getPath() {
@@ -124,7 +135,7 @@ public class Directories {
             final String name = getLastElementOfPath(relativePath);
             final DirectoryBean parentBean = pathKeyDirValue.get(base);
             DirectoryBean dirBean;
-            if(newDirs.parallelStream().anyMatch(x -> x == parentBean)) {
+            if(pendingDirs.contains(parentBean)) {
                 //this directory's parent also has not been created yet in db
                 //so this directory must be new as well
                 dirBean = createDirectory(name, parentBean);
@@ -161,15 +172,64 @@ public class Directories {
     }
     
     public void commitToDatabase() {
+        commitToDatabase(false);
+    }
+    
+    /**
+     * 
+     * @param bulkLoad whether to insert with {@link BulkLoader}: one 
+     * {@code LOAD DATA} per directory level, one for all files and one for 
+     * their metadata, instead of JDBC batches; ignored unless the database 
+     * is MySQL
+     */
+    public void commitToDatabase(boolean bulkLoad) {
         if(canAcceptFiles)
             throw new IllegalStateException("No files have been added");
+        if(bulkLoad && !db.isMySql()) {
+            LOG.warn("LOAD DATA needs MySQL; inserting with batches instead");
+            bulkLoad = false;
+        }
+        final boolean useBulkLoader = bulkLoad;
         //must create the missing db directory; order is critical because of references
         //and care was taking in the addFiles method
+        DirectoryStructure.inTransaction(db.getHandle(), () -> {
+            //one batch per level, so that each level has its parents' ids
+            for(List<DirectoryBean> level : getNewDirsByDepth()) {
+                if(useBulkLoader)
+                    BulkLoader.createDirectories(db.getHandle(), level);
+                else
+                    BatchInsert.createDirectories(db.getHandle(), level);
+                level.forEach(d -> LOG.info("Created directory: {}", d));
+            }
+            if(useBulkLoader) {
+                final List<FileBean> files = new ArrayList<>();
+                structures.forEach(s -> files.addAll(s.getNewFilesToCommit()));
+                BulkLoader.insertFiles(db.getHandle(), files);
+                BulkLoader.insertMetadata(db.getHandle(), files);
+            }
+            else
+                structures.forEach(DirectoryStructure::commitToDatabase);
+        });
+    }
+    
+    /**
+     * 
+     * @return new directories grouped by depth below the nearest existing 
+     * directory, shallowest first
+     */
+    private List<List<DirectoryBean>> getNewDirsByDepth() {
+        final Map<DirectoryBean,Integer> depths = new IdentityHashMap<>();
+        final List<List<DirectoryBean>> levels = new ArrayList<>();
+        //parents come before their children
         newDirs.forEach(d -> {
-            d.create(db);
-            LOG.info("Created directory: {}", d);
+            final Integer parentDepth = depths.get(d.getParent());
+            final int depth = parentDepth == null ? 0 : parentDepth + 1;
+            depths.put(d, depth);
+            if(levels.size() == depth)
+                levels.add(new ArrayList<>());
+            levels.get(depth).add(d);
         });
-        structures.forEach(DirectoryStructure::commitToDatabase);
+        return levels;
     }
     
     /**
@@ -183,6 +243,7 @@ public class Directories {
         child.setDirName(name);
         child.setParent(parentBean);
         newDirs.add(child);
+        pendingDirs.add(child);
         return child;
     }
     
@@ -24,7 +24,14 @@ import javax.xml.bind.annotation.XmlTransient;
  * @author Aprel
  */
 public class DirectoryBean implements DbFile {
-    private String id, dirName, dirParentId;
+    /**
+     * Escapes wildcards in {@link #getSubtreePattern()}, which is matched with 
+     * {@code LIKE ... ESCAPE '!'}.
+     */
+    public static final char LIKE_ESCAPE = '!';
+    public static final String PATH_SEPARATOR = "/";
+    
+    private String id, dirName, dirParentId, fullPath;
     private DirectoryBean parent;
     private boolean idHasBeenSet = false;
 
@@ -39,6 +46,7 @@ public class DirectoryBean implements DbFile {
      */
     void delete(ArchiveDatabase db) {
         db.getDeleteObject().deleteDir(this);
+        DirectoryCache.getDefault().invalidate(getDirName(), getDirParentId());
     }
     
     /**
@@ -83,6 +91,42 @@ public class DirectoryBean implements DbFile {
         parent = null; //remove reference to parent
     }
 
+    /**
+     * The materialized path of this directory: the catalog and each directory 
+     * down to this one, each followed by a "/", e.g. {@code tv/shows/}.
+     * @return the path stored in the database or, for a directory not yet 
+     * created, its parent's path followed by its name. {@code null} if unknown.
+     */
+    public String getFullPath() {
+        if(fullPath == null && parent != null && parent.getFullPath() != null)
+            return parent.getFullPath() + dirName + PATH_SEPARATOR;
+        return fullPath;
+    }
+
+    public void setFullPath(String fullPath) {
+        this.fullPath = fullPath;
+    }
+    
+    /**
+     * 
+     * @return a {@code LIKE} pattern matching the full path of this directory 
+     * and of every directory below it
+     */
+    @XmlTransient
+    public String getSubtreePattern() {
+        return escapeLike(getFullPath()) + "%";
+    }
+    
+    static String escapeLike(String s) {
+        final StringBuilder sb = new StringBuilder(s.length() + 8);
+        for(char c : s.toCharArray()) {
+            if(c == LIKE_ESCAPE || c == '%' || c == '_')
+                sb.append(LIKE_ESCAPE);
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
     public DirectoryBean getParent() {
         return parent;
     }
@@ -92,27 +136,54 @@ public class DirectoryBean implements DbFile {
     }
     
     void create(ArchiveDatabase db) {
-        String id = db.getInsertObject().createDirectory(getDirName(), getDirParentId());
+        final String path = getFullPath();
+        String id = db.getInsertObject().createDirectory(getDirName(), getDirParentId(), path);
         setId(id);
+        setFullPath(path);
     }
     
+    /**
+     * Moves this directory and updates the full paths of every directory 
+     * below it in the same statement.
+     */
     @Override
     public void move(DirectoryBean newParent, ArchiveDatabase db) {
         final String newParentId = newParent.getId();
-        db.getInsertObject().updateParentOfDirectory(this, newParentId);
+        requireFullPath(this);
+        final String newPath = requireFullPath(newParent) + getDirName() + PATH_SEPARATOR;
+        db.getInsertObject().updateParentOfDirectory(this, newParentId, newPath);
+        //cached directories below this one have stale paths
+        DirectoryCache.getDefault().invalidateAll();
         setDirParentId(newParentId);
+        setFullPath(newPath);
     }
     
+    /**
+     * Renames this directory and updates the full paths of every directory 
+     * below it in the same statement.
+     */
     @Override
     public void rename(String newName, ArchiveDatabase db) {
-        db.getInsertObject().renameDirectory(this, newName);
+        final String path = requireFullPath(this);
+        final String newPath = path.substring(0, path.length() - getDirName().length() 
+                - PATH_SEPARATOR.length()) + newName + PATH_SEPARATOR;
+        db.getInsertObject().renameDirectory(this, newName, newPath);
+        DirectoryCache.getDefault().invalidateAll();
         setDirName(newName);
+        setFullPath(newPath);
+    }
+
+    static String requireFullPath(DirectoryBean dir) {
+        if(dir.getFullPath() == null)
+            throw new IllegalStateException("No full path for " + dir 
+                    + ". Run DbIntegrityTester --rebuild-paths.");
+        return dir.getFullPath();
     }
 
     @Override
     public String toString() {
         return "DirectoryBean{" + "id=" + id + ", dirName=" + dirName + 
-                ", dirParentId=" + dirParentId + '}' +
+                ", dirParentId=" + dirParentId + ", fullPath=" + fullPath + '}' +
                 (getParent() != null ? "->Parent: " + getParent().toString() : "");
     }
 }
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel.db.beans;
+
+import aprel.ArchiveDatabase;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import java.util.Objects;
+
+/**
+ * Directories looked up by name and parent id, so that resolving the same 
+ * paths over and over (e.g. for every chunk of an insert) does not query the 
+ * database each time. Directories that do not exist are not cached.
+ * 
+ * The least recently used entries are evicted beyond a maximum size, which 
+ * is configured with the system property {@value #PROPERTY_MAXIMUM_SIZE} 
+ * (default {@value #DEFAULT_MAXIMUM_SIZE}). Entries are invalidated when 
+ * {@link DirectoryBean} moves, renames or deletes a directory. The cache 
+ * does not notice changes made by other processes.
+ * 
+ * Thread-safe.
+ * @author Aprel
+ */
+public final class DirectoryCache {
+    
+    public static final String PROPERTY_MAXIMUM_SIZE = "aprel.db.directoryCacheSize";
+    public static final int DEFAULT_MAXIMUM_SIZE = 100_000;
+    
+    private static DirectoryCache defaultCache = null;
+    
+    private final Cache<Key,DirectoryBean> cache;
+    
+    private static final class Key {
+        private final String parentId, name;
+        
+        Key(String parentId, String name) {
+            this.parentId = parentId;
+            this.name = Objects.requireNonNull(name);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(!(obj instanceof Key))
+                return false;
+            final Key other = (Key) obj;
+            return Objects.equals(parentId, other.parentId) && name.equals(other.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Objects.hashCode(parentId) + name.hashCode();
+        }
+    }
+    
+    /**
+     * 
+     * @param maximumSize number of directories above which the least recently 
+     * used are evicted
+     */
+    public DirectoryCache(long maximumSize) {
+        cache = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+    }
+    
+    /**
+     * 
+     * @return the cache shared by all programs, configured from system 
+     * properties
+     */
+    public static synchronized DirectoryCache getDefault() {
+        if(defaultCache == null)
+            defaultCache = new DirectoryCache(Integer.getInteger(PROPERTY_MAXIMUM_SIZE, 
+                    DEFAULT_MAXIMUM_SIZE));
+        return defaultCache;
+    }
+    
+    /**
+     * 
+     * @param name
+     * @param parentId
+     * @param db queried on a cache miss
+     * @return the directory, or {@code null} if there is no such directory
+     */
+    public DirectoryBean get(String name, String parentId, ArchiveDatabase db) {
+        final Key key = new Key(parentId, name);
+        DirectoryBean dir = cache.getIfPresent(key);
+        if(dir == null) {
+            dir = db.getQueryObject().getDirectory(name, parentId);
+            if(dir != null)
+                cache.put(key, dir);
+        }
+        return dir;
+    }
+    
+    /**
+     * Forgets the directory with the given name and parent.
+     * @param name
+     * @param parentId 
+     */
+    public void invalidate(String name, String parentId) {
+        cache.invalidate(new Key(parentId, name));
+    }
+    
+    /**
+     * Forgets every directory, e.g. after a transaction that created some has 
+     * been rolled back.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+    
+    public long size() {
+        return cache.size();
+    }
+    
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+    
+    /**
+     * 
+     * @return a human-readable summary of the hits and misses
+     */
+    public String getStatsSummary() {
+        final CacheStats stats = cache.stats();
+        return String.format("Directory cache: %d hits, %d misses (%.1f%% hit rate), "
+                + "%d evictions, %d entries", stats.hitCount(), stats.missCount(), 
+                stats.hitRate() * 100, stats.evictionCount(), cache.size());
+    }
+}
@@ -17,15 +17,15 @@
 package aprel.db.beans;
 
 import aprel.ArchiveDatabase;
-import aprel.jdbi.Insert;
-import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.Table;
+import aprel.jdbi.BatchInsert;
+import aprel.jdbi.beanmappers.DirectoryBeanMapper;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 import org.skife.jdbi.v2.Handle;
@@ -46,7 +46,6 @@ public class DirectoryStructure {
     private final List<FileBean> newFiles;
     private final List<FileBean> files;
     private final List<DirectoryBean> directories;
-    private static final Table<String,String,DirectoryBean> CACHE_DIR = HashBasedTable.create();
     
     private static final Logger LOG = LoggerFactory.getLogger(DirectoryStructure.class);
     
@@ -202,6 +201,45 @@ public class DirectoryStructure {
         return bean;
     }
     
+    /**
+     * Looks up every directory along a path with a single query on their 
+     * full paths.
+     * @param catalog
+     * @param pathParts the directories below the catalog, in order
+     * @param db
+     * @return the catalog followed by the directories along the path. The list 
+     * ends early at the first directory that does not exist.
+     * @throws CatalogDoesNotExistException 
+     */
+    static List<DirectoryBean> getDirsAlongPath(String catalog, List<String> pathParts, 
+            ArchiveDatabase db) throws CatalogDoesNotExistException {
+        final List<String> fullPaths = new ArrayList<>(pathParts.size() + 1);
+        String fullPath = catalog + DirectoryBean.PATH_SEPARATOR;
+        fullPaths.add(fullPath);
+        for(String part : pathParts) {
+            fullPath += part + DirectoryBean.PATH_SEPARATOR;
+            fullPaths.add(fullPath);
+        }
+        final String placeholders = String.join(", ", Collections.nCopies(fullPaths.size(), "?"));
+        final org.skife.jdbi.v2.Query<Map<String,Object>> q = db.getHandle().createQuery(
+                "SELECT * FROM directories WHERE fullPath IN (" + placeholders + ")");
+        for(int i = 0; i < fullPaths.size(); i++)
+            q.bind(i, fullPaths.get(i));
+        final Map<String,DirectoryBean> byPath = q.map(new DirectoryBeanMapper()).list()
+                .stream().collect(Collectors.toMap(DirectoryBean::getFullPath, d -> d));
+        final DirectoryBean catalogBean = byPath.get(fullPaths.get(0));
+        if(catalogBean == null || catalogBean.getDirParentId() != null)
+            throw new CatalogDoesNotExistException(catalog);
+        final List<DirectoryBean> dirs = new ArrayList<>(fullPaths.size());
+        for(String p : fullPaths) {
+            final DirectoryBean dir = byPath.get(p);
+            if(dir == null)
+                break;
+            dirs.add(dir);
+        }
+        return dirs;
+    }
+    
     /**
      * Queue files to be added to the database.
      * Check for filename duplicates but not db md5 duplicates.
@@ -251,6 +289,10 @@ public class DirectoryStructure {
             DirectoryBean d = (DirectoryBean) c;
             if(d.getId().equals(otherDirectory.thisDir.getId()))
                 throw new IllegalArgumentException("Cannot move directory into itself");
+            if(DirectoryBean.requireFullPath(otherDirectory.thisDir)
+                    .startsWith(DirectoryBean.requireFullPath(d)))
+                throw new IllegalArgumentException("Cannot move directory into a "
+                        + "directory below it");
         });
         if(!children.stream().allMatch(c -> c instanceof DirectoryBean 
                 || c instanceof FileBean))
@@ -302,39 +344,57 @@ public class DirectoryStructure {
      * already been created externally.
      * 
      * This method takes the return values of the insertion (i.e. the fileIds) 
-     * and sets the corresponding FileBean. However, the JDBIv2 library is limited 
-     * in that it can only return these values as an int[]. This can lead to 
-     * integer overflow and incorrect fileIds being set. If any part of the rest 
-     * of the code base requires knowing these ids for newly-inserted files, this 
-     * method will have to be re-written to not use a batch insert or another way 
-     * to get the ids as Strings from the library will be necessary.
-     * 
-     * This method now forgoes @SqlBatch and properly receives the ids as Strings.
+     * and sets the corresponding FileBean. Files and their media metadata are 
+     * inserted in JDBC batches through {@link BatchInsert}, which returns the 
+     * generated ids as Strings, in one transaction unless the handle is 
+     * already in one.
      */
     void commitToDatabase() {
-        Insert ins = db.getInsertObject();
-        newFiles.forEach(bean -> {
-            bean.setDirParentId(thisDir.getId());
-            LOG.debug("Inserting {}", bean);
-            String id = ins.insertFile(bean);
-            LOG.debug("ID: {}", id);
-            bean.setId(id);
-            if(bean.hasMediaData()) {
-                FileBean.MediaMetadata media = bean.getMedia();
-                LOG.debug("File has multimedia data. Inserting into db: {}", media);
-                ins.insertMetadata(id, media);
-            }
+        if(newFiles.isEmpty())
+            return;
+        getNewFilesToCommit();
+        inTransaction(handle, () -> {
+            LOG.debug("Inserting {} files into {}", newFiles.size(), thisDir);
+            BatchInsert.insertFiles(handle, newFiles);
+            BatchInsert.insertMetadata(handle, newFiles);
         });
     }
     
+    /**
+     * 
+     * @return the files queued to be added, with this directory as their 
+     * parent. This directory must exist in the database.
+     */
+    List<FileBean> getNewFilesToCommit() {
+        newFiles.forEach(bean -> bean.setDirParentId(thisDir.getId()));
+        return newFiles;
+    }
+    
+    /**
+     * Runs database work in a transaction, or in the handle's current 
+     * transaction if there is one, so that callers can group several 
+     * commits into one.
+     */
+    static void inTransaction(Handle handle, Runnable work) {
+        if(handle.isInTransaction()) {
+            work.run();
+            return;
+        }
+        handle.begin();
+        try {
+            work.run();
+            handle.commit();
+        }
+        catch(RuntimeException ex) {
+            handle.rollback();
+            //directories created in the transaction may have been looked up
+            DirectoryCache.getDefault().invalidateAll();
+            throw ex;
+        }
+    }
+    
     static DirectoryBean getDir(String name, String dirParentId, ArchiveDatabase db) {
-        DirectoryBean cachedCopy = CACHE_DIR.get(name, dirParentId);
-        if(cachedCopy != null)
-            return cachedCopy;
-        DirectoryBean bean = db.getQueryObject().getDirectory(name, dirParentId);
-        if(bean != null)
-            CACHE_DIR.put(name, dirParentId, bean);
-        return bean;
+        return DirectoryCache.getDefault().get(name, dirParentId, db);
     }
     
 }
@@ -30,13 +30,14 @@ import org.slf4j.LoggerFactory;
  * @author Aprel
  */
 @XmlRootElement( name = "FILE" )
-@XmlType(propOrder = {"size", "md5", "media"} )
+@XmlType(propOrder = {"size", "md5", "xxh64", "hardLinkOf", "media"} )
 public class FileBean implements DbFile {
     /*
-    (Serial) id | filename | dirParentId | md5 | size | catalog
+    (Serial) id | filename | dirParentId | md5 | xxh64 | size | catalog
     | BOOL onOptical | BOOL md5Verified | BOOL onLocalDisc | localStoragePath
     */
-    private String id, path, filename, dirParentId, md5, catalog, localStoragePath;
+    private String id, path, filename, dirParentId, md5, xxh64, catalog, localStoragePath;
+    private String hardLinkOf;
     private long size;
     private boolean onOptical, onLocalDisc, md5Verified;
     private MediaMetadata media;
@@ -126,6 +127,38 @@ public class FileBean implements DbFile {
         this.md5 = md5;
     }
     
+    /**
+     * 
+     * @return XXH64 as 16 hexadecimal digits, or {@code null} if unknown. Used 
+     * for internal comparisons; MD5 remains the authoritative checksum.
+     */
+    public String getXxh64() {
+        return xxh64;
+    }
+
+    @XmlElement( name = "XXH64" )
+    public void setXxh64(String xxh64) {
+        this.xxh64 = xxh64;
+    }
+    
+    /**
+     * 
+     * @return path of the first link to the same inode if this file is an 
+     * additional hard link to it, otherwise {@code null}
+     */
+    public String getHardLinkOf() {
+        return hardLinkOf;
+    }
+
+    @XmlElement( name = "HARD_LINK_OF" )
+    public void setHardLinkOf(String hardLinkOf) {
+        this.hardLinkOf = hardLinkOf;
+    }
+    
+    public boolean isHardLink() {
+        return hardLinkOf != null;
+    }
+    
     public String getCatalog() {
         return catalog;
     }
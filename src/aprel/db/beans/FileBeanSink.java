@@ -0,0 +1,29 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel.db.beans;
+
+import java.io.Flushable;
+import java.io.IOException;
+
+/**
+ * Receives the files described by {@link aprel.FileWalker}, in walk order 
+ * and always from the same thread.
+ * @author Aprel
+ */
+public interface FileBeanSink extends Flushable {
+    public void write(FileBean bean) throws IOException;
+}
@@ -28,8 +28,10 @@ import javax.xml.bind.annotation.XmlRootElement;
  * @author Aprel
  */
 @XmlAccessorType(XmlAccessType.FIELD)
-@XmlRootElement( name = "FILES")
+@XmlRootElement( name = FilesRootContainer.ROOT_ELEMENT)
 public class FilesRootContainer {
+    public static final String ROOT_ELEMENT = "FILES";
+    
     @XmlElement(name = "FILE", type = FileBean.class)
     private List<FileBean> files;
 
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel.db.beans;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads a METADATA.xml document one {@code <FILE>} element at a time, so that 
+ * memory use does not depend on the number of files.
+ * 
+ * A reader can be made tolerant of truncated documents, such as those left 
+ * behind by an interrupted {@link MetadataXmlWriter}: it then returns every 
+ * complete element and reports the end of the document where the damage 
+ * begins.
+ * 
+ * Not thread-safe.
+ * @author Aprel
+ */
+public class MetadataXmlReader implements Closeable {
+    private final InputStream in;
+    private final XMLStreamReader reader;
+    private final Unmarshaller unmarshaller;
+    private final boolean tolerateTruncation;
+    private boolean truncated = false;
+    private boolean finished = false;
+    private long read = 0;
+    
+    private static final Logger LOG = LoggerFactory.getLogger(MetadataXmlReader.class);
+    
+    /**
+     * 
+     * @param in closed when this reader is closed
+     * @param tolerateTruncation if {@code true}, a malformed or incomplete 
+     * document ends at its last complete {@code <FILE>} element instead of 
+     * causing an exception
+     * @throws IOException 
+     */
+    public MetadataXmlReader(InputStream in, boolean tolerateTruncation) throws IOException {
+        this.in = in;
+        this.tolerateTruncation = tolerateTruncation;
+        try {
+            unmarshaller = JAXBContext.newInstance(FileBean.class).createUnmarshaller();
+            reader = XMLInputFactory.newInstance().createXMLStreamReader(in);
+        }
+        catch(JAXBException | XMLStreamException ex) {
+            throw new IOException("Could not open METADATA document", ex);
+        }
+    }
+    
+    /**
+     * 
+     * @return the next file in the document, or {@code null} at the end of 
+     * the document
+     * @throws IOException if the document is malformed and this reader does 
+     * not tolerate truncation
+     */
+    public FileBean next() throws IOException {
+        if(finished)
+            return null;
+        try {
+            while(true) {
+                if(reader.getEventType() == XMLStreamConstants.START_ELEMENT 
+                        && reader.getLocalName().equals("FILE")) {
+                    final FileBean bean = unmarshaller.unmarshal(reader, FileBean.class)
+                            .getValue();
+                    read++;
+                    return bean;
+                }
+                if(!reader.hasNext()) {
+                    finished = true;
+                    return null;
+                }
+                reader.next();
+            }
+        }
+        catch(JAXBException | XMLStreamException ex) {
+            finished = true;
+            if(!tolerateTruncation)
+                throw new IOException("Malformed METADATA document after " + read 
+                        + " files", ex);
+            LOG.warn("METADATA document ends abruptly after {} complete files", read);
+            truncated = true;
+            return null;
+        }
+    }
+    
+    /**
+     * 
+     * @return whether the end of the document was reached early because it 
+     * is truncated or malformed
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+    
+    /**
+     * 
+     * @return the number of files returned so far
+     */
+    public long getFilesRead() {
+        return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            reader.close();
+        }
+        catch(XMLStreamException ex) {
+            throw new IOException(ex);
+        }
+        finally {
+            in.close();
+        }
+    }
+}
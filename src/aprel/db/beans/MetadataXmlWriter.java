@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel.db.beans;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Writes a METADATA.xml document one {@code <FILE>} element at a time, so that 
+ * files can be written as soon as they are described and memory use does not 
+ * depend on the number of files. The document can be read back as a 
+ * {@link FilesRootContainer}.
+ * 
+ * Not thread-safe.
+ * @author Aprel
+ */
+public class MetadataXmlWriter implements Closeable, FileBeanSink {
+    private final OutputStream out;
+    private final XMLStreamWriter writer;
+    private final Marshaller marshaller;
+    private final int flushInterval;
+    private int unflushed = 0;
+    private long written = 0;
+    
+    /**
+     * Number of files after which buffered output is flushed by default.
+     */
+    public static final int DEFAULT_FLUSH_INTERVAL = 100;
+    
+    public MetadataXmlWriter(OutputStream out) throws IOException {
+        this(out, DEFAULT_FLUSH_INTERVAL);
+    }
+    
+    /**
+     * Writes the start of the document.
+     * @param out closed when this writer is closed
+     * @param flushInterval number of files after which buffered output is 
+     * flushed to {@code out}
+     * @throws IOException 
+     */
+    public MetadataXmlWriter(OutputStream out, int flushInterval) throws IOException {
+        this.out = out;
+        this.flushInterval = flushInterval;
+        try {
+            marshaller = JAXBContext.newInstance(FileBean.class).createMarshaller();
+            marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+            writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeStartElement(FilesRootContainer.ROOT_ELEMENT);
+        }
+        catch(JAXBException | XMLStreamException ex) {
+            throw new IOException("Could not start METADATA document", ex);
+        }
+    }
+    
+    /**
+     * Appends a {@code <FILE>} element.
+     * @param bean
+     * @throws IOException 
+     */
+    @Override
+    public void write(FileBean bean) throws IOException {
+        try {
+            writer.writeCharacters("\n  ");
+            marshaller.marshal(bean, writer);
+        }
+        catch(JAXBException | XMLStreamException ex) {
+            throw new IOException("Could not write " + bean.getPath(), ex);
+        }
+        written++;
+        if(++unflushed >= flushInterval)
+            flush();
+    }
+    
+    /**
+     * Pushes all elements written so far to the underlying stream.
+     * @throws IOException 
+     */
+    @Override
+    public void flush() throws IOException {
+        try {
+            writer.flush();
+        }
+        catch(XMLStreamException ex) {
+            throw new IOException(ex);
+        }
+        out.flush();
+        unflushed = 0;
+    }
+    
+    /**
+     * 
+     * @return the number of files written
+     */
+    public long getFilesWritten() {
+        return written;
+    }
+    
+    /**
+     * Ends the document and closes the underlying stream.
+     * @throws IOException 
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            writer.writeCharacters("\n");
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.close();
+        }
+        catch(XMLStreamException ex) {
+            throw new IOException("Could not end METADATA document", ex);
+        }
+        finally {
+            out.close();
+        }
+    }
+}
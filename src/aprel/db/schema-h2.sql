@@ -0,0 +1,59 @@
+-- Schema of the archive database on embedded H2; see db-structure.txt.
+-- Run by ArchiveDatabase.bootstrapSchema() whenever an H2 database is opened.
+-- The URL should include ;MODE=MySQL;DATABASE_TO_UPPER=FALSE so that column
+-- labels keep the case the bean mappers use.
+
+CREATE TABLE IF NOT EXISTS directories (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    dirName VARCHAR(255) NOT NULL,
+    dirParentId BIGINT,
+    fullPath VARCHAR(4096)
+);
+CREATE INDEX IF NOT EXISTS directories_parent ON directories (dirParentId, dirName);
+CREATE INDEX IF NOT EXISTS directories_path ON directories (fullPath);
+
+CREATE TABLE IF NOT EXISTS files (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    filename VARCHAR(255) NOT NULL,
+    dirParentId BIGINT NOT NULL,
+    md5 CHAR(32),
+    xxh64 CHAR(16),
+    size BIGINT NOT NULL,
+    catalog VARCHAR(255) NOT NULL,
+    onOptical BOOLEAN DEFAULT FALSE NOT NULL,
+    md5Verified BOOLEAN DEFAULT FALSE NOT NULL,
+    onLocalDisc BOOLEAN DEFAULT TRUE NOT NULL,
+    localStoragePath VARCHAR(4096)
+);
+CREATE INDEX IF NOT EXISTS files_parent ON files (dirParentId, filename);
+CREATE INDEX IF NOT EXISTS files_md5 ON files (md5);
+CREATE INDEX IF NOT EXISTS files_catalog ON files (catalog);
+
+CREATE TABLE IF NOT EXISTS metadata (
+    fileId BIGINT NOT NULL PRIMARY KEY,
+    title VARCHAR(1024),
+    subtitle VARCHAR(1024),
+    description CLOB,
+    channel VARCHAR(255),
+    originalBroadcast TIMESTAMP,
+    originalRuntime VARCHAR(64),
+    duration100Nanos VARCHAR(64),
+    duration VARCHAR(64)
+);
+
+CREATE TABLE IF NOT EXISTS parts (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    partFilename VARCHAR(255) NOT NULL,
+    parentFileId BIGINT NOT NULL,
+    ordinal INT NOT NULL,
+    totalInSet INT NOT NULL,
+    md5 CHAR(32),
+    size BIGINT NOT NULL,
+    onOptical BOOLEAN DEFAULT FALSE NOT NULL,
+    md5Verified BOOLEAN DEFAULT FALSE NOT NULL,
+    catalog VARCHAR(255) NOT NULL,
+    discNumber INT NOT NULL,
+    localStoragePath VARCHAR(4096)
+);
+CREATE INDEX IF NOT EXISTS parts_parent ON parts (parentFileId);
+CREATE INDEX IF NOT EXISTS parts_disc ON parts (catalog, discNumber);
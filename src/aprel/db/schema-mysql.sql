@@ -0,0 +1,58 @@
+-- Schema of the archive database on MySQL; see db-structure.txt.
+-- Run by ArchiveDatabase.bootstrapSchema(). Every statement must be safe to
+-- run against a database that already has the table.
+
+CREATE TABLE IF NOT EXISTS directories (
+    id SERIAL,
+    dirName VARCHAR(255) NOT NULL,
+    dirParentId BIGINT UNSIGNED,
+    fullPath VARCHAR(4096),
+    INDEX (dirParentId, dirName),
+    INDEX (fullPath(255))
+) DEFAULT CHARSET=utf8mb4;
+
+CREATE TABLE IF NOT EXISTS files (
+    id SERIAL,
+    filename VARCHAR(255) NOT NULL,
+    dirParentId BIGINT UNSIGNED NOT NULL,
+    md5 CHAR(32),
+    xxh64 CHAR(16),
+    size BIGINT UNSIGNED NOT NULL,
+    catalog VARCHAR(255) NOT NULL,
+    onOptical BOOL NOT NULL DEFAULT FALSE,
+    md5Verified BOOL NOT NULL DEFAULT FALSE,
+    onLocalDisc BOOL NOT NULL DEFAULT TRUE,
+    localStoragePath VARCHAR(4096),
+    INDEX (dirParentId, filename),
+    INDEX (md5),
+    INDEX (catalog)
+) DEFAULT CHARSET=utf8mb4;
+
+CREATE TABLE IF NOT EXISTS metadata (
+    fileId BIGINT UNSIGNED NOT NULL PRIMARY KEY,
+    title VARCHAR(1024),
+    subtitle VARCHAR(1024),
+    description TEXT,
+    channel VARCHAR(255),
+    originalBroadcast DATETIME,
+    originalRuntime VARCHAR(64),
+    duration100Nanos VARCHAR(64),
+    duration VARCHAR(64)
+) DEFAULT CHARSET=utf8mb4;
+
+CREATE TABLE IF NOT EXISTS parts (
+    id SERIAL,
+    partFilename VARCHAR(255) NOT NULL,
+    parentFileId BIGINT UNSIGNED NOT NULL,
+    ordinal INT NOT NULL,
+    totalInSet INT NOT NULL,
+    md5 CHAR(32),
+    size BIGINT UNSIGNED NOT NULL,
+    onOptical BOOL NOT NULL DEFAULT FALSE,
+    md5Verified BOOL NOT NULL DEFAULT FALSE,
+    catalog VARCHAR(255) NOT NULL,
+    discNumber INT NOT NULL,
+    localStoragePath VARCHAR(4096),
+    INDEX (parentFileId),
+    INDEX (catalog, discNumber)
+) DEFAULT CHARSET=utf8mb4;
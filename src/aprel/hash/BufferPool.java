@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel.hash;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A pool of equally-sized direct buffers. Direct buffers are expensive to 
+ * allocate and are only reclaimed by the garbage collector, so they are 
+ * recycled rather than allocated per read.
+ * 
+ * Thread-safe.
+ * @author Aprel
+ */
+public class BufferPool {
+    private final int bufferSize;
+    private final int maxIdle;
+    private final ConcurrentLinkedQueue<ByteBuffer> idle = new ConcurrentLinkedQueue<>();
+    
+    /**
+     * 
+     * @param bufferSize capacity of every buffer handed out
+     * @param maxIdle maximum number of buffers kept for reuse; buffers released 
+     * beyond this are left to the garbage collector
+     */
+    public BufferPool(int bufferSize, int maxIdle) {
+        if(bufferSize < 1)
+            throw new IllegalArgumentException("Illegal buffer size: " + bufferSize);
+        this.bufferSize = bufferSize;
+        this.maxIdle = maxIdle;
+    }
+    
+    public int getBufferSize() {
+        return bufferSize;
+    }
+    
+    /**
+     * 
+     * @return a cleared direct buffer of {@link #getBufferSize()} bytes
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buf = idle.poll();
+        if(buf == null)
+            return ByteBuffer.allocateDirect(bufferSize);
+        buf.clear();
+        return buf;
+    }
+    
+    /**
+     * Returns a buffer obtained from {@link #acquire()} to the pool. The buffer 
+     * must not be used afterwards.
+     * @param buf 
+     */
+    public void release(ByteBuffer buf) {
+        if(buf.capacity() != bufferSize || !buf.isDirect())
+            throw new IllegalArgumentException("Buffer does not belong to this pool");
+        if(idle.size() < maxIdle)
+            idle.offer(buf);
+    }
+}
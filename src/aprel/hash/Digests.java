@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel.hash;
+
+import java.util.Objects;
+
+/**
+ * The digests of some bytes computed in a single pass: MD5, which is recorded 
+ * in the database and checksum files, and XXH64, which is used for internal 
+ * comparisons because it is much cheaper to compute.
+ *
+ * Immutable.
+ * @author Aprel
+ */
+public final class Digests {
+    private final String md5, xxh64;
+    
+    /**
+     * 
+     * @param md5 lowercase hexadecimal, or {@code null} if not computed
+     * @param xxh64 16 lowercase hexadecimal digits
+     */
+    public Digests(String md5, String xxh64) {
+        this.md5 = md5;
+        this.xxh64 = Objects.requireNonNull(xxh64);
+    }
+    
+    /**
+     * 
+     * @return lowercase hexadecimal MD5, or {@code null} if it was not computed
+     */
+    public String getMd5() {
+        return md5;
+    }
+    
+    /**
+     * 
+     * @return 16 lowercase hexadecimal digits
+     */
+    public String getXxh64() {
+        return xxh64;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if(!(obj instanceof Digests))
+            return false;
+        final Digests other = (Digests) obj;
+        return Objects.equals(md5, other.md5) && xxh64.equals(other.xxh64);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(md5, xxh64);
+    }
+
+    @Override
+    public String toString() {
+        return "Digests{" + "md5=" + md5 + ", xxh64=" + xxh64 + '}';
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel.hash;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link HashCache} kept in a single tab-separated file, keyed by absolute 
+ * path. The file is read completely on construction and rewritten on 
+ * {@link #close()}, as well as periodically while updates arrive so that an 
+ * interrupted run keeps most of its work. A periodic save is written by the 
+ * thread whose update makes it due; other threads' updates do not wait for 
+ * it.
+ * 
+ * Line format: {@code md5/xxh64<TAB>size<TAB>mtime (ns)<TAB>file key<TAB>absolute path}
+ * 
+ * Lines written before XXH64 was recorded hold only the MD5 in the first 
+ * column; they are treated as misses, since hashing computes both anyway.
+ * @author Aprel
+ */
+public class FileHashCache implements HashCache {
+    private final Path cacheFile;
+    private final Map<String,Entry> entries = new ConcurrentHashMap<>();
+    /**
+     * Set after each update, and cleared before the entries are written, so 
+     * that an update that may have missed a save is written by the next one.
+     */
+    private volatile boolean dirty = false;
+    /**
+     * Held while the file is written.
+     */
+    private final ReentrantLock saveLock = new ReentrantLock();
+    private final long autosaveIntervalNanos;
+    private volatile long lastSave = System.nanoTime();
+    
+    private static final long AUTOSAVE_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(5);
+    private static final String NO_FILE_KEY = "-";
+    private static final String DIGEST_SEPARATOR = "/";
+    private static final Logger LOG = LoggerFactory.getLogger(FileHashCache.class);
+    
+    private static class Entry {
+        private final long size, mtime;
+        private final String fileKey;
+        private final Digests digests;
+
+        Entry(long size, long mtime, String fileKey, Digests digests) {
+            this.size = size;
+            this.mtime = mtime;
+            this.fileKey = fileKey;
+            this.digests = digests;
+        }
+        
+        boolean matches(BasicFileAttributes attrs) {
+            return size == attrs.size() && mtime == mtimeOf(attrs) 
+                    && fileKey.equals(fileKeyOf(attrs));
+        }
+    }
+    
+    /**
+     * 
+     * @param cacheFile created on {@link #close()} if it does not exist
+     * @throws IOException 
+     */
+    public FileHashCache(Path cacheFile) throws IOException {
+        this(cacheFile, AUTOSAVE_INTERVAL_NANOS);
+    }
+    
+    FileHashCache(Path cacheFile, long autosaveIntervalNanos) throws IOException {
+        this.cacheFile = cacheFile;
+        this.autosaveIntervalNanos = autosaveIntervalNanos;
+        if(!Files.exists(cacheFile))
+            return;
+        try(BufferedReader reader = Files.newBufferedReader(cacheFile, StandardCharsets.UTF_8)) {
+            String line;
+            while((line = reader.readLine()) != null) {
+                final String[] parts = line.split("\t", 5);
+                if(parts.length != 5) {
+                    LOG.warn("Ignoring malformed line in hash cache: {}", line);
+                    continue;
+                }
+                final String[] digests = parts[0].split(DIGEST_SEPARATOR);
+                if(digests.length != 2)
+                    continue;
+                try {
+                    entries.put(parts[4], new Entry(Long.parseLong(parts[1]), 
+                            Long.parseLong(parts[2]), parts[3], 
+                            new Digests(digests[0], digests[1])));
+                }
+                catch(NumberFormatException ex) {
+                    LOG.warn("Ignoring malformed line in hash cache: {}", line);
+                }
+            }
+        }
+        LOG.info("Loaded {} cached checksums from {}", entries.size(), cacheFile);
+    }
+    
+    @Override
+    public Digests lookup(Path file, BasicFileAttributes attrs) {
+        final Entry e = entries.get(keyOf(file));
+        if(e == null || !e.matches(attrs))
+            return null;
+        return e.digests;
+    }
+
+    @Override
+    public void update(Path file, BasicFileAttributes attrs, Digests digests) {
+        if(digests.getMd5() == null)
+            throw new IllegalArgumentException("MD5 required");
+        final String key = keyOf(file);
+        if(key.indexOf('\n') >= 0 || key.indexOf('\r') >= 0) {
+            LOG.debug("Not caching checksum of file with line break in its name: {}", key);
+            return;
+        }
+        entries.put(key, new Entry(attrs.size(), mtimeOf(attrs), fileKeyOf(attrs), digests));
+        dirty = true;
+        //if another thread is saving, this update is left to the next save
+        if(System.nanoTime() - lastSave >= autosaveIntervalNanos && saveLock.tryLock()) {
+            try {
+                if(System.nanoTime() - lastSave >= autosaveIntervalNanos)
+                    save();
+            }
+            catch(IOException ex) {
+                LOG.warn("Could not save hash cache " + cacheFile, ex);
+            }
+            finally {
+                saveLock.unlock();
+            }
+        }
+    }
+    
+    /**
+     * Writes the entries. Updates that finish before {@link #dirty} is 
+     * cleared are written, since the map is iterated afterwards; later ones 
+     * may be, and leave {@code dirty} set. Must be called with 
+     * {@link #saveLock} held.
+     */
+    private void save() throws IOException {
+        dirty = false;
+        lastSave = System.nanoTime();
+        final Path tmp = cacheFile.resolveSibling(cacheFile.getFileName() + ".tmp");
+        try(BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for(Map.Entry<String,Entry> mapEntry : entries.entrySet()) {
+                final Entry e = mapEntry.getValue();
+                writer.write(e.digests.getMd5() + DIGEST_SEPARATOR + e.digests.getXxh64() 
+                        + "\t" + e.size + "\t" + e.mtime + "\t" + e.fileKey 
+                        + "\t" + mapEntry.getKey());
+                writer.newLine();
+            }
+        }
+        Files.move(tmp, cacheFile, StandardCopyOption.REPLACE_EXISTING, 
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    @Override
+    public void close() throws IOException {
+        saveLock.lock();
+        try {
+            if(dirty)
+                save();
+        }
+        finally {
+            saveLock.unlock();
+        }
+    }
+    
+    private static String keyOf(Path file) {
+        return file.toAbsolutePath().normalize().toString();
+    }
+    
+    static long mtimeOf(BasicFileAttributes attrs) {
+        return attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+    }
+    
+    static String fileKeyOf(BasicFileAttributes attrs) {
+        final Object key = attrs.fileKey();
+        return key == null ? NO_FILE_KEY : Objects.toString(key).replace('\t', ' ');
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel.hash;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Remembers checksums of files so that unchanged files need not be read again.
+ * A cached checksum is only returned while the file's size, modification time 
+ * and file key (inode) are unchanged.
+ * 
+ * Implementations are thread-safe.
+ * @author Aprel
+ */
+public interface HashCache extends Closeable {
+    /**
+     * 
+     * @param file
+     * @param attrs current attributes of the file
+     * @return the cached digests, or {@code null} if there are none or the 
+     * file has changed since they were cached
+     */
+    public Digests lookup(Path file, BasicFileAttributes attrs);
+    
+    /**
+     * Records the checksums of a file.
+     * @param file
+     * @param attrs attributes of the file at the time it was hashed
+     * @param digests must include the MD5
+     */
+    public void update(Path file, BasicFileAttributes attrs, Digests digests);
+    
+    /**
+     * Persists any pending updates.
+     * @throws IOException 
+     */
+    @Override
+    public void close() throws IOException;
+}
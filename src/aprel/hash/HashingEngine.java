@@ -0,0 +1,360 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel.hash;
+
+import com.google.common.hash.HashCode;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Computes MD5 checksums of files and byte ranges of files, and copies byte
+ * ranges while hashing them. MD5 and the much faster XXH64 can be computed in
+ * the same read pass; see {@link Digests}.
+ *
+ * Reads go through pooled direct buffers of a configurable size. Ranges at
+ * least as long as the memory-mapping threshold are hashed through
+ * {@code FileChannel.map} instead. The default engine is configured with the
+ * system properties {@value #PROPERTY_READ_SIZE} (bytes per read, default
+ * 1 MiB) and {@value #PROPERTY_MMAP_THRESHOLD} (bytes; mapping is disabled
+ * when unset), so that read sizes can be tuned per machine for spinning disks,
+ * SSDs or optical drives.
+ *
+ * Thread-safe.
+ * @author Aprel
+ */
+public class HashingEngine {
+
+    public static final String PROPERTY_READ_SIZE = "aprel.hash.readSize";
+    public static final String PROPERTY_MMAP_THRESHOLD = "aprel.hash.mmapThreshold";
+    public static final int DEFAULT_READ_SIZE = 1024 * 1024;
+    /**
+     * Largest region mapped at once.
+     */
+    private static final long MAP_WINDOW = 256L * 1024 * 1024;
+    private static final int MAX_IDLE_BUFFERS = 64;
+
+    private static HashingEngine defaultEngine = null;
+
+    private final BufferPool buffers;
+    private final long mmapThreshold;
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder nanosReading = new LongAdder();
+
+    /**
+     *
+     * @param readSize bytes per read
+     * @param mmapThreshold ranges of at least this many bytes are memory-mapped
+     * instead of read; use {@code Long.MAX_VALUE} to never map
+     */
+    public HashingEngine(int readSize, long mmapThreshold) {
+        buffers = new BufferPool(readSize, MAX_IDLE_BUFFERS);
+        if(mmapThreshold < 1)
+            throw new IllegalArgumentException("Illegal mmap threshold: " + mmapThreshold);
+        this.mmapThreshold = mmapThreshold;
+    }
+
+    /**
+     *
+     * @return the engine shared by all programs, configured from system properties
+     */
+    public static synchronized HashingEngine getDefault() {
+        if(defaultEngine == null) {
+            defaultEngine = new HashingEngine(
+                    Integer.getInteger(PROPERTY_READ_SIZE, DEFAULT_READ_SIZE),
+                    Long.getLong(PROPERTY_MMAP_THRESHOLD, Long.MAX_VALUE));
+        }
+        return defaultEngine;
+    }
+
+    /**
+     *
+     * @param file
+     * @return lowercase hexadecimal MD5 of the whole file
+     * @throws IOException
+     */
+    public String md5(Path file) throws IOException {
+        try(FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            final MessageDigest md = newMd5();
+            read(ch, 0, ch.size(), md::update);
+            return toHex(md);
+        }
+    }
+
+    /**
+     *
+     * @param file
+     * @param offset first byte of the range
+     * @param length number of bytes in the range
+     * @return lowercase hexadecimal MD5 of the range
+     * @throws IOException if the file ends before the range does
+     */
+    public String md5(Path file, long offset, long length) throws IOException {
+        try(FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            final MessageDigest md = newMd5();
+            read(ch, offset, length, md::update);
+            return toHex(md);
+        }
+    }
+
+    /**
+     *
+     * @param file
+     * @return MD5 and XXH64 of the whole file, computed in one pass
+     * @throws IOException
+     */
+    public Digests digests(Path file) throws IOException {
+        try(FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            final MessageDigest md = newMd5();
+            final XxHash64 xx = new XxHash64();
+            read(ch, 0, ch.size(), chunk -> {
+                md.update(chunk.duplicate());
+                xx.update(chunk);
+            });
+            return new Digests(toHex(md), XxHash64.toHex(xx.getValue()));
+        }
+    }
+
+    /**
+     *
+     * @param file
+     * @param offset first byte of the range
+     * @param length number of bytes in the range
+     * @return XXH64 of the range, as 16 hexadecimal digits
+     * @throws IOException if the file ends before the range does
+     */
+    public String xxh64(Path file, long offset, long length) throws IOException {
+        try(FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            final XxHash64 xx = new XxHash64();
+            read(ch, offset, length, xx::update);
+            return XxHash64.toHex(xx.getValue());
+        }
+    }
+
+    /**
+     * Copies a byte range of a file to a new file, replacing any existing file
+     * at the destination.
+     * @param source
+     * @param offset first byte of the range
+     * @param length number of bytes in the range
+     * @param destination
+     * @param computeMd5 whether to hash the copied bytes
+     * @return lowercase hexadecimal MD5 of the copied bytes, or {@code null} if
+     * {@code computeMd5} is false
+     * @throws IOException if the source ends before the range does
+     */
+    public String copy(Path source, long offset, long length, Path destination,
+            boolean computeMd5) throws IOException {
+        final MessageDigest md = computeMd5 ? newMd5() : null;
+        try(FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(destination, StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            read(in, offset, length, chunk -> {
+                if(md != null)
+                    md.update(chunk.duplicate());
+                while(chunk.hasRemaining())
+                    out.write(chunk);
+            });
+        }
+        return md == null ? null : toHex(md);
+    }
+
+    /**
+     * Copies a byte range of a file to a new file, replacing any existing file
+     * at the destination, and computes the XXH64 of the copied bytes so that
+     * the copy can be verified cheaply.
+     * @param source
+     * @param offset first byte of the range
+     * @param length number of bytes in the range
+     * @param destination
+     * @param computeMd5 whether to compute the MD5 as well
+     * @return digests of the copied bytes; the MD5 is {@code null} if
+     * {@code computeMd5} is false
+     * @throws IOException if the source ends before the range does
+     */
+    public Digests copyWithDigests(Path source, long offset, long length,
+            Path destination, boolean computeMd5) throws IOException {
+        return copyWithDigests(source, offset, length, destination, computeMd5, null);
+    }
+
+    /**
+     * Like {@link #copyWithDigests(Path, long, long, Path, boolean)}, and also 
+     * adds the copied bytes to the MD5 of the whole source file, so that a 
+     * file copied in several parts is read only once.
+     * @param source
+     * @param offset first byte of the range; must equal the number of bytes 
+     * already in {@code whole}
+     * @param length number of bytes in the range
+     * @param destination
+     * @param computeMd5 whether to compute the MD5 of the range as well
+     * @param whole running MD5 of the source file, or {@code null}
+     * @return digests of the copied bytes
+     * @throws IOException if the source ends before the range does
+     */
+    public Digests copyWithDigests(Path source, long offset, long length,
+            Path destination, boolean computeMd5, RunningMd5 whole) throws IOException {
+        if(whole != null && whole.getLength() != offset)
+            throw new IllegalArgumentException("Running MD5 is at byte " 
+                    + whole.getLength() + ", not " + offset);
+        final MessageDigest md = computeMd5 ? newMd5() : null;
+        final XxHash64 xx = new XxHash64();
+        try(FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(destination, StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            read(in, offset, length, chunk -> {
+                if(md != null)
+                    md.update(chunk.duplicate());
+                xx.update(chunk.duplicate());
+                if(whole != null)
+                    whole.update(chunk.duplicate());
+                while(chunk.hasRemaining())
+                    out.write(chunk);
+            });
+        }
+        return new Digests(md == null ? null : toHex(md), XxHash64.toHex(xx.getValue()));
+    }
+
+    /**
+     * Adds the bytes of a file that a running MD5 has not reached yet, up to 
+     * {@code end}.
+     * @param whole running MD5 of the file
+     * @param file
+     * @param end offset up to which the file is hashed; nothing is read if 
+     * {@code whole} already reached it
+     * @throws IOException if the file ends before {@code end}
+     */
+    public void update(RunningMd5 whole, Path file, long end) throws IOException {
+        if(whole.getLength() >= end)
+            return;
+        try(FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            read(ch, whole.getLength(), end - whole.getLength(), whole::update);
+        }
+    }
+
+    @FunctionalInterface
+    private static interface ChunkConsumer {
+        /**
+         * Receives the next bytes of a range, between the buffer's position and
+         * limit. The buffer is reused after this method returns.
+         */
+        public void accept(ByteBuffer chunk) throws IOException;
+    }
+
+    private void read(FileChannel ch, long offset, long length, ChunkConsumer consumer)
+            throws IOException {
+        if(offset < 0 || length < 0)
+            throw new IllegalArgumentException("Illegal range: offset " + offset
+                    + ", length " + length);
+        final long start = System.nanoTime();
+        if(length >= mmapThreshold)
+            readMapped(ch, offset, length, consumer);
+        else
+            readBuffered(ch, offset, length, consumer);
+        nanosReading.add(System.nanoTime() - start);
+        bytesRead.add(length);
+    }
+
+    private void readBuffered(FileChannel ch, long offset, long length,
+            ChunkConsumer consumer) throws IOException {
+        final ByteBuffer buf = buffers.acquire();
+        try {
+            long position = offset;
+            final long end = offset + length;
+            while(position < end) {
+                buf.clear();
+                if(end - position < buf.capacity())
+                    buf.limit((int) (end - position));
+                final int read = ch.read(buf, position);
+                if(read < 0)
+                    throw new EOFException("Reached end of file after "
+                            + (position - offset) + " bytes out of " + length);
+                position += read;
+                buf.flip();
+                consumer.accept(buf);
+            }
+        }
+        finally {
+            buffers.release(buf);
+        }
+    }
+
+    private static void readMapped(FileChannel ch, long offset, long length,
+            ChunkConsumer consumer) throws IOException {
+        if(ch.size() < offset + length)
+            throw new EOFException("File has " + ch.size() + " bytes; cannot read "
+                    + length + " bytes at offset " + offset);
+        long position = offset;
+        final long end = offset + length;
+        while(position < end) {
+            final long window = Math.min(MAP_WINDOW, end - position);
+            final MappedByteBuffer mapped = ch.map(FileChannel.MapMode.READ_ONLY,
+                    position, window);
+            consumer.accept(mapped);
+            position += window;
+        }
+    }
+
+    /**
+     *
+     * @return total number of bytes read by this engine
+     */
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    /**
+     * Throughput of a single read stream, i.e. bytes read divided by the time
+     * spent reading them. When several threads share the engine, the aggregate
+     * throughput is higher.
+     * @return bytes per second, or 0 if nothing has been read
+     */
+    public double getBytesPerSecond() {
+        final long nanos = nanosReading.sum();
+        if(nanos == 0)
+            return 0;
+        return getBytesRead() / (nanos / 1_000_000_000.0);
+    }
+
+    /**
+     *
+     * @return a human-readable summary of the bytes read and the throughput
+     */
+    public String getThroughputSummary() {
+        return String.format("Hashed %d bytes at %.1f MB/s", getBytesRead(),
+                getBytesPerSecond() / 1_000_000);
+    }
+
+    static MessageDigest newMd5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        }
+        catch(NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("JVM does not provide MD5", ex);
+        }
+    }
+
+    static String toHex(MessageDigest md) {
+        return HashCode.fromBytes(md.digest()).toString();
+    }
+}
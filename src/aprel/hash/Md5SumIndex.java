@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel.hash;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Looks up checksums in an md5sum file without loading its lines into memory.
+ *
+ * The file is memory-mapped, and each line is indexed by a 64-bit hash of its 
+ * path in an open-addressing table that holds only the hash and the offset of 
+ * the line, i.e. 12 bytes per slot. Checksums and paths are read from the 
+ * mapped file when they are looked up. Accepted line formats:
+ * <ul>
+ * <li>{@code md5  path} (GNU text mode)</li>
+ * <li>{@code md5 *path} (GNU binary mode)</li>
+ * <li>{@code MD5 (path) = md5} (BSD, or GNU with {@code --tag})</li>
+ * </ul>
+ * GNU lines starting with a backslash have escaped paths, as md5sum writes 
+ * them for names containing a backslash or line break. A leading 
+ * {@code ./} is ignored. If a path is listed more than once, the last line 
+ * wins. Files larger than 2 GiB are not supported.
+ *
+ * Thread-safe once loaded.
+ * @author Aprel
+ */
+public final class Md5SumIndex {
+    
+    private static final int MD5_LENGTH = 32;
+    private static final byte[] BSD_PREFIX = "MD5 (".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BSD_SEPARATOR = ") = ".getBytes(StandardCharsets.US_ASCII);
+    private static final float MAX_LOAD = 0.75f;
+    private static final long EMPTY = 0;
+    
+    private final MappedByteBuffer mapped;
+    private final long[] hashes;
+    private final int[] offsets;
+    private int size = 0;
+    
+    private static final Logger LOG = LoggerFactory.getLogger(Md5SumIndex.class);
+    
+    /**
+     * Location of the path and checksum within a line.
+     */
+    private static class Line {
+        int pathStart, pathEnd, md5Start;
+        boolean escaped;
+    }
+    
+    /**
+     * 
+     * @param mapped
+     * @param lines upper bound of the number of entries; the table is sized 
+     * so that it stays below the maximum load
+     */
+    private Md5SumIndex(MappedByteBuffer mapped, int lines) {
+        this.mapped = mapped;
+        final int capacity = Integer.highestOneBit(
+                Math.max(16, (int) (lines / MAX_LOAD) + 1) - 1) << 1;
+        hashes = new long[capacity];
+        offsets = new int[capacity];
+    }
+    
+    /**
+     * 
+     * @param file
+     * @return the index of the file's lines
+     * @throws IOException 
+     */
+    public static Md5SumIndex load(Path file) throws IOException {
+        final MappedByteBuffer mapped;
+        try(FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            if(ch.size() > Integer.MAX_VALUE)
+                throw new IOException("Checksum file too large to map: " + file);
+            mapped = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        final Md5SumIndex index = new Md5SumIndex(mapped, countLines(mapped));
+        final Line line = new Line();
+        int malformed = 0;
+        int start = 0;
+        final int limit = mapped.limit();
+        while(start < limit) {
+            final int end = lineEnd(mapped, start);
+            if(!isBlank(mapped, start, end)) {
+                if(parse(mapped, start, end, line))
+                    index.put(start, line);
+                else if(malformed++ < 10)
+                    LOG.warn("Ignoring malformed line at byte {} of {}", start, file);
+            }
+            start = end + 1;
+        }
+        if(malformed > 0)
+            LOG.warn("Ignored {} malformed lines in {}", malformed, file);
+        LOG.info("Indexed {} checksums from {}", index.size, file);
+        return index;
+    }
+    
+    /**
+     * 
+     * @param path relative path as it appears in the file, without a leading 
+     * {@code ./}
+     * @return lowercase hexadecimal MD5, or {@code null} if the path is not 
+     * listed
+     */
+    public String get(String path) {
+        final byte[] key = path.getBytes(StandardCharsets.UTF_8);
+        final long hash = hash(key, 0, key.length);
+        final int mask = hashes.length - 1;
+        final Line line = new Line();
+        for(int slot = (int) hash & mask; hashes[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if(hashes[slot] != hash)
+                continue;
+            final int start = offsets[slot];
+            parse(mapped, start, lineEnd(mapped, start), line);
+            if(Arrays.equals(key, pathOf(line)))
+                return md5Of(line);
+        }
+        return null;
+    }
+    
+    /**
+     * 
+     * @return number of distinct paths
+     */
+    public int size() {
+        return size;
+    }
+    
+    private void put(int lineStart, Line line) {
+        final byte[] path = line.escaped ? pathOf(line) : null;
+        final long hash = path != null ? hash(path, 0, path.length) 
+                : hash(mapped, line.pathStart, line.pathEnd);
+        final int mask = hashes.length - 1;
+        final Line other = new Line();
+        int slot = (int) hash & mask;
+        for(; hashes[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if(hashes[slot] != hash)
+                continue;
+            final int start = offsets[slot];
+            parse(mapped, start, lineEnd(mapped, start), other);
+            if(Arrays.equals(pathOf(line), pathOf(other))) {
+                offsets[slot] = lineStart;
+                return;
+            }
+        }
+        hashes[slot] = hash;
+        offsets[slot] = lineStart;
+        size++;
+    }
+    
+    /**
+     * Finds the path and checksum of a line.
+     * @param start first byte of the line
+     * @param end index of the line break, or the end of the file
+     * @return false if the line is malformed
+     */
+    private static boolean parse(MappedByteBuffer buf, int start, int end, Line line) {
+        if(end > start && buf.get(end - 1) == '\r')
+            end--;
+        if(startsWith(buf, start, end, BSD_PREFIX)) {
+            //MD5 (path) = md5
+            final int md5Start = end - MD5_LENGTH;
+            final int separator = md5Start - BSD_SEPARATOR.length;
+            if(separator < start + BSD_PREFIX.length || !startsWith(buf, separator, end, BSD_SEPARATOR))
+                return false;
+            line.escaped = false;
+            line.md5Start = md5Start;
+            line.pathStart = start + BSD_PREFIX.length;
+            line.pathEnd = separator;
+        }
+        else {
+            //[\]md5 [ *]path
+            line.escaped = buf.get(start) == '\\';
+            line.md5Start = line.escaped ? start + 1 : start;
+            final int separator = line.md5Start + MD5_LENGTH;
+            if(separator + 2 > end || buf.get(separator) != ' ' 
+                    || (buf.get(separator + 1) != ' ' && buf.get(separator + 1) != '*'))
+                return false;
+            line.pathStart = separator + 2;
+            line.pathEnd = end;
+        }
+        for(int i = line.md5Start; i < line.md5Start + MD5_LENGTH; i++) {
+            if(Character.digit(buf.get(i), 16) < 0)
+                return false;
+        }
+        if(line.pathEnd - line.pathStart > 2 && buf.get(line.pathStart) == '.' 
+                && buf.get(line.pathStart + 1) == '/')
+            line.pathStart += 2;
+        return line.pathEnd > line.pathStart;
+    }
+    
+    private byte[] pathOf(Line line) {
+        final byte[] raw = new byte[line.pathEnd - line.pathStart];
+        for(int i = 0; i < raw.length; i++)
+            raw[i] = mapped.get(line.pathStart + i);
+        if(!line.escaped)
+            return raw;
+        //md5sum escapes backslashes and line breaks
+        int n = 0;
+        for(int i = 0; i < raw.length; i++) {
+            if(raw[i] == '\\' && i + 1 < raw.length) {
+                final byte next = raw[++i];
+                raw[n++] = next == 'n' ? (byte) '\n' : next;
+            }
+            else {
+                raw[n++] = raw[i];
+            }
+        }
+        return Arrays.copyOf(raw, n);
+    }
+    
+    private String md5Of(Line line) {
+        final byte[] md5 = new byte[MD5_LENGTH];
+        for(int i = 0; i < MD5_LENGTH; i++)
+            md5[i] = (byte) Character.toLowerCase(mapped.get(line.md5Start + i));
+        return new String(md5, StandardCharsets.US_ASCII);
+    }
+    
+    private static int countLines(MappedByteBuffer buf) {
+        int lines = 1;
+        for(int i = 0; i < buf.limit(); i++) {
+            if(buf.get(i) == '\n')
+                lines++;
+        }
+        return lines;
+    }
+    
+    private static int lineEnd(MappedByteBuffer buf, int start) {
+        int i = start;
+        while(i < buf.limit() && buf.get(i) != '\n')
+            i++;
+        return i;
+    }
+    
+    private static boolean isBlank(MappedByteBuffer buf, int start, int end) {
+        for(int i = start; i < end; i++) {
+            if(!Character.isWhitespace(buf.get(i)))
+                return false;
+        }
+        return true;
+    }
+    
+    private static boolean startsWith(MappedByteBuffer buf, int start, int end, byte[] prefix) {
+        if(end - start < prefix.length)
+            return false;
+        for(int i = 0; i < prefix.length; i++) {
+            if(buf.get(start + i) != prefix[i])
+                return false;
+        }
+        return true;
+    }
+    
+    /**
+     * FNV-1a followed by a finalizer that spreads the bits, never 
+     * {@value #EMPTY}.
+     */
+    private static long hash(MappedByteBuffer buf, int start, int end) {
+        long h = 0xCBF29CE484222325L;
+        for(int i = start; i < end; i++) {
+            h ^= buf.get(i) & 0xFF;
+            h *= 0x100000001B3L;
+        }
+        return finish(h);
+    }
+    
+    private static long hash(byte[] bytes, int start, int end) {
+        long h = 0xCBF29CE484222325L;
+        for(int i = start; i < end; i++) {
+            h ^= bytes[i] & 0xFF;
+            h *= 0x100000001B3L;
+        }
+        return finish(h);
+    }
+    
+    private static long finish(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h == EMPTY ? 1 : h;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel.hash;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+/**
+ * The MD5 of a file that is hashed piece by piece, from its first byte 
+ * onwards, possibly while its parts are copied. Fed by 
+ * {@link HashingEngine#copyWithDigests(java.nio.file.Path, long, long, 
+ * java.nio.file.Path, boolean, RunningMd5)} and 
+ * {@link HashingEngine#update(RunningMd5, java.nio.file.Path, long)}.
+ *
+ * Not thread-safe.
+ * @author Aprel
+ */
+public final class RunningMd5 {
+    private final MessageDigest md = HashingEngine.newMd5();
+    private long length = 0;
+    private String md5 = null;
+    
+    /**
+     * 
+     * @return number of bytes hashed so far, i.e. the offset of the next byte 
+     * to hash
+     */
+    public long getLength() {
+        return length;
+    }
+    
+    void update(ByteBuffer bytes) {
+        if(md5 != null)
+            throw new IllegalStateException("MD5 already finished");
+        length += bytes.remaining();
+        md.update(bytes);
+    }
+    
+    /**
+     * Completes the hash. No more bytes can be added afterwards.
+     * @return lowercase hexadecimal MD5 of the bytes hashed
+     */
+    public String finish() {
+        if(md5 == null)
+            md5 = HashingEngine.toHex(md);
+        return md5;
+    }
+}
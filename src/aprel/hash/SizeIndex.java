@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel.hash;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * A set of file sizes, held as a sorted array of primitive longs, i.e. 8 bytes 
+ * per distinct size. Used to tell cheaply whether a file can possibly be a 
+ * duplicate of an archived file: files whose size is not in the set cannot be.
+ *
+ * Immutable and thread-safe.
+ * @author Aprel
+ */
+public final class SizeIndex {
+    
+    private static final int INITIAL_CAPACITY = 1024;
+    
+    private final long[] sizes;
+    
+    private SizeIndex(long[] sizes) {
+        this.sizes = sizes;
+    }
+    
+    /**
+     * 
+     * @param sizes in any order; duplicates are ignored
+     * @return the index of the sizes
+     */
+    public static SizeIndex of(Iterator<Long> sizes) {
+        long[] array = new long[INITIAL_CAPACITY];
+        int count = 0;
+        while(sizes.hasNext()) {
+            if(count == array.length)
+                array = Arrays.copyOf(array, array.length * 2);
+            array[count++] = sizes.next();
+        }
+        Arrays.sort(array, 0, count);
+        int distinct = 0;
+        for(int i = 0; i < count; i++) {
+            if(distinct == 0 || array[distinct - 1] != array[i])
+                array[distinct++] = array[i];
+        }
+        return new SizeIndex(Arrays.copyOf(array, distinct));
+    }
+    
+    public static SizeIndex of(long... sizes) {
+        return of(Arrays.stream(sizes).iterator());
+    }
+    
+    public boolean contains(long size) {
+        return Arrays.binarySearch(sizes, size) >= 0;
+    }
+    
+    /**
+     * 
+     * @return number of distinct sizes
+     */
+    public int size() {
+        return sizes.length;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel.hash;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link HashCache} that stores each file's checksums in a user extended 
+ * attribute of the file itself, so the cache follows the file through renames 
+ * and moves within a filesystem. The file key does not need to be recorded 
+ * because the attribute belongs to the inode.
+ * 
+ * Files on filesystems without user extended attributes, or that cannot be 
+ * written, are simply not cached.
+ * @author Aprel
+ */
+public class XattrHashCache implements HashCache {
+    
+    public static final String ATTRIBUTE_NAME = "aprel.md5";
+    private static final Logger LOG = LoggerFactory.getLogger(XattrHashCache.class);
+    
+    @Override
+    public Digests lookup(Path file, BasicFileAttributes attrs) {
+        final UserDefinedFileAttributeView view = Files.getFileAttributeView(file, 
+                UserDefinedFileAttributeView.class);
+        if(view == null)
+            return null;
+        final String value;
+        try {
+            final ByteBuffer buf = ByteBuffer.allocate(view.size(ATTRIBUTE_NAME));
+            view.read(ATTRIBUTE_NAME, buf);
+            buf.flip();
+            value = StandardCharsets.US_ASCII.decode(buf).toString();
+        }
+        catch(IOException | UnsupportedOperationException ex) {
+            //no attribute
+            return null;
+        }
+        //size mtime md5 xxh64; values without xxh64 are from older versions
+        final String[] parts = value.split(" ");
+        if(parts.length != 4)
+            return null;
+        if(!parts[0].equals(Long.toString(attrs.size())) 
+                || !parts[1].equals(Long.toString(FileHashCache.mtimeOf(attrs))))
+            return null;
+        return new Digests(parts[2], parts[3]);
+    }
+
+    @Override
+    public void update(Path file, BasicFileAttributes attrs, Digests digests) {
+        if(digests.getMd5() == null)
+            throw new IllegalArgumentException("MD5 required");
+        final UserDefinedFileAttributeView view = Files.getFileAttributeView(file, 
+                UserDefinedFileAttributeView.class);
+        if(view == null)
+            return;
+        final String value = attrs.size() + " " + FileHashCache.mtimeOf(attrs) + " " 
+                + digests.getMd5() + " " + digests.getXxh64();
+        try {
+            view.write(ATTRIBUTE_NAME, StandardCharsets.US_ASCII.encode(value));
+        }
+        catch(IOException | UnsupportedOperationException ex) {
+            LOG.debug("Could not store checksum in extended attribute of " + file, ex);
+        }
+    }
+
+    @Override
+    public void close() {
+        //nothing is buffered
+    }
+}
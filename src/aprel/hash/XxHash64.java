@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel.hash;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Streaming implementation of the 64-bit xxHash (XXH64) with seed 0.
+ *
+ * xxHash is not cryptographic, but it is many times faster than MD5, so it is 
+ * used for internal comparisons such as verifying copies. MD5 remains the 
+ * digest recorded for compatibility.
+ *
+ * Not thread-safe.
+ * @author Aprel
+ */
+public final class XxHash64 {
+    
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME5 = 0x27D4EB2F165667C5L;
+    private static final int STRIPE = 32;
+    
+    private long v1, v2, v3, v4;
+    private long totalLength;
+    /**
+     * Input that does not yet fill a stripe.
+     */
+    private final ByteBuffer pending = ByteBuffer.allocate(STRIPE)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    
+    public XxHash64() {
+        reset();
+    }
+    
+    public void reset() {
+        v1 = PRIME1 + PRIME2;
+        v2 = PRIME2;
+        v3 = 0;
+        v4 = -PRIME1;
+        totalLength = 0;
+        pending.clear();
+    }
+    
+    /**
+     * Hashes the bytes between the buffer's position and limit, and advances 
+     * its position to its limit.
+     * @param input
+     */
+    public void update(ByteBuffer input) {
+        final ByteBuffer in = input.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        totalLength += in.remaining();
+        if(pending.position() > 0) {
+            while(pending.hasRemaining() && in.hasRemaining())
+                pending.put(in.get());
+            if(pending.hasRemaining()) {
+                input.position(input.limit());
+                return;
+            }
+            pending.flip();
+            stripe(pending);
+            pending.clear();
+        }
+        while(in.remaining() >= STRIPE)
+            stripe(in);
+        pending.put(in);
+        input.position(input.limit());
+    }
+    
+    public void update(byte[] input, int offset, int length) {
+        update(ByteBuffer.wrap(input, offset, length));
+    }
+    
+    private void stripe(ByteBuffer in) {
+        v1 = round(v1, in.getLong());
+        v2 = round(v2, in.getLong());
+        v3 = round(v3, in.getLong());
+        v4 = round(v4, in.getLong());
+    }
+    
+    /**
+     * Does not change the state, so more input may follow.
+     * @return the hash of all input since construction or {@link #reset()}
+     */
+    public long getValue() {
+        long h;
+        if(totalLength >= STRIPE) {
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) 
+                    + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            h = mergeRound(h, v1);
+            h = mergeRound(h, v2);
+            h = mergeRound(h, v3);
+            h = mergeRound(h, v4);
+        }
+        else {
+            h = PRIME5;
+        }
+        h += totalLength;
+        
+        final ByteBuffer tail = pending.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        tail.flip();
+        while(tail.remaining() >= 8) {
+            h ^= round(0, tail.getLong());
+            h = Long.rotateLeft(h, 27) * PRIME1 + PRIME4;
+        }
+        if(tail.remaining() >= 4) {
+            h ^= Integer.toUnsignedLong(tail.getInt()) * PRIME1;
+            h = Long.rotateLeft(h, 23) * PRIME2 + PRIME3;
+        }
+        while(tail.hasRemaining()) {
+            h ^= (tail.get() & 0xFF) * PRIME5;
+            h = Long.rotateLeft(h, 11) * PRIME1;
+        }
+        
+        h ^= h >>> 33;
+        h *= PRIME2;
+        h ^= h >>> 29;
+        h *= PRIME3;
+        h ^= h >>> 32;
+        return h;
+    }
+    
+    /**
+     * 
+     * @param input
+     * @return XXH64 of the whole array
+     */
+    public static long hash(byte[] input) {
+        final XxHash64 xx = new XxHash64();
+        xx.update(input, 0, input.length);
+        return xx.getValue();
+    }
+    
+    /**
+     * 
+     * @param hash
+     * @return 16 lowercase hexadecimal digits, in the byte order xxhsum prints
+     */
+    public static String toHex(long hash) {
+        final String hex = Long.toHexString(hash);
+        return "0000000000000000".substring(hex.length()) + hex;
+    }
+    
+    private static long round(long acc, long input) {
+        acc += input * PRIME2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * PRIME1;
+    }
+    
+    private static long mergeRound(long acc, long value) {
+        acc ^= round(0, value);
+        return acc * PRIME1 + PRIME4;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel.jdbi;
+
+import aprel.db.beans.DirectoryBean;
+import aprel.db.beans.FileBean;
+import com.google.common.collect.Lists;
+import java.util.List;
+import org.skife.jdbi.v2.Handle;
+import org.skife.jdbi.v2.PreparedBatch;
+import org.skife.jdbi.v2.util.StringColumnMapper;
+
+/**
+ * Inserts many rows per round trip with JDBC batches. Unlike 
+ * {@code @SqlBatch} with {@code @GetGeneratedKeys}, which can only return 
+ * keys as an {@code int[]}, the generated ids are returned as Strings.
+ * 
+ * With MySQL, batches are only sent as multi-row INSERTs if the connection 
+ * has {@code rewriteBatchedStatements=true}, as those of 
+ * {@link aprel.ArchiveDatabase} do.
+ * 
+ * Callers decide the transaction; each method is a single batch otherwise 
+ * run in autocommit mode.
+ * @author Aprel
+ */
+public final class BatchInsert {
+    /**
+     * Rows per batch. Larger batches are split.
+     */
+    public static final int BATCH_SIZE = 1000;
+    
+    private BatchInsert() {
+    }
+    
+    /**
+     * Inserts files and sets their ids.
+     * @param h
+     * @param files with their parent directory set
+     * @throws IllegalStateException if the database does not return an id 
+     * for each file
+     */
+    public static void insertFiles(Handle h, List<FileBean> files) {
+        for(List<FileBean> batch : Lists.partition(files, BATCH_SIZE)) {
+            final PreparedBatch insert = h.prepareBatch(Insert.INSERT_FILE);
+            batch.forEach(bean -> insert.add().bindFromProperties(bean));
+            final List<String> ids = insert.executeAndGenerateKeys(
+                    StringColumnMapper.INSTANCE).list();
+            if(ids.size() != batch.size())
+                throw new IllegalStateException("Inserted " + batch.size() 
+                        + " files but received " + ids.size() + " ids");
+            for(int i = 0; i < ids.size(); i++)
+                batch.get(i).setId(ids.get(i));
+        }
+    }
+    
+    /**
+     * Creates directories and sets their ids.
+     * @param h
+     * @param dirs whose parents all exist in the database
+     * @throws IllegalStateException if the database does not return an id 
+     * for each directory
+     */
+    public static void createDirectories(Handle h, List<DirectoryBean> dirs) {
+        for(List<DirectoryBean> batch : Lists.partition(dirs, BATCH_SIZE)) {
+            final PreparedBatch insert = h.prepareBatch(Insert.CREATE_DIRECTORY);
+            batch.forEach(dir -> insert.add().bind("dir", dir.getDirName())
+                    .bind("parent", dir.getDirParentId())
+                    .bind("fullPath", dir.getFullPath()));
+            final List<String> ids = insert.executeAndGenerateKeys(
+                    StringColumnMapper.INSTANCE).list();
+            if(ids.size() != batch.size())
+                throw new IllegalStateException("Created " + batch.size() 
+                        + " directories but received " + ids.size() + " ids");
+            for(int i = 0; i < ids.size(); i++) {
+                final DirectoryBean dir = batch.get(i);
+                dir.setFullPath(dir.getFullPath());
+                dir.setId(ids.get(i));
+            }
+        }
+    }
+    
+    /**
+     * Inserts the media metadata of files that have it.
+     * @param h
+     * @param files with their ids set
+     */
+    public static void insertMetadata(Handle h, List<FileBean> files) {
+        for(List<FileBean> batch : Lists.partition(files, BATCH_SIZE)) {
+            final PreparedBatch insert = h.prepareBatch(Insert.INSERT_METADATA);
+            batch.stream().filter(FileBean::hasMediaData).forEach(bean -> insert.add()
+                    .bind("fileId", bean.getId()).bindFromProperties(bean.getMedia()));
+            if(insert.getSize() > 0)
+                insert.execute();
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel.jdbi;
+
+import aprel.db.beans.DirectoryBean;
+import aprel.db.beans.FileBean;
+import com.google.common.collect.Lists;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.skife.jdbi.v2.Handle;
+import org.skife.jdbi.v2.Query;
+import org.skife.jdbi.v2.StatementContext;
+import org.skife.jdbi.v2.exceptions.UnableToExecuteStatementException;
+
+/**
+ * Inserts rows with MySQL's {@code LOAD DATA LOCAL INFILE}, which is much 
+ * faster than batched INSERTs for millions of rows. The rows are written to 
+ * a temporary tab-separated file that the driver streams to the server.
+ * 
+ * {@code LOAD DATA} does not return generated ids, so they are looked up 
+ * afterwards: directories by their full path, files by their directory and 
+ * name, which {@link aprel.db.beans.DirectoryStructure} has made unique.
+ * 
+ * With {@code LOCAL}, MySQL skips rows it cannot insert with a warning 
+ * instead of failing, so every method throws if fewer rows are loaded than 
+ * written. The server must have {@code local_infile} enabled. Like 
+ * {@link BatchInsert}, callers decide the transaction.
+ * @author Aprel
+ */
+public final class BulkLoader {
+    /**
+     * Values per id lookup query.
+     */
+    private static final int LOOKUP_CHUNK = 1000;
+    private static final String NULL = "\\N";
+    
+    private BulkLoader() {
+    }
+    
+    /**
+     * Creates directories and sets their ids.
+     * @param h
+     * @param dirs whose parents all exist in the database, with their full 
+     * paths
+     * @throws IllegalStateException if not every directory was created
+     */
+    public static void createDirectories(Handle h, List<DirectoryBean> dirs) {
+        load(h, "directories", Arrays.asList("dirName", "dirParentId", "fullPath"), 
+                Lists.transform(dirs, d -> new Object[] {
+                    d.getDirName(), d.getDirParentId(), d.getFullPath()}));
+        final Map<String,DirectoryBean> byPath = dirs.stream().collect(
+                Collectors.toMap(DirectoryBean::getFullPath, Function.identity()));
+        for(List<String> paths : Lists.partition(new ArrayList<>(byPath.keySet()), LOOKUP_CHUNK)) {
+            final Query<Map<String,Object>> q = h.createQuery(
+                    "SELECT id, fullPath FROM directories WHERE fullPath IN (" 
+                    + placeholders(paths.size()) + ")");
+            for(int i = 0; i < paths.size(); i++)
+                q.bind(i, paths.get(i));
+            q.list().forEach(row -> byPath.get((String) row.get("fullPath"))
+                    .setId(row.get("id").toString()));
+        }
+        if(!dirs.stream().allMatch(DirectoryBean::existsInDatabase))
+            throw new IllegalStateException("Could not find the ids of all created directories");
+    }
+    
+    /**
+     * Inserts files and sets their ids.
+     * @param h
+     * @param files with their parent directory set. No two may have the same 
+     * name in the same directory.
+     * @throws IllegalStateException if not every file was inserted
+     */
+    public static void insertFiles(Handle h, List<FileBean> files) {
+        //only files inserted from here on are looked up
+        final long before = h.createQuery("SELECT COALESCE(MAX(id), 0) FROM files")
+                .mapTo(Long.class).first();
+        load(h, "files", Arrays.asList("filename", "dirParentId", "md5", "xxh64", "size", 
+                "catalog", "onOptical", "onLocalDisc", "localStoragePath"), 
+                Lists.transform(files, f -> new Object[] {
+                    f.getFilename(), f.getDirParentId(), f.getMd5(), f.getXxh64(), 
+                    f.getSize(), f.getCatalog(), f.isOnOptical(), f.isOnLocalDisc(), 
+                    f.getLocalStoragePath()}));
+        final Map<List<String>,FileBean> byKey = new HashMap<>();
+        files.forEach(f -> byKey.put(Arrays.asList(f.getDirParentId(), f.getFilename()), f));
+        final Set<String> parents = files.stream().map(FileBean::getDirParentId)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+        for(List<String> chunk : Lists.partition(new ArrayList<>(parents), LOOKUP_CHUNK)) {
+            final Query<Map<String,Object>> q = h.createQuery(
+                    "SELECT id, dirParentId, filename FROM files WHERE id > ? AND dirParentId IN (" 
+                    + placeholders(chunk.size()) + ")");
+            q.bind(0, before);
+            for(int i = 0; i < chunk.size(); i++)
+                q.bind(i + 1, chunk.get(i));
+            q.list().forEach(row -> {
+                final FileBean f = byKey.get(Arrays.asList(row.get("dirParentId").toString(), 
+                        (String) row.get("filename")));
+                if(f != null)
+                    f.setId(row.get("id").toString());
+            });
+        }
+        if(!files.stream().allMatch(FileBean::existsInDatabase))
+            throw new IllegalStateException("Could not find the ids of all inserted files");
+    }
+    
+    /**
+     * Inserts the media metadata of files that have it.
+     * @param h
+     * @param files with their ids set
+     */
+    public static void insertMetadata(Handle h, List<FileBean> files) {
+        final List<FileBean> withMetadata = files.stream().filter(FileBean::hasMediaData)
+                .collect(Collectors.toList());
+        if(withMetadata.isEmpty())
+            return;
+        load(h, "metadata", Arrays.asList("fileId", "title", "subtitle", "description", 
+                "channel", "originalBroadcast", "originalRuntime", "duration100Nanos", "duration"), 
+                Lists.transform(withMetadata, f -> {
+                    final FileBean.MediaMetadata m = f.getMedia();
+                    return new Object[] {f.getId(), m.getTitle(), m.getSubtitle(), 
+                        m.getDescription(), m.getChannel(), m.getOriginalBroadcast(), 
+                        m.getOriginalRuntime(), m.getDuration100Nanos(), m.getDuration()};
+                }));
+    }
+    
+    /**
+     * 
+     * @param h
+     * @param table
+     * @param columns
+     * @param rows each with a value per column
+     * @throws IllegalStateException if not every row was loaded
+     */
+    private static void load(Handle h, String table, List<String> columns, List<Object[]> rows) {
+        if(rows.isEmpty())
+            return;
+        Path tmp = null;
+        try {
+            tmp = Files.createTempFile("aprel-" + table, ".tsv");
+            try(Writer w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                for(Object[] row : rows)
+                    writeRow(w, row);
+            }
+            //a plain statement, since LOAD DATA cannot be prepared on the server
+            final int loaded;
+            try(Statement statement = h.getConnection().createStatement()) {
+                loaded = statement.executeUpdate("LOAD DATA LOCAL INFILE '" 
+                        + escape(tmp.toAbsolutePath().toString()).replace("'", "\\'") 
+                        + "' INTO TABLE " + table + " CHARACTER SET utf8mb4 "
+                        + "FIELDS TERMINATED BY '\\t' ESCAPED BY '\\\\' LINES TERMINATED BY '\\n' "
+                        + "(" + String.join(", ", columns) + ")");
+            }
+            if(loaded != rows.size())
+                throw new IllegalStateException("Loaded " + loaded + " of " + rows.size() 
+                        + " rows into " + table);
+        }
+        catch(IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        catch(SQLException ex) {
+            throw new UnableToExecuteStatementException(ex, (StatementContext) null);
+        }
+        finally {
+            if(tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                }
+                catch(IOException ex) {
+                    tmp.toFile().deleteOnExit();
+                }
+            }
+        }
+    }
+    
+    static void writeRow(Writer w, Object[] values) throws IOException {
+        for(int i = 0; i < values.length; i++) {
+            if(i > 0)
+                w.write('\t');
+            final Object v = values[i];
+            if(v == null)
+                w.write(NULL);
+            else if(v instanceof Boolean)
+                w.write((Boolean) v ? '1' : '0');
+            else
+                w.write(escape(v.toString()));
+        }
+        w.write('\n');
+    }
+    
+    private static String escape(String s) {
+        final StringBuilder sb = new StringBuilder(s.length() + 8);
+        for(char c : s.toCharArray()) {
+            switch(c) {
+                case '\\': sb.append("\\\\"); break;
+                case '\t': sb.append("\\t"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\0': sb.append("\\0"); break;
+                default: sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+    
+    private static String placeholders(int count) {
+        return String.join(",", Collections.nCopies(count, "?"));
+    }
+}
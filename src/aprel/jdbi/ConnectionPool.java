@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel.jdbi;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTimeoutException;
+import java.util.Properties;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded pool of JDBC connections. Connections are opened when needed, up 
+ * to a maximum; {@link #getConnection()} waits for one to be returned once 
+ * that many are in use. Closing a connection returns it to the pool after 
+ * rolling back anything uncommitted, so a connection keeps its prepared 
+ * statement cache across uses.
+ * 
+ * The most recently returned connection is handed out first. Connections 
+ * that have been idle for a while are checked before they are handed out.
+ * @author Aprel
+ */
+public class ConnectionPool implements DataSource, AutoCloseable {
+    private final String url;
+    private final Properties info;
+    private final int maximumSize;
+    private final long timeoutMillis;
+    private final Semaphore permits;
+    private final BlockingDeque<IdleConnection> idle = new LinkedBlockingDeque<>();
+    private volatile boolean closed = false;
+    
+    /**
+     * Idle time after which a connection is validated before use.
+     */
+    private static final long VALIDATE_AFTER_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+    private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(ConnectionPool.class);
+    
+    private static class IdleConnection {
+        private final Connection connection;
+        private final long since = System.currentTimeMillis();
+
+        IdleConnection(Connection connection) {
+            this.connection = connection;
+        }
+    }
+    
+    /**
+     * 
+     * @param url
+     * @param user
+     * @param password
+     * @param maximumSize connections open at once
+     * @param timeoutMillis how long {@link #getConnection()} waits for a 
+     * connection when all are in use
+     */
+    public ConnectionPool(String url, String user, String password, int maximumSize, 
+            long timeoutMillis) {
+        if(maximumSize < 1)
+            throw new IllegalArgumentException("Maximum size must be positive: " + maximumSize);
+        this.url = url;
+        info = new Properties();
+        if(user != null)
+            info.setProperty("user", user);
+        if(password != null)
+            info.setProperty("password", password);
+        this.maximumSize = maximumSize;
+        this.timeoutMillis = timeoutMillis;
+        permits = new Semaphore(maximumSize, true);
+    }
+    
+    @Override
+    public Connection getConnection() throws SQLException {
+        if(closed)
+            throw new SQLException("Connection pool is closed");
+        try {
+            if(!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS))
+                throw new SQLTimeoutException("All " + maximumSize 
+                        + " connections are in use");
+        }
+        catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", ex);
+        }
+        try {
+            Connection c = null;
+            IdleConnection i;
+            while(c == null && (i = idle.pollFirst()) != null) {
+                if(System.currentTimeMillis() - i.since < VALIDATE_AFTER_MILLIS 
+                        || i.connection.isValid(VALIDATION_TIMEOUT_SECONDS))
+                    c = i.connection;
+                else
+                    closeQuietly(i.connection);
+            }
+            if(c == null)
+                c = DriverManager.getConnection(url, info);
+            return lease(c);
+        }
+        catch(SQLException | RuntimeException ex) {
+            permits.release();
+            throw ex;
+        }
+    }
+    
+    /**
+     * 
+     * @return the connections open and not in use
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+    
+    /**
+     * 
+     * @return the connections in use
+     */
+    public int getActiveCount() {
+        return maximumSize - permits.availablePermits();
+    }
+    
+    private Connection lease(Connection physical) {
+        final InvocationHandler handler = new InvocationHandler() {
+            private boolean returned = false;
+            
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch(method.getName()) {
+                    case "close":
+                        if(!returned) {
+                            returned = true;
+                            release(physical);
+                        }
+                        return null;
+                    case "isClosed":
+                        return returned || physical.isClosed();
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "toString":
+                        return "Pooled " + physical;
+                }
+                if(returned)
+                    throw new SQLException("Connection has been returned to the pool");
+                try {
+                    return method.invoke(physical, args);
+                }
+                catch(InvocationTargetException ex) {
+                    throw ex.getCause();
+                }
+            }
+        };
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), 
+                new Class<?>[] {Connection.class}, handler);
+    }
+    
+    private void release(Connection physical) {
+        try {
+            if(!physical.isClosed() && !physical.getAutoCommit()) {
+                physical.rollback();
+                physical.setAutoCommit(true);
+            }
+            if(closed || physical.isClosed())
+                closeQuietly(physical);
+            else
+                idle.offerFirst(new IdleConnection(physical));
+        }
+        catch(SQLException ex) {
+            LOG.warn("Discarding a connection that could not be reset", ex);
+            closeQuietly(physical);
+        }
+        finally {
+            permits.release();
+        }
+    }
+    
+    private static void closeQuietly(Connection c) {
+        try {
+            c.close();
+        }
+        catch(SQLException ex) {
+            LOG.debug("Could not close connection", ex);
+        }
+    }
+    
+    /**
+     * Closes the idle connections. Connections in use are closed when they 
+     * are returned.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        IdleConnection i;
+        while((i = idle.pollFirst()) != null)
+            closeQuietly(i.connection);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("The pool has fixed credentials");
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return DriverManager.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return DriverManager.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if(iface.isInstance(this))
+            return iface.cast(this);
+        throw new SQLException("Not a wrapper for " + iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this);
+    }
+}
@@ -32,6 +32,12 @@ import org.skife.jdbi.v2.sqlobject.SqlUpdate;
  * @author Aprel
  */
 public interface Insert {
+    public static final String INSERT_FILE = "INSERT INTO files (filename, dirParentId, md5, xxh64, size, catalog, onOptical, onLocalDisc, localStoragePath) "
+            + "VALUES (:filename, :dirParentId, :md5, :xxh64, :size, :catalog, :onOptical, :onLocalDisc, :localStoragePath)";
+    public static final String INSERT_METADATA = "INSERT INTO metadata (fileId, title, subtitle, description, channel, originalBroadcast, originalRuntime, duration100Nanos, duration) "
+            + "VALUES (:fileId, :title, :subtitle, :description, :channel, :originalBroadcast, :originalRuntime, :duration100Nanos, :duration)";
+    public static final String CREATE_DIRECTORY = "INSERT INTO directories (dirName, dirParentId, fullPath) VALUES (:dir, :parent, :fullPath)";
+    
     /**
      * Don't use this; it is buggy and may not return IDs. It throws a 
      * java.lang.IllegalArgumentException: Unable generate keys for a not prepared batch
@@ -44,33 +50,45 @@ public interface Insert {
     @GetGeneratedKeys
     public int[] insertAllNoMetadata(@BindBean Iterator<FileBean> beans);
     
-    @SqlUpdate("INSERT INTO files (filename, dirParentId, md5, size, catalog, onOptical, onLocalDisc, localStoragePath) "
-            + "VALUES (:filename, :dirParentId, :md5, :size, :catalog, :onOptical, :onLocalDisc, :localStoragePath)")
+    /**
+     * To insert many files, use {@link BatchInsert#insertFiles}.
+     * @param bean
+     * @return the id generated by the database for the file
+     */
+    @SqlUpdate(INSERT_FILE)
     @GetGeneratedKeys
     public String insertFile(@BindBean FileBean bean);
     
-    @SqlUpdate("INSERT INTO metadata (fileId, title, subtitle, description, channel, originalBroadcast, originalRuntime, duration100Nanos, duration) "
-            + "VALUES (:fileId, :title, :subtitle, :description, :channel, :originalBroadcast, :originalRuntime, :duration100Nanos, :duration)")
+    @SqlUpdate(INSERT_METADATA)
     public void insertMetadata(@Bind("fileId") String fileId, @BindBean FileBean.MediaMetadata metadata);
     
-    @SqlUpdate("INSERT INTO directories (dirName) VALUES (:name)")
+    @SqlUpdate("INSERT INTO directories (dirName, fullPath) VALUES (:name, CONCAT(:name, '/'))")
     public void createCatalog(@Bind("name") String name);
     
     /**
-     * 
+     * To create many directories, use {@link BatchInsert#createDirectories}.
      * @param dirName
      * @param dirParentId
+     * @param fullPath the parent's full path followed by dirName and "/"
      * @return the id generated by the database for the newly-created directory
      */
-    @SqlUpdate("INSERT INTO directories (dirName, dirParentId) VALUES (:dir, :parent)")
+    @SqlUpdate(CREATE_DIRECTORY)
     @GetGeneratedKeys
-    public String createDirectory(@Bind("dir") String dirName, @Bind("parent") String dirParentId);
+    public String createDirectory(@Bind("dir") String dirName, @Bind("parent") String dirParentId, 
+            @Bind("fullPath") String fullPath);
     
     @SqlUpdate("INSERT INTO parts (partFilename, parentFileId, ordinal, totalInSet, md5, size, onOptical, md5Verified, catalog, discNumber, localStoragePath) "
             + "VALUES (:partFilename, :parentFileId, :ordinal, :totalInSet, :md5, :size, :onOptical, :md5Verified, :catalog, :discNumber, :localStoragePath)")
     @GetGeneratedKeys
     public String insertPart(@BindBean Part p);
     
+    /**
+     * Records the MD5 of a file that was inserted without one.
+     * @param file 
+     */
+    @SqlUpdate("UPDATE files SET md5= :md5 WHERE id= :id")
+    public void updateFileMd5(@BindBean FileBean file);
+    
     @SqlBatch("UPDATE files SET onOptical=1 WHERE id= :id")
     public void updateFilesOnOptical(@Bind("id") List<String> fileIds);
     
@@ -83,14 +101,32 @@ public interface Insert {
     @SqlUpdate("UPDATE files SET dirParentId= :parent WHERE id= :id")
     public void updateParentOfFile(@BindBean FileBean file, @Bind("parent") String newParentId);
     
-    @SqlUpdate("UPDATE directories SET dirParentId= :parent WHERE id= :id")
-    public void updateParentOfDirectory(@BindBean DirectoryBean dir, @Bind("parent") String newParentId);
+    /**
+     * Moves a directory and rewrites the full paths of its whole subtree.
+     * @param dir
+     * @param newParentId
+     * @param newPath the new full path of dir
+     */
+    @SqlUpdate("UPDATE directories SET dirParentId= CASE WHEN id= :id THEN :parent ELSE dirParentId END, "
+            + "fullPath= CONCAT(:newPath, SUBSTRING(fullPath, CHAR_LENGTH(:fullPath) + 1)) "
+            + "WHERE fullPath LIKE :subtreePattern ESCAPE '!'")
+    public void updateParentOfDirectory(@BindBean DirectoryBean dir, @Bind("parent") String newParentId, 
+            @Bind("newPath") String newPath);
     
     @SqlUpdate("UPDATE files SET filename= :rename WHERE id= :id")
     public void renameFile(@BindBean FileBean file, @Bind("rename") String newName);
     
-    @SqlUpdate("UPDATE directories SET dirName= :rename WHERE id= :id")
-    public void renameDirectory(@BindBean DirectoryBean dir, @Bind("rename") String newName);
+    /**
+     * Renames a directory and rewrites the full paths of its whole subtree.
+     * @param dir
+     * @param newName
+     * @param newPath the new full path of dir
+     */
+    @SqlUpdate("UPDATE directories SET dirName= CASE WHEN id= :id THEN :rename ELSE dirName END, "
+            + "fullPath= CONCAT(:newPath, SUBSTRING(fullPath, CHAR_LENGTH(:fullPath) + 1)) "
+            + "WHERE fullPath LIKE :subtreePattern ESCAPE '!'")
+    public void renameDirectory(@BindBean DirectoryBean dir, @Bind("rename") String newName, 
+            @Bind("newPath") String newPath);
     
     @SqlUpdate("UPDATE files SET onLocalDisc = 0, localStoragePath = NULL WHERE id= :id")
     public void updateNoLongerOnLocalStorage(@BindBean FileBean file);
@@ -60,11 +60,57 @@ public interface Query {
     @Mapper(DirectoryBeanMapper.class)
     public List<DirectoryBean> getAllDirectoriesInDirectory(@Bind("id") String directoryId);
     
+    /**
+     * 
+     * @param fullPath e.g. {@code catalog/dir/subdir/}
+     * @return the directory, or {@code null}
+     * @see DirectoryBean#getFullPath() 
+     */
+    @SqlQuery("SELECT * FROM directories WHERE fullPath= :path")
+    @Mapper(DirectoryBeanMapper.class)
+    public DirectoryBean getDirectoryByPath(@Bind("path") String fullPath);
+    
+    /**
+     * 
+     * @param dir
+     * @return dir and every directory below it, parents before children
+     */
+    @SqlQuery("SELECT * FROM directories WHERE fullPath LIKE :subtreePattern ESCAPE '!' "
+            + "ORDER BY CHAR_LENGTH(fullPath)")
+    @Mapper(DirectoryBeanMapper.class)
+    public List<DirectoryBean> getSubtreeDirectories(@BindBean DirectoryBean dir);
+    
     //FILE QUERIES
     @SqlQuery("SELECT * FROM files WHERE dirParentId= :id")
     @Mapper(FileBeanMapper.class)
     public List<FileBean> getAllFilesInDirectoryBesidesOtherDirectories(@Bind("id") String directoryId);
     
+    @SqlQuery("SELECT f.* FROM files f JOIN directories d ON f.dirParentId = d.id "
+            + "WHERE d.fullPath LIKE :subtreePattern ESCAPE '!'")
+    @Mapper(FileBeanMapper.class)
+    public List<FileBean> getAllFilesInSubtree(@BindBean DirectoryBean dir);
+    
+    /**
+     * 
+     * @param dir
+     * @return the total size of the files in dir and every directory below it
+     */
+    @SqlQuery("SELECT COALESCE(SUM(f.size), 0) FROM files f JOIN directories d "
+            + "ON f.dirParentId = d.id WHERE d.fullPath LIKE :subtreePattern ESCAPE '!'")
+    public long getSubtreeSize(@BindBean DirectoryBean dir);
+    
+    /**
+     * 
+     * @param dirPath full path of the directory, e.g. {@code catalog/dir/}
+     * @param filename
+     * @return the file, or {@code null}
+     */
+    @SqlQuery("SELECT f.* FROM files f JOIN directories d ON f.dirParentId = d.id "
+            + "WHERE d.fullPath= :dirPath AND f.filename= :filename")
+    @Mapper(FileBeanMapper.class)
+    public FileBean getFileByPath(@Bind("dirPath") String dirPath, 
+            @Bind("filename") String filename);
+    
     @SqlQuery("SELECT * FROM files WHERE md5= :md5")
     @Mapper(FileBeanMapper.class)
     public FileBean getByMd5(@Bind("md5") String md5sum);
@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel.media;
+
+import aprel.WtvMetadata;
+import aprel.db.beans.FileBean;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs ffprobe on media files with bounded concurrency and reads its JSON 
+ * output into {@link FileBean.MediaMetadata}.
+ *
+ * At most {@code concurrency} ffprobe processes run at once. Each process 
+ * has a time limit after which it is killed; its output and error streams are 
+ * drained while it runs so that it can never block on a full pipe. A file that 
+ * ffprobe fails on, or that times out, is logged and yields no metadata, as 
+ * before.
+ *
+ * Thread-safe.
+ * @author Aprel
+ */
+public class FfprobeExecutor implements AutoCloseable {
+    
+    public static final String DEFAULT_COMMAND = "ffprobe";
+    public static final long DEFAULT_TIMEOUT_SECONDS = 60;
+    
+    private final String command;
+    private final long timeout;
+    private final TimeUnit unit;
+    private final ExecutorService probes;
+    private final ExecutorService drainers;
+    
+    private static final Logger LOG = LoggerFactory.getLogger(FfprobeExecutor.class);
+    
+    /**
+     * 
+     * @param concurrency maximum number of ffprobe processes running at once
+     * @param timeout time after which a process is killed
+     * @param unit 
+     */
+    public FfprobeExecutor(int concurrency, long timeout, TimeUnit unit) {
+        this(DEFAULT_COMMAND, concurrency, timeout, unit);
+    }
+    
+    /**
+     * 
+     * @param command ffprobe executable
+     * @param concurrency maximum number of ffprobe processes running at once
+     * @param timeout time after which a process is killed
+     * @param unit 
+     */
+    public FfprobeExecutor(String command, int concurrency, long timeout, TimeUnit unit) {
+        if(concurrency < 1)
+            throw new IllegalArgumentException("Concurrency must be positive: " + concurrency);
+        if(timeout < 1)
+            throw new IllegalArgumentException("Timeout must be positive: " + timeout);
+        this.command = command;
+        this.timeout = timeout;
+        this.unit = unit;
+        probes = Executors.newFixedThreadPool(concurrency, new ThreadFactoryBuilder()
+                .setDaemon(true).setNameFormat("ffprobe-%d").build());
+        drainers = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setDaemon(true).setNameFormat("ffprobe-drain-%d").build());
+    }
+    
+    /**
+     * Starts probing a file. The caller can do other work, such as hashing the 
+     * file, while ffprobe runs.
+     * @param file
+     * @return the metadata, or {@code null} if ffprobe failed or reported 
+     * nothing relevant
+     */
+    public Future<FileBean.MediaMetadata> probe(Path file) {
+        return probes.submit(() -> run(file));
+    }
+    
+    /**
+     * Waits for the result of {@link #probe}.
+     * @param result
+     * @return the metadata, or {@code null}
+     * @throws IOException if ffprobe could not be started
+     */
+    public static FileBean.MediaMetadata get(Future<FileBean.MediaMetadata> result) 
+            throws IOException {
+        try {
+            return result.get();
+        }
+        catch(InterruptedException ex) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for ffprobe", ex);
+        }
+        catch(ExecutionException ex) {
+            if(ex.getCause() instanceof IOException)
+                throw (IOException) ex.getCause();
+            throw new IOException(ex.getCause());
+        }
+    }
+    
+    private FileBean.MediaMetadata run(Path file) throws IOException, InterruptedException {
+        final ProcessBuilder pb = new ProcessBuilder(command, "-v", "error", 
+                "-print_format", "json", "-show_format", "-show_programs", 
+                file.toString());
+        final Process p = pb.start();
+        p.getOutputStream().close();
+        final Future<String> stdout = drainers.submit(() -> readAll(p.getInputStream()));
+        final Future<String> stderr = drainers.submit(() -> readAll(p.getErrorStream()));
+        try {
+            if(!p.waitFor(timeout, unit)) {
+                LOG.error("ffprobe timed out after {} {} for file {}", timeout, 
+                        unit.toString().toLowerCase(), file);
+                return null;
+            }
+            if(p.exitValue() != 0) {
+                LOG.error("Error calling ffprobe for file " + file + ": " 
+                        + drained(stderr).trim());
+                return null;
+            }
+            return parse(drained(stdout), file);
+        }
+        finally {
+            //no-op if the process has exited; closes the pipes being drained
+            p.destroyForcibly();
+        }
+    }
+    
+    private static String readAll(InputStream in) throws IOException {
+        try(InputStream stream = in) {
+            return new String(ByteStreams.toByteArray(stream), StandardCharsets.UTF_8);
+        }
+    }
+    
+    private static String drained(Future<String> stream) 
+            throws IOException, InterruptedException {
+        try {
+            return stream.get();
+        }
+        catch(ExecutionException ex) {
+            throw new IOException("Could not read ffprobe output", ex.getCause());
+        }
+    }
+    
+    /**
+     * Reads the metadata out of ffprobe's JSON output. Tags of the container 
+     * take precedence over tags of its programs.
+     * @param json
+     * @param file for log messages
+     * @return the metadata, or {@code null} if there is nothing relevant
+     */
+    static FileBean.MediaMetadata parse(String json, Path file) {
+        final Map<String,Object> root;
+        try {
+            root = asMap(Json.parse(json));
+        }
+        catch(IllegalArgumentException ex) {
+            LOG.error("Could not parse ffprobe output for file " + file, ex);
+            return null;
+        }
+        final Map<String,Object> format = asMap(root.get("format"));
+        final List<Map<String,Object>> tagSets = new ArrayList<>();
+        tagSets.add(asMap(format.get("tags")));
+        for(Object program : asList(root.get("programs")))
+            tagSets.add(asMap(asMap(program).get("tags")));
+        
+        FileBean.MediaMetadata media = null;
+        for(WtvMetadata w : WtvMetadata.values()) {
+            for(Map<String,Object> tags : tagSets) {
+                final Object value = tags.get(w.getWtvMetadataKey());
+                if(value instanceof String) {
+                    if(media == null)
+                        media = new FileBean.MediaMetadata();
+                    w.applyTo(media, ((String) value).trim());
+                    break;
+                }
+            }
+        }
+        final Object duration = format.get("duration");
+        if(duration instanceof String) {
+            try {
+                final String readable = WtvMetadata.formatDuration((String) duration);
+                if(media == null)
+                    media = new FileBean.MediaMetadata();
+                media.setDuration(readable);
+            }
+            catch(NumberFormatException ex) {
+                LOG.warn("Unexpected duration {} for file {}", duration, file);
+            }
+        }
+        return media;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static Map<String,Object> asMap(Object o) {
+        return o instanceof Map ? (Map<String,Object>) o : Collections.emptyMap();
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static List<Object> asList(Object o) {
+        return o instanceof List ? (List<Object>) o : Collections.emptyList();
+    }
+    
+    /**
+     * Kills any ffprobe processes still running.
+     */
+    @Override
+    public void close() {
+        probes.shutdownNow();
+        drainers.shutdownNow();
+    }
+}
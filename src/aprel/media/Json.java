@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel.media;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal JSON parser for the output of {@code ffprobe -print_format json}. 
+ * Objects become {@code Map<String,Object>}, arrays {@code List<Object>}, 
+ * strings and numbers {@code String} (numbers keep their textual form), 
+ * booleans {@code Boolean} and null {@code null}.
+ * @author Aprel
+ */
+final class Json {
+    private final String text;
+    private int pos = 0;
+    
+    private Json(String text) {
+        this.text = text;
+    }
+    
+    /**
+     * 
+     * @param text
+     * @return the parsed value
+     * @throws IllegalArgumentException if the text is not valid JSON
+     */
+    static Object parse(String text) {
+        final Json json = new Json(text);
+        final Object value = json.value();
+        json.skipWhitespace();
+        if(json.pos != text.length())
+            throw json.error("Trailing characters");
+        return value;
+    }
+    
+    private Object value() {
+        skipWhitespace();
+        if(pos >= text.length())
+            throw error("Unexpected end of input");
+        final char c = text.charAt(pos);
+        switch(c) {
+            case '{': return object();
+            case '[': return array();
+            case '"': return string();
+            case 't': return literal("true", Boolean.TRUE);
+            case 'f': return literal("false", Boolean.FALSE);
+            case 'n': return literal("null", null);
+            default:
+                if(c == '-' || (c >= '0' && c <= '9'))
+                    return number();
+                throw error("Unexpected character '" + c + "'");
+        }
+    }
+    
+    private Map<String,Object> object() {
+        final Map<String,Object> map = new LinkedHashMap<>();
+        pos++; // {
+        skipWhitespace();
+        if(peek() == '}') {
+            pos++;
+            return map;
+        }
+        while(true) {
+            skipWhitespace();
+            if(peek() != '"')
+                throw error("Expected object key");
+            final String key = string();
+            skipWhitespace();
+            expect(':');
+            map.put(key, value());
+            skipWhitespace();
+            if(peek() == ',') {
+                pos++;
+                continue;
+            }
+            expect('}');
+            return map;
+        }
+    }
+    
+    private List<Object> array() {
+        final List<Object> list = new ArrayList<>();
+        pos++; // [
+        skipWhitespace();
+        if(peek() == ']') {
+            pos++;
+            return list;
+        }
+        while(true) {
+            list.add(value());
+            skipWhitespace();
+            if(peek() == ',') {
+                pos++;
+                continue;
+            }
+            expect(']');
+            return list;
+        }
+    }
+    
+    private String string() {
+        pos++; // opening quote
+        final StringBuilder builder = new StringBuilder();
+        while(true) {
+            if(pos >= text.length())
+                throw error("Unterminated string");
+            final char c = text.charAt(pos++);
+            if(c == '"')
+                return builder.toString();
+            if(c != '\\') {
+                builder.append(c);
+                continue;
+            }
+            if(pos >= text.length())
+                throw error("Unterminated escape");
+            final char escaped = text.charAt(pos++);
+            switch(escaped) {
+                case '"': builder.append('"'); break;
+                case '\\': builder.append('\\'); break;
+                case '/': builder.append('/'); break;
+                case 'b': builder.append('\b'); break;
+                case 'f': builder.append('\f'); break;
+                case 'n': builder.append('\n'); break;
+                case 'r': builder.append('\r'); break;
+                case 't': builder.append('\t'); break;
+                case 'u':
+                    if(pos + 4 > text.length())
+                        throw error("Truncated unicode escape");
+                    try {
+                        builder.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                    }
+                    catch(NumberFormatException ex) {
+                        throw error("Illegal unicode escape");
+                    }
+                    pos += 4;
+                    break;
+                default: throw error("Illegal escape '\\" + escaped + "'");
+            }
+        }
+    }
+    
+    private String number() {
+        final int start = pos;
+        while(pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0)
+            pos++;
+        return text.substring(start, pos);
+    }
+    
+    private Object literal(String word, Object value) {
+        if(!text.startsWith(word, pos))
+            throw error("Expected " + word);
+        pos += word.length();
+        return value;
+    }
+    
+    private char peek() {
+        if(pos >= text.length())
+            throw error("Unexpected end of input");
+        return text.charAt(pos);
+    }
+    
+    private void expect(char c) {
+        if(peek() != c)
+            throw error("Expected '" + c + "'");
+        pos++;
+    }
+    
+    private void skipWhitespace() {
+        while(pos < text.length() && Character.isWhitespace(text.charAt(pos)))
+            pos++;
+    }
+    
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at position " + pos);
+    }
+}
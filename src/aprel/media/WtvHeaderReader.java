@@ -0,0 +1,385 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel.media;
+
+import aprel.WtvMetadata;
+import aprel.db.beans.FileBean;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the recording metadata of a Windows Recorded TV (.wtv) file without 
+ * starting an ffprobe process.
+ *
+ * A WTV file is a small file system: its header points to a root directory 
+ * sector, whose entries point to the sectors of named internal files. The 
+ * attributes listed in {@link WtvMetadata} are stored in the internal file 
+ * {@value #LEGACY_ATTRIB} as a sequence of (guid, type, length, key, value) 
+ * entries, which are read here with a few positioned reads of the header 
+ * region. The layout follows libavformat's wtvdec, so the values match what 
+ * ffprobe reports.
+ *
+ * Thread-safe.
+ * @author Aprel
+ */
+public final class WtvHeaderReader {
+    
+    private static final byte[] WTV_GUID = guid(0xB7, 0xD8, 0x00, 0x20, 0x37, 0x49, 
+            0xDA, 0x11, 0xA6, 0x4E, 0x00, 0x07, 0xE9, 0x5E, 0xAD, 0x8D);
+    private static final byte[] DIR_ENTRY_GUID = guid(0x92, 0xB7, 0x74, 0x91, 0x59, 0x70, 
+            0x70, 0x44, 0x88, 0xDF, 0x06, 0x3B, 0x82, 0xCC, 0x21, 0x3D);
+    private static final byte[] METADATA_GUID = guid(0x5A, 0xFE, 0xD7, 0x6D, 0xC8, 0x1D, 
+            0x8F, 0x4A, 0x99, 0x22, 0xFA, 0xB1, 0x1C, 0x38, 0x14, 0x53);
+    static final String LEGACY_ATTRIB = "table.0.entries.legacy_attrib";
+    /**
+     * Recorded by Windows Media Center; used for the channel when 
+     * {@code service_name} is absent.
+     */
+    static final String STATION_NAME = "WM/MediaStationName";
+    
+    static final int SECTOR_BITS = 12;
+    private static final int BIG_SECTOR_BITS = 18;
+    static final int SECTOR_SIZE = 1 << SECTOR_BITS;
+    private static final int HEADER_SIZE = 0x40;
+    private static final int ROOT_SIZE_OFFSET = 0x30;
+    private static final int ROOT_SECTOR_OFFSET = 0x38;
+    private static final int DIR_ENTRY_MIN_SIZE = 48;
+    private static final int ATTRIBUTE_HEADER_SIZE = 24;
+    private static final int MAX_KEY_BYTES = 1024;
+    /**
+     * Longest attribute value that is read; longer ones (thumbnails) are 
+     * skipped.
+     */
+    private static final int MAX_VALUE_BYTES = 64 * 1024;
+    private static final long FILETIME_TICKS_PER_SECOND = 10_000_000L;
+    private static final long FILETIME_EPOCH_OFFSET_SECONDS = 11_644_473_600L;
+    private static final DateTimeFormatter DATETIME = DateTimeFormatter
+            .ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneOffset.UTC);
+    
+    private static final Logger LOG = LoggerFactory.getLogger(WtvHeaderReader.class);
+    
+    private WtvHeaderReader() {
+    }
+    
+    /**
+     * 
+     * @param file
+     * @return the metadata, or {@code null} if the file is not a WTV file this 
+     * reader understands, is truncated or corrupt, or carries none of the 
+     * attributes, in which case ffprobe should be used instead
+     * @throws IOException if the file cannot be opened
+     */
+    public static FileBean.MediaMetadata read(Path file) throws IOException {
+        try(FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            final SectorFile attributes;
+            try {
+                attributes = openLegacyAttributes(ch);
+            }
+            catch(IOException ex) {
+                //e.g. a recording still in progress
+                LOG.warn("Cannot read the header of {}: {}", file, ex.toString());
+                return null;
+            }
+            if(attributes == null) {
+                LOG.debug("No {} in {}", LEGACY_ATTRIB, file);
+                return null;
+            }
+            return readAttributes(attributes, file);
+        }
+    }
+    
+    private static SectorFile openLegacyAttributes(FileChannel ch) throws IOException {
+        if(ch.size() < HEADER_SIZE)
+            return null;
+        final ByteBuffer header = readAt(ch, 0, HEADER_SIZE);
+        if(!guidAt(header, 0, WTV_GUID))
+            return null;
+        final int rootSize = header.getInt(ROOT_SIZE_OFFSET);
+        final long rootSector = Integer.toUnsignedLong(header.getInt(ROOT_SECTOR_OFFSET));
+        if(rootSize < DIR_ENTRY_MIN_SIZE || rootSize > SECTOR_SIZE)
+            return null;
+        final ByteBuffer root = readAt(ch, rootSector << SECTOR_BITS, rootSize);
+        
+        int pos = 0;
+        while(pos + DIR_ENTRY_MIN_SIZE <= rootSize) {
+            if(!guidAt(root, pos, DIR_ENTRY_GUID))
+                return null;
+            final int dirLength = Short.toUnsignedInt(root.getShort(pos + 16));
+            final long fileLength = root.getLong(pos + 24);
+            final long nameSize = 2 * Integer.toUnsignedLong(root.getInt(pos + 32));
+            if(DIR_ENTRY_MIN_SIZE + nameSize > rootSize - pos)
+                return null;
+            final String name = utf16(root, pos + 40, (int) nameSize);
+            if(name.equals(LEGACY_ATTRIB)) {
+                final long firstSector = Integer.toUnsignedLong(
+                        root.getInt(pos + 40 + (int) nameSize));
+                final int depth = root.getInt(pos + 44 + (int) nameSize);
+                return SectorFile.open(ch, firstSector, fileLength, depth);
+            }
+            if(dirLength == 0)
+                return null;
+            pos += dirLength;
+        }
+        return null;
+    }
+    
+    private static FileBean.MediaMetadata readAttributes(SectorFile in, Path file) 
+            throws IOException {
+        FileBean.MediaMetadata media = null;
+        String stationName = null;
+        try {
+            while(in.remaining() >= ATTRIBUTE_HEADER_SIZE) {
+                final ByteBuffer head = in.read(ATTRIBUTE_HEADER_SIZE);
+                final int type = head.getInt(16);
+                final long length = Integer.toUnsignedLong(head.getInt(20));
+                if(length == 0)
+                    break;
+                if(!guidAt(head, 0, METADATA_GUID)) {
+                    LOG.debug("Unsupported attribute entry in {}", file);
+                    break;
+                }
+                final String key = in.readString(MAX_KEY_BYTES);
+                final WtvMetadata w = WtvMetadata.getFromWtvMetadataKey(key);
+                if((w == null && !key.equals(STATION_NAME)) || length > MAX_VALUE_BYTES) {
+                    in.skip(length);
+                    continue;
+                }
+                final String value = decode(key, type, in.read((int) length));
+                if(value == null)
+                    continue;
+                if(w == null) {
+                    stationName = value;
+                    continue;
+                }
+                if(media == null)
+                    media = new FileBean.MediaMetadata();
+                w.applyTo(media, value);
+                if(w == WtvMetadata.DURATION) {
+                    media.setDuration(WtvMetadata.formatDuration(new BigDecimal(value)
+                            .movePointLeft(7).toPlainString()));
+                }
+            }
+        }
+        catch(EOFException ex) {
+            LOG.debug("Attribute table of {} is truncated", file);
+        }
+        catch(IOException ex) {
+            LOG.warn("Cannot read the attribute table of {}: {}", file, ex.toString());
+        }
+        if(stationName != null) {
+            if(media == null)
+                media = new FileBean.MediaMetadata();
+            if(media.getChannel() == null)
+                media.setChannel(stationName);
+        }
+        return media;
+    }
+    
+    /**
+     * Formats an attribute value the way ffprobe does.
+     * @return the value, or {@code null} if the type is not supported or the 
+     * value is empty
+     */
+    private static String decode(String key, int type, ByteBuffer value) {
+        final int length = value.remaining();
+        switch(type) {
+            case 0: 
+                return length == 4 ? Integer.toUnsignedString(value.getInt(0)) : null;
+            case 1: {
+                final String s = utf16(value, 0, length);
+                return s.isEmpty() ? null : s;
+            }
+            case 3: 
+                return length == 4 ? Boolean.toString(value.getInt(0) != 0) : null;
+            case 4: {
+                if(length != 8)
+                    return null;
+                final long num = value.getLong(0);
+                if(key.equals(WtvMetadata.ORIGINAL_BROADCAST_DATETIME.getWtvMetadataKey()))
+                    return DATETIME.format(Instant.ofEpochSecond(
+                            num / FILETIME_TICKS_PER_SECOND - FILETIME_EPOCH_OFFSET_SECONDS));
+                return Long.toString(num);
+            }
+            case 5: 
+                return length == 2 ? Integer.toString(Short.toUnsignedInt(value.getShort(0))) : null;
+            default: 
+                return null;
+        }
+    }
+    
+    /**
+     * An internal file: a list of sectors of the WTV file.
+     */
+    private static class SectorFile {
+        private final FileChannel ch;
+        private final long[] sectors;
+        private final int sectorBits;
+        private final long length;
+        private long position = 0;
+        
+        private SectorFile(FileChannel ch, long[] sectors, int sectorBits, long length) {
+            this.ch = ch;
+            this.sectors = sectors;
+            this.sectorBits = sectorBits;
+            this.length = length;
+        }
+        
+        static SectorFile open(FileChannel ch, long firstSector, long length, int depth) 
+                throws IOException {
+            final long[] sectors;
+            switch(depth) {
+                case 0: 
+                    sectors = new long[] {firstSector};
+                    break;
+                case 1:
+                    sectors = readSectorList(ch, firstSector);
+                    break;
+                case 2: {
+                    final List<long[]> lists = new ArrayList<>();
+                    int total = 0;
+                    for(long sector : readSectorList(ch, firstSector)) {
+                        final long[] list = readSectorList(ch, sector);
+                        lists.add(list);
+                        total += list.length;
+                    }
+                    sectors = new long[total];
+                    int i = 0;
+                    for(long[] list : lists) {
+                        System.arraycopy(list, 0, sectors, i, list.length);
+                        i += list.length;
+                    }
+                    break;
+                }
+                default:
+                    return null;
+            }
+            //the top bit of the length selects the sector size of the file
+            final int bits = (length & Long.MIN_VALUE) != 0 ? SECTOR_BITS : BIG_SECTOR_BITS;
+            return new SectorFile(ch, sectors, bits, length & Long.MAX_VALUE);
+        }
+        
+        /**
+         * 
+         * @return the non-zero sector numbers stored in a sector
+         */
+        private static long[] readSectorList(FileChannel ch, long sector) throws IOException {
+            final ByteBuffer buf = readAt(ch, sector << SECTOR_BITS, SECTOR_SIZE);
+            final long[] list = new long[SECTOR_SIZE / 4];
+            int n = 0;
+            while(buf.hasRemaining()) {
+                final long s = Integer.toUnsignedLong(buf.getInt());
+                if(s != 0)
+                    list[n++] = s;
+            }
+            return Arrays.copyOf(list, n);
+        }
+        
+        long remaining() {
+            return Math.min(length, (long) sectors.length << sectorBits) - position;
+        }
+        
+        ByteBuffer read(int n) throws IOException {
+            if(n > remaining())
+                throw new EOFException();
+            final ByteBuffer buf = ByteBuffer.allocate(n).order(ByteOrder.LITTLE_ENDIAN);
+            while(buf.hasRemaining()) {
+                final int index = (int) (position >>> sectorBits);
+                final long inSector = position & ((1L << sectorBits) - 1);
+                final int chunk = (int) Math.min(buf.remaining(), (1L << sectorBits) - inSector);
+                final ByteBuffer slice = readAt(ch, 
+                        (sectors[index] << SECTOR_BITS) + inSector, chunk);
+                buf.put(slice);
+                position += chunk;
+            }
+            buf.flip();
+            return buf;
+        }
+        
+        void skip(long n) throws EOFException {
+            if(n > remaining())
+                throw new EOFException();
+            position += n;
+        }
+        
+        /**
+         * Reads a null-terminated UTF-16LE string, including the terminator.
+         */
+        String readString(int maxBytes) throws IOException {
+            final StringBuilder builder = new StringBuilder();
+            for(int i = 0; i < maxBytes; i += 2) {
+                final char c = read(2).getChar();
+                if(c == 0)
+                    return builder.toString();
+                builder.append(c);
+            }
+            throw new EOFException("Unterminated attribute name");
+        }
+    }
+    
+    private static ByteBuffer readAt(FileChannel ch, long position, int length) 
+            throws IOException {
+        final ByteBuffer buf = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while(buf.hasRemaining()) {
+            if(ch.read(buf, position + buf.position()) < 0)
+                throw new EOFException("Reached end of file at " + (position + buf.position()));
+        }
+        buf.flip();
+        return buf;
+    }
+    
+    /**
+     * Decodes UTF-16LE up to the first null character.
+     */
+    private static String utf16(ByteBuffer buf, int offset, int length) {
+        final byte[] bytes = new byte[length];
+        for(int i = 0; i < length; i++)
+            bytes[i] = buf.get(offset + i);
+        final String s = new String(bytes, StandardCharsets.UTF_16LE);
+        final int nul = s.indexOf('\0');
+        return nul < 0 ? s : s.substring(0, nul);
+    }
+    
+    private static boolean guidAt(ByteBuffer buf, int offset, byte[] guid) {
+        for(int i = 0; i < guid.length; i++) {
+            if(buf.get(offset + i) != guid[i])
+                return false;
+        }
+        return true;
+    }
+    
+    private static byte[] guid(int... bytes) {
+        final byte[] guid = new byte[bytes.length];
+        for(int i = 0; i < bytes.length; i++)
+            guid[i] = (byte) bytes[i];
+        return guid;
+    }
+}
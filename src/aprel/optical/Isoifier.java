@@ -18,6 +18,7 @@ package aprel.optical;
 
 import aprel.ArchiveDatabase;
 import aprel.db.beans.FileBean;
+import aprel.hash.HashingEngine;
 import aprel.jdbi.Insert;
 import java.io.BufferedWriter;
 import java.io.File;
@@ -29,6 +30,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -68,6 +70,7 @@ public class Isoifier {
     private static final String OPTION_MAX_OPTICAL = "max";
     private static final String OPTION_LEFTOVER_XML_FILE = "l";
     private static final String OPTION_NO_LEFTOVERS_OUTSTANDING = "no-leftovers-outstanding";
+    private static final String OPTION_VERIFY_STAGING = "verify-staging";
     
     public static void main(String[] args) throws Exception {
         Options options = new Options();
@@ -95,6 +98,10 @@ public class Isoifier {
                         + " written to optical. This can only occur when a catalog"
                         + " has no discs yet, or with extremely intelligent "
                         + "packing algorithms.").numberOfArgs(0).build());
+        options.addOption(Option.builder().longOpt(OPTION_VERIFY_STAGING)
+                .desc("read every part back after copying it to the temporary "
+                        + "directory and compare its XXH64 checksum with that of "
+                        + "the source bytes").numberOfArgs(0).build());
         CommandLineParser parser = new DefaultParser();
         HelpFormatter formatter = new HelpFormatter();
         CommandLine cmd;
@@ -112,6 +119,7 @@ public class Isoifier {
                 : Integer.MAX_VALUE;
         final boolean createFirstDiscInCatalog = cmd.hasOption(
                 OPTION_CREATE_FIRST_DISC_IN_CATALOG);
+        final boolean verifyStaging = cmd.hasOption(OPTION_VERIFY_STAGING);
         
         String udfDir = cmd.getOptionValue(OPTION_ISO_OUTPUT);
         if(!new File(udfDir).isDirectory()) {
@@ -238,6 +246,8 @@ public class Isoifier {
             }
         }
         
+        //files inserted without an MD5 are hashed while their parts are staged
+        final PendingMd5s pendingMd5s = new PendingMd5s(fileToParts.keySet());
         final String partsDir = temporaryDirectory.toString();
         final Insert ins = db.getInsertObject();
         final String catalog = opticals.stream().findAny().get().getParts()
@@ -267,7 +277,7 @@ public class Isoifier {
         for(Optical opt : opticals) {
             if(opt instanceof PrivilegedOptical)
                 ((PrivilegedOptical)opt).becomeNormal(); //now is the time!
-            opt.writePartsToDir(partsDir);
+            opt.writePartsToDir(partsDir, verifyStaging, pendingMd5s);
             //at this point, parts should have all their database fields set
             //commit to database
             final BufferedWriter md5FileWriter = new BufferedWriter(new OutputStreamWriter(
@@ -316,10 +326,15 @@ public class Isoifier {
             System.out.println("Successfully saved to " + udfFilename + ".iso");
             ins.updateFilesOnOptical(filesAddedToOptical.stream().map(FileBean::getId)
                     .collect(Collectors.toList()));
+            recordMd5s(db, pendingMd5s.drainCompleted());
             Arrays.asList(temporaryDirectory.toFile().listFiles()).forEach(f -> f.delete());
             
             discNumber++;
         }
+        //files whose last parts are left over, or not staged at all, are 
+        //hashed now; their parts are staged by a later run
+        pendingMd5s.finishRemaining(HashingEngine.getDefault());
+        recordMd5s(db, pendingMd5s.drainCompleted());
         //now, handle the leftovers
         new File(leftoverXmlFile).delete();
         if(leftoverOptical != null) {
@@ -344,4 +359,19 @@ public class Isoifier {
         
         db.close();
     }
+    
+    /**
+     * Writes back the MD5 of files that were inserted without one, and reports 
+     * those that turn out to duplicate a file already in the database.
+     */
+    private static void recordMd5s(ArchiveDatabase db, Collection<FileBean> files) {
+        for(FileBean file : files) {
+            final FileBean duplicate = db.getQueryObject().getByMd5(file.getMd5());
+            if(duplicate != null && !duplicate.getId().equals(file.getId()))
+                System.out.println("File " + file.getId() + " (" + file.getFilename() 
+                        + ") has the same MD5 as file " + duplicate.getId() 
+                        + " (" + duplicate.getFilename() + ")");
+            db.getInsertObject().updateFileMd5(file);
+        }
+    }
 }
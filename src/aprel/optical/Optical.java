@@ -16,15 +16,13 @@
  */
 package aprel.optical;
 
-import com.google.common.hash.HashFunction;
-import com.google.common.hash.Hashing;
-import com.google.common.hash.HashingInputStream;
-import com.google.common.io.ByteSink;
-import com.google.common.io.ByteSource;
-import com.google.common.io.Files;
+import aprel.hash.Digests;
+import aprel.hash.HashingEngine;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -40,8 +38,6 @@ public class Optical {
     public static final long MAX_BYTES = 25_025_314_816L; //Bluray
     public static final int OVERHEAD = 2 * 1000 * 1000;
     public static final long PAYLOAD_SPACE = MAX_BYTES - OVERHEAD;
-    @SuppressWarnings("deprecation")
-    private static final HashFunction MD5 = Hashing.md5();
     
     public Optical() {
         parts = new ArrayList<>();
@@ -65,27 +61,50 @@ public class Optical {
         return new ArrayList<>(parts);
     }
     
-    public void writePartsToDir(String dir) throws IOException {
+    /**
+     * Copies every part into a directory, computing the MD5 of parts that do 
+     * not have one yet.
+     * @param dir
+     * @param verify whether to read each copy back and compare its XXH64 with 
+     * that of the bytes that were copied
+     * @throws IOException if copying fails or a copy does not match
+     */
+    public void writePartsToDir(String dir, boolean verify) throws IOException {
+        writePartsToDir(dir, verify, null);
+    }
+    
+    /**
+     * Copies every part into a directory, computing the MD5 of parts that do 
+     * not have one yet, and of files whose MD5 is pending.
+     * @param dir
+     * @param verify whether to read each copy back and compare its XXH64 with 
+     * that of the bytes that were copied
+     * @param pending files whose MD5 is computed from their parts, or 
+     * {@code null}
+     * @throws IOException if copying fails or a copy does not match
+     */
+    void writePartsToDir(String dir, boolean verify, PendingMd5s pending) 
+            throws IOException {
         if(!new File(dir).isDirectory())
             throw new IllegalArgumentException("Not a directory: " + dir);
         dir += dir.endsWith("/") ? "" : "/";
         
+        final HashingEngine hasher = HashingEngine.getDefault();
         for(Part p : parts) {
-            final ByteSource offsetView = Files.asByteSource(new File(p.getParent()
-                    .getLocalStoragePath())).slice(p.getOffset(), p.getSize());
-            InputStream fromStream;
-            if(p.getMd5() == null)
-                fromStream = new HashingInputStream(MD5, offsetView.openStream());
-            else
-                fromStream = offsetView.openStream();
-            final ByteSink outSink = Files.asByteSink(new File(dir + p.getPartFilename()));
-            final long written = outSink.writeFrom(fromStream);
-            if(written != p.getSize())
-                throw new IOException("Did not write all bytes from source to destination: "
-                        + "Wrote " + written + " bytes out of " + p.getSize());
+            final Path destination = Paths.get(dir + p.getPartFilename());
+            //the engine throws if the source ends before all bytes are copied
+            final Digests digests = pending != null 
+                    ? pending.copy(hasher, p, destination)
+                    : hasher.copyWithDigests(Paths.get(p.getParent().getLocalStoragePath()),
+                            p.getOffset(), p.getSize(), destination, p.getMd5() == null);
             if(p.getMd5() == null)
-                p.setMd5(((HashingInputStream)fromStream).hash().toString());
-            fromStream.close();
+                p.setMd5(digests.getMd5());
+            if(verify) {
+                final String copied = hasher.xxh64(destination, 0, p.getSize());
+                if(!copied.equals(digests.getXxh64()) || Files.size(destination) != p.getSize())
+                    throw new IOException("Staged copy " + destination 
+                            + " does not match " + p.getParent().getLocalStoragePath());
+            }
         }
     }
 
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel.optical;
+
+import aprel.db.beans.FileBean;
+import aprel.hash.Digests;
+import aprel.hash.HashingEngine;
+import aprel.hash.RunningMd5;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * MD5 checksums of files that were inserted without one, computed while their 
+ * parts are staged so that each file is read once on its way to optical.
+ *
+ * Parts are normally staged in order, and each part extends the file's 
+ * running MD5. If a part is staged before the bytes preceding it, those 
+ * bytes are read first. The tails of files whose last parts are not staged 
+ * in this run, e.g. because they became leftovers, are read by 
+ * {@link #finishRemaining}.
+ *
+ * Not thread-safe.
+ * @author Aprel
+ */
+class PendingMd5s {
+    private final Map<FileBean,RunningMd5> running = new IdentityHashMap<>();
+    private final List<FileBean> completed = new ArrayList<>();
+    
+    private static final Logger LOG = LoggerFactory.getLogger(PendingMd5s.class);
+    
+    /**
+     * 
+     * @param files files to stage; those without an MD5 are hashed
+     */
+    PendingMd5s(Collection<FileBean> files) {
+        files.stream().filter(f -> f.getMd5() == null)
+                .forEach(f -> running.put(f, new RunningMd5()));
+    }
+    
+    /**
+     * Copies a part and computes its MD5 if it does not have one yet. If the 
+     * MD5 of its file is pending, the part's bytes are added to it.
+     * @param hasher
+     * @param p
+     * @param destination
+     * @return digests of the part
+     * @throws IOException 
+     */
+    Digests copy(HashingEngine hasher, Part p, Path destination) throws IOException {
+        final FileBean file = p.getParent();
+        final Path source = Paths.get(file.getLocalStoragePath());
+        final RunningMd5 whole = running.get(file);
+        if(whole == null) {
+            return hasher.copyWithDigests(source, p.getOffset(), p.getSize(), 
+                    destination, p.getMd5() == null);
+        }
+        if(p.getOffset() == 0 && p.getSize() == file.getSize()) {
+            //the part is the whole file
+            final Digests digests = hasher.copyWithDigests(source, 0, p.getSize(), 
+                    destination, true);
+            complete(file, digests.getMd5());
+            return digests;
+        }
+        if(whole.getLength() < p.getOffset()) {
+            LOG.debug("Reading {} bytes of {} preceding part {}", 
+                    p.getOffset() - whole.getLength(), source, p.getOrdinal());
+            hasher.update(whole, source, p.getOffset());
+        }
+        final Digests digests = whole.getLength() == p.getOffset()
+                ? hasher.copyWithDigests(source, p.getOffset(), p.getSize(), 
+                        destination, p.getMd5() == null, whole)
+                : hasher.copyWithDigests(source, p.getOffset(), p.getSize(), 
+                        destination, p.getMd5() == null);
+        if(whole.getLength() == file.getSize())
+            complete(file, whole.finish());
+        return digests;
+    }
+    
+    /**
+     * Reads the rest of every file whose MD5 is still pending.
+     * @param hasher
+     * @throws IOException 
+     */
+    void finishRemaining(HashingEngine hasher) throws IOException {
+        for(Map.Entry<FileBean,RunningMd5> entry : new ArrayList<>(running.entrySet())) {
+            final FileBean file = entry.getKey();
+            LOG.debug("Reading the remaining {} bytes of {}", 
+                    file.getSize() - entry.getValue().getLength(), file.getLocalStoragePath());
+            hasher.update(entry.getValue(), Paths.get(file.getLocalStoragePath()), 
+                    file.getSize());
+            complete(file, entry.getValue().finish());
+        }
+    }
+    
+    private void complete(FileBean file, String md5) {
+        file.setMd5(md5);
+        running.remove(file);
+        completed.add(file);
+    }
+    
+    /**
+     * 
+     * @return files whose MD5 has been computed since the last call
+     */
+    List<FileBean> drainCompleted() {
+        final List<FileBean> drained = new ArrayList<>(completed);
+        completed.clear();
+        return drained;
+    }
+}
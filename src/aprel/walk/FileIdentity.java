@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel.walk;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The device a file is stored on, its inode number, which is a rough proxy 
+ * for its physical location on that device, and its number of hard links.
+ *
+ * On filesystems without the "unix" attribute view, the device is the 
+ * file's {@code FileStore}, the inode is unknown (0) and the file is assumed 
+ * to have a single link.
+ *
+ * Immutable.
+ * @author Aprel
+ */
+public final class FileIdentity {
+    private final Object device;
+    private final long inode;
+    private final int links;
+    
+    public FileIdentity(Object device, long inode) {
+        this(device, inode, 1);
+    }
+    
+    public FileIdentity(Object device, long inode, int links) {
+        this.device = Objects.requireNonNull(device);
+        this.inode = inode;
+        this.links = links;
+    }
+    
+    /**
+     * 
+     * @param file
+     * @return the identity of the file itself, not of a symbolic link's target
+     * @throws IOException 
+     */
+    public static FileIdentity of(Path file) throws IOException {
+        try {
+            final Map<String,Object> attrs = Files.readAttributes(file, "unix:dev,ino,nlink", 
+                    LinkOption.NOFOLLOW_LINKS);
+            return new FileIdentity(attrs.get("dev"), (Long) attrs.get("ino"), 
+                    (Integer) attrs.get("nlink"));
+        }
+        catch(UnsupportedOperationException | IllegalArgumentException ex) {
+            return new FileIdentity(Files.getFileStore(file).name(), 0);
+        }
+    }
+    
+    /**
+     * 
+     * @return an opaque key that is equal for files on the same device
+     */
+    public Object getDevice() {
+        return device;
+    }
+    
+    /**
+     * 
+     * @return inode number, or 0 if unknown
+     */
+    public long getInode() {
+        return inode;
+    }
+
+    /**
+     * 
+     * @return number of hard links to the inode
+     */
+    public int getLinks() {
+        return links;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if(!(obj instanceof FileIdentity))
+            return false;
+        final FileIdentity other = (FileIdentity) obj;
+        return inode == other.inode && device.equals(other.device);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * device.hashCode() + Long.hashCode(inode);
+    }
+
+    @Override
+    public String toString() {
+        return "FileIdentity{" + "device=" + device + ", inode=" + inode 
+                + ", links=" + links + '}';
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel.walk;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs file-reading tasks with one lane of worker threads per device, so that 
+ * several disks are read at the same time instead of one after another in 
+ * directory order.
+ *
+ * Within a lane, pending tasks are run in elevator order of inode number: the 
+ * next task is the one with the smallest inode at or after the inode of the 
+ * last task started, wrapping around to the smallest when there is none. Inode 
+ * numbers roughly follow allocation order on most filesystems, so this cuts 
+ * down on seeking on spinning disks. Partitions of the same disk get separate 
+ * lanes.
+ *
+ * Thread-safe.
+ * @author Aprel
+ */
+public class IoScheduler implements AutoCloseable {
+    
+    private final int threadsPerDevice;
+    private final Map<Object,Lane> lanes = new ConcurrentHashMap<>();
+    private volatile boolean closed = false;
+    
+    private static final Logger LOG = LoggerFactory.getLogger(IoScheduler.class);
+    
+    /**
+     * 
+     * @param threadsPerDevice number of tasks run concurrently on each device; 
+     * 1 for spinning disks and optical drives, more for SSDs
+     */
+    public IoScheduler(int threadsPerDevice) {
+        if(threadsPerDevice < 1)
+            throw new IllegalArgumentException("Threads per device must be positive: " 
+                    + threadsPerDevice);
+        this.threadsPerDevice = threadsPerDevice;
+    }
+    
+    /**
+     * Queues a task that reads the given file.
+     * @param <T>
+     * @param file
+     * @param task
+     * @return the result of the task
+     */
+    public <T> Future<T> submit(FileIdentity file, Callable<T> task) {
+        if(closed)
+            throw new IllegalStateException("Scheduler already closed");
+        final FutureTask<T> future = new FutureTask<>(task);
+        lanes.computeIfAbsent(file.getDevice(), this::newLane).add(file.getInode(), future);
+        return future;
+    }
+    
+    /**
+     * 
+     * @return number of devices that tasks have been submitted for
+     */
+    public int getDeviceCount() {
+        return lanes.size();
+    }
+    
+    private Lane newLane(Object device) {
+        LOG.debug("New I/O lane for device {}", device);
+        return new Lane(lanes.size());
+    }
+    
+    /**
+     * Cancels pending tasks and interrupts running ones.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        lanes.values().forEach(Lane::close);
+    }
+    
+    private static class Key implements Comparable<Key> {
+        private final long inode, sequence;
+
+        Key(long inode, long sequence) {
+            this.inode = inode;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Key o) {
+            final int c = Long.compareUnsigned(inode, o.inode);
+            return c != 0 ? c : Long.compare(sequence, o.sequence);
+        }
+    }
+    
+    private class Lane {
+        private final NavigableMap<Key,FutureTask<?>> pending = new TreeMap<>();
+        private final Thread[] threads;
+        private long sequence = 0;
+        private long lastInode = 0;
+        private boolean stopped = false;
+        
+        Lane(int number) {
+            threads = new Thread[threadsPerDevice];
+            for(int i = 0; i < threads.length; i++) {
+                threads[i] = new Thread(this::work, "io-lane-" + number + "-" + i);
+                threads[i].setDaemon(true);
+                threads[i].start();
+            }
+        }
+        
+        synchronized void add(long inode, FutureTask<?> task) {
+            if(stopped) {
+                task.cancel(false);
+                return;
+            }
+            pending.put(new Key(inode, sequence++), task);
+            notify();
+        }
+        
+        private synchronized FutureTask<?> next() throws InterruptedException {
+            while(pending.isEmpty() && !stopped)
+                wait();
+            if(stopped)
+                return null;
+            Map.Entry<Key,FutureTask<?>> entry = pending.ceilingEntry(new Key(lastInode, Long.MIN_VALUE));
+            if(entry == null)
+                entry = pending.firstEntry();
+            pending.remove(entry.getKey());
+            lastInode = entry.getKey().inode;
+            return entry.getValue();
+        }
+        
+        private void work() {
+            try {
+                FutureTask<?> task;
+                while((task = next()) != null)
+                    task.run();
+            }
+            catch(InterruptedException ex) {
+                //closed
+            }
+        }
+        
+        synchronized void close() {
+            stopped = true;
+            pending.values().forEach(task -> task.cancel(false));
+            pending.clear();
+            notifyAll();
+            for(Thread t : threads)
+                t.interrupt();
+        }
+    }
+}
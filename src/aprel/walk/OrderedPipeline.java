@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel.walk;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands the results of concurrently-running tasks to a {@link Sink} in the
+ * order the tasks were added, regardless of the order in which they complete.
+ *
+ * The number of results waiting to be consumed is bounded; {@link #add} blocks
+ * once the bound is reached, so a fast producer (e.g. a tree walk) cannot run
+ * arbitrarily far ahead of the workers.
+ *
+ * {@code add} must only be called from one thread.
+ * @author Aprel
+ * @param <T>
+ */
+public class OrderedPipeline<T> implements AutoCloseable {
+
+    /**
+     * Receives results in order. Always called from the same thread.
+     * @param <T>
+     */
+    @FunctionalInterface
+    public static interface Sink<T> {
+        public void accept(T result) throws IOException;
+    }
+
+    private final BlockingQueue<Future<T>> pending;
+    private final Sink<T> sink;
+    private final Thread emitter;
+    private final Future<T> endOfInput = CompletableFuture.completedFuture(null);
+    private volatile Throwable failure = null;
+    private boolean closed = false;
+
+    private static final Logger LOG = LoggerFactory.getLogger(OrderedPipeline.class);
+
+    public OrderedPipeline(int capacity, Sink<T> sink) {
+        if(capacity < 1)
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        pending = new ArrayBlockingQueue<>(capacity);
+        this.sink = sink;
+        emitter = new Thread(this::emit, OrderedPipeline.class.getSimpleName() + "-emitter");
+        emitter.setDaemon(true);
+        emitter.start();
+    }
+
+    /**
+     * Queues the result of a task. Blocks while the pipeline is full.
+     * @param result
+     * @throws IOException if an earlier task or the sink has failed
+     */
+    public void add(Future<T> result) throws IOException {
+        if(closed)
+            throw new IllegalStateException("Pipeline already closed");
+        checkFailure();
+        try {
+            pending.put(result);
+        }
+        catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while queueing result", ex);
+        }
+    }
+
+    private void emit() {
+        while(true) {
+            final Future<T> next;
+            try {
+                next = pending.take();
+            }
+            catch(InterruptedException ex) {
+                failure = ex;
+                return;
+            }
+            if(next == endOfInput)
+                return;
+            if(failure != null) {
+                //keep draining so that the producer is never blocked forever
+                next.cancel(true);
+                continue;
+            }
+            try {
+                sink.accept(next.get());
+            }
+            catch(ExecutionException ex) {
+                LOG.error("Task failed", ex.getCause());
+                failure = ex.getCause();
+            }
+            catch(InterruptedException | IOException | RuntimeException ex) {
+                LOG.error("Could not consume result", ex);
+                failure = ex;
+            }
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        final Throwable t = failure;
+        if(t == null)
+            return;
+        if(t instanceof IOException)
+            throw (IOException) t;
+        throw new IOException(t);
+    }
+
+    /**
+     * Waits for every queued result to be consumed.
+     * @throws IOException if any task or the sink failed
+     */
+    @Override
+    public void close() throws IOException {
+        if(closed)
+            return;
+        closed = true;
+        try {
+            pending.put(endOfInput);
+            emitter.join();
+        }
+        catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for pipeline", ex);
+        }
+        checkFailure();
+    }
+}
@@ -0,0 +1,430 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel.walk;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.FileVisitor;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A replacement for {@link Files#walkFileTree(Path, FileVisitor)} for 
+ * filesystems on which every directory listing and {@code stat} is slow, such 
+ * as network mounts.
+ *
+ * A pool of threads lists directories and reads the attributes of their 
+ * entries ahead of the visitor. The visitor is still called from the calling 
+ * thread, with the same sequence of calls that {@code walkFileTree} makes 
+ * (symbolic links are not followed), so output built from it is identical to 
+ * that of a sequential walk. The prefetching threads always list the pending 
+ * directory that comes first in walk order, and stop once a bounded number of 
+ * listed directories are waiting for the visitor. If the visitor reaches a 
+ * directory that has not been listed yet, it lists it itself.
+ *
+ * When a subtree is skipped by the visitor, its prefetched listings are 
+ * discarded. Without recursion, only directories the visitor enters are 
+ * listed: the visitor thread lists a directory after 
+ * {@code preVisitDirectory} returns {@code CONTINUE}. Unlike 
+ * {@code walkFileTree}, a directory that cannot be opened is therefore 
+ * reported to {@code visitFileFailed} between {@code preVisitDirectory} and 
+ * {@code postVisitDirectory}.
+ * @author Aprel
+ */
+public class ParallelTreeWalker {
+    
+    private final int parallelism;
+    private final int maxPrefetched;
+    private final boolean recurse;
+    
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelTreeWalker.class);
+    
+    /**
+     * 
+     * @param parallelism number of threads listing directories
+     * @param maxPrefetched maximum number of listed directories waiting for the 
+     * visitor
+     * @param recurse whether to list subdirectories ahead of the visitor; 
+     * should be false if the visitor skips all of them
+     */
+    public ParallelTreeWalker(int parallelism, int maxPrefetched, boolean recurse) {
+        if(parallelism < 1 || maxPrefetched < 1)
+            throw new IllegalArgumentException("Parallelism and prefetch limit must "
+                    + "be positive: " + parallelism + ", " + maxPrefetched);
+        this.parallelism = parallelism;
+        this.maxPrefetched = maxPrefetched;
+        this.recurse = recurse;
+    }
+    
+    /**
+     * Walks a file tree.
+     * @param start
+     * @param visitor
+     * @throws IOException if the visitor throws
+     */
+    public void walk(Path start, FileVisitor<? super Path> visitor) throws IOException {
+        final BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(start, BasicFileAttributes.class, 
+                    LinkOption.NOFOLLOW_LINKS);
+        }
+        catch(IOException ex) {
+            visitor.visitFileFailed(start, ex);
+            return;
+        }
+        if(!attrs.isDirectory()) {
+            visitor.visitFile(start, attrs);
+            return;
+        }
+        final Walk walk = new Walk(visitor);
+        try {
+            walk.start();
+            walk.replay(new Node(start, new int[0]), attrs);
+        }
+        finally {
+            walk.stop();
+        }
+    }
+    
+    private enum State {
+        /**
+         * Waiting to be listed.
+         */
+        NEW, 
+        /**
+         * Being listed by a prefetching thread.
+         */
+        LISTING, 
+        /**
+         * Listed by a prefetching thread; waiting for the visitor.
+         */
+        LISTED, 
+        /**
+         * Taken by the visitor.
+         */
+        CONSUMED, 
+        /**
+         * In a skipped subtree.
+         */
+        DISCARDED
+    }
+    
+    private static final class Node implements Comparable<Node> {
+        private final Path dir;
+        /**
+         * Indices of the entries leading to this directory from the start; 
+         * ordering by them is walk order.
+         */
+        private final int[] position;
+        private State state = State.NEW;
+        private Listing listing;
+        
+        Node(Path dir, int[] position) {
+            this.dir = dir;
+            this.position = position;
+        }
+
+        @Override
+        public int compareTo(Node o) {
+            final int length = Math.min(position.length, o.position.length);
+            for(int i = 0; i < length; i++) {
+                if(position[i] != o.position[i])
+                    return Integer.compare(position[i], o.position[i]);
+            }
+            return Integer.compare(position.length, o.position.length);
+        }
+    }
+    
+    private static final class Entry {
+        private final Path path;
+        private final BasicFileAttributes attrs;
+        private final IOException error;
+        /**
+         * Non-null if the entry is a directory.
+         */
+        private final Node node;
+        
+        Entry(Path path, BasicFileAttributes attrs, IOException error, Node node) {
+            this.path = path;
+            this.attrs = attrs;
+            this.error = error;
+            this.node = node;
+        }
+    }
+    
+    private static final class Listing {
+        /**
+         * The directory could not be opened.
+         */
+        private IOException openError;
+        /**
+         * The directory could not be read completely.
+         */
+        private IOException iterationError;
+        private RuntimeException unexpected;
+        private final List<Entry> entries = new ArrayList<>();
+    }
+    
+    private static Listing list(Node node) {
+        final Listing listing = new Listing();
+        final DirectoryStream<Path> stream;
+        try {
+            stream = Files.newDirectoryStream(node.dir);
+        }
+        catch(IOException ex) {
+            listing.openError = ex;
+            return listing;
+        }
+        try {
+            int index = 0;
+            for(Path path : stream) {
+                BasicFileAttributes attrs = null;
+                IOException error = null;
+                try {
+                    attrs = Files.readAttributes(path, BasicFileAttributes.class, 
+                            LinkOption.NOFOLLOW_LINKS);
+                }
+                catch(IOException ex) {
+                    error = ex;
+                }
+                final Node child;
+                if(attrs != null && attrs.isDirectory()) {
+                    final int[] position = Arrays.copyOf(node.position, node.position.length + 1);
+                    position[node.position.length] = index;
+                    child = new Node(path, position);
+                }
+                else {
+                    child = null;
+                }
+                listing.entries.add(new Entry(path, attrs, error, child));
+                index++;
+            }
+        }
+        catch(DirectoryIteratorException ex) {
+            listing.iterationError = ex.getCause();
+        }
+        catch(RuntimeException ex) {
+            listing.unexpected = ex;
+        }
+        finally {
+            try {
+                stream.close();
+            }
+            catch(IOException ex) {
+                if(listing.iterationError == null)
+                    listing.iterationError = ex;
+            }
+        }
+        return listing;
+    }
+    
+    /**
+     * State of one walk. All fields are guarded by {@code this}.
+     */
+    private final class Walk {
+        private final FileVisitor<? super Path> visitor;
+        private final PriorityQueue<Node> queue = new PriorityQueue<>();
+        private final Thread[] threads = new Thread[parallelism];
+        private int prefetched = 0;
+        private boolean stopped = false;
+        
+        Walk(FileVisitor<? super Path> visitor) {
+            this.visitor = visitor;
+        }
+        
+        void start() {
+            for(int i = 0; i < threads.length; i++) {
+                threads[i] = new Thread(this::prefetch, "tree-walk-" + i);
+                threads[i].setDaemon(true);
+                threads[i].start();
+            }
+        }
+        
+        synchronized void stop() {
+            stopped = true;
+            queue.clear();
+            notifyAll();
+        }
+        
+        private void prefetch() {
+            while(true) {
+                final Node node;
+                synchronized(this) {
+                    try {
+                        while(!stopped && (queue.isEmpty() || prefetched >= maxPrefetched))
+                            wait();
+                    }
+                    catch(InterruptedException ex) {
+                        return;
+                    }
+                    if(stopped)
+                        return;
+                    node = queue.poll();
+                    if(node.state != State.NEW)
+                        continue;
+                    node.state = State.LISTING;
+                    prefetched++;
+                }
+                final Listing listing = list(node);
+                synchronized(this) {
+                    node.listing = listing;
+                    if(node.state == State.DISCARDED) {
+                        prefetched--;
+                    }
+                    else {
+                        node.state = State.LISTED;
+                        enqueueChildren(listing);
+                    }
+                    notifyAll();
+                }
+            }
+        }
+        
+        private void enqueueChildren(Listing listing) {
+            if(!recurse)
+                return;
+            for(Entry e : listing.entries) {
+                if(e.node != null)
+                    queue.add(e.node);
+            }
+        }
+        
+        /**
+         * Takes the listing of a directory, listing it in this thread if no 
+         * prefetching thread has started to.
+         */
+        private Listing take(Node node) throws IOException {
+            synchronized(this) {
+                try {
+                    while(node.state == State.LISTING)
+                        wait();
+                }
+                catch(InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for listing of " 
+                            + node.dir, ex);
+                }
+                if(node.state == State.LISTED) {
+                    node.state = State.CONSUMED;
+                    prefetched--;
+                    notifyAll();
+                    return checked(node.listing);
+                }
+                node.state = State.CONSUMED;
+            }
+            LOG.trace("Listing {} in visitor thread", node.dir);
+            final Listing listing = list(node);
+            synchronized(this) {
+                node.listing = listing;
+                enqueueChildren(listing);
+                notifyAll();
+            }
+            return checked(listing);
+        }
+        
+        private Listing checked(Listing listing) {
+            if(listing.unexpected != null)
+                throw listing.unexpected;
+            return listing;
+        }
+        
+        /**
+         * Drops the prefetched listings of the subtree of a directory.
+         */
+        private synchronized void discard(Node node) {
+            switch(node.state) {
+                case NEW:
+                case LISTING:
+                    node.state = State.DISCARDED;
+                    break;
+                case LISTED:
+                    node.state = State.DISCARDED;
+                    prefetched--;
+                    discardChildren(node.listing);
+                    break;
+                case CONSUMED:
+                    discardChildren(node.listing);
+                    break;
+                default:
+                    break;
+            }
+            notifyAll();
+        }
+        
+        private synchronized void discardChildren(Listing listing) {
+            if(listing == null)
+                return;
+            for(Entry e : listing.entries) {
+                if(e.node != null)
+                    discard(e.node);
+            }
+        }
+        
+        /**
+         * Visits a directory and its subtree, as {@code walkFileTree} does.
+         * @return {@code CONTINUE}, {@code SKIP_SIBLINGS} or {@code TERMINATE}
+         */
+        FileVisitResult replay(Node node, BasicFileAttributes attrs) throws IOException {
+            FileVisitResult result = visitor.preVisitDirectory(node.dir, attrs);
+            if(result != FileVisitResult.CONTINUE) {
+                discard(node);
+                return result == FileVisitResult.SKIP_SUBTREE ? FileVisitResult.CONTINUE : result;
+            }
+            final Listing listing = take(node);
+            if(listing.openError != null) {
+                result = visitor.visitFileFailed(node.dir, listing.openError);
+                if(result == FileVisitResult.TERMINATE)
+                    return result;
+                if(visitor.postVisitDirectory(node.dir, null) == FileVisitResult.TERMINATE)
+                    return FileVisitResult.TERMINATE;
+                return result == FileVisitResult.SKIP_SIBLINGS ? result : FileVisitResult.CONTINUE;
+            }
+            boolean skipSiblings = false;
+            for(Entry e : listing.entries) {
+                if(skipSiblings) {
+                    if(e.node != null)
+                        discard(e.node);
+                    continue;
+                }
+                if(e.error != null)
+                    result = visitor.visitFileFailed(e.path, e.error);
+                else if(e.node != null)
+                    result = replay(e.node, e.attrs);
+                else
+                    result = visitor.visitFile(e.path, e.attrs);
+                if(result == FileVisitResult.TERMINATE)
+                    return result;
+                if(result == FileVisitResult.SKIP_SIBLINGS)
+                    skipSiblings = true;
+            }
+            //only TERMINATE has an effect after a directory
+            return visitor.postVisitDirectory(node.dir, listing.iterationError) 
+                    == FileVisitResult.TERMINATE ? FileVisitResult.TERMINATE 
+                    : FileVisitResult.CONTINUE;
+        }
+    }
+}
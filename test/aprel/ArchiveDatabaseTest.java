@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel;
+
+import aprel.db.beans.DirectoryBean;
+import aprel.db.beans.DirectoryCache;
+import aprel.db.beans.FileBean;
+import aprel.jdbi.Insert;
+import aprel.jdbi.Query;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import com.google.common.io.Resources;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.skife.jdbi.v2.ResultIterator;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Aprel
+ */
+public class ArchiveDatabaseTest {
+    
+    Path dir;
+    
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("archive-database-test");
+        //directory ids of the databases of other tests
+        DirectoryCache.getDefault().invalidateAll();
+    }
+    
+    @After
+    public void tearDown() throws IOException {
+        MoreFiles.deleteRecursively(dir, RecursiveDeleteOption.ALLOW_INSECURE);
+    }
+
+    @Test
+    public void testSplitStatements() {
+        final List<String> statements = ArchiveDatabase.splitStatements(
+                "-- comment\n\nCREATE TABLE a (\n    id INT\n);\r\nCREATE INDEX i ON a (id);\nDROP TABLE b");
+        assertEquals(Arrays.asList("CREATE TABLE a (\n    id INT\n)", 
+                "CREATE INDEX i ON a (id)", "DROP TABLE b"), statements);
+    }
+
+    @Test
+    public void testSchemaScriptsCreateAllTables() throws IOException {
+        for(String subprotocol : new String[] {"mysql", "h2"}) {
+            final String script = Resources.toString(ArchiveDatabase.class.getResource(
+                    "/aprel/db/schema-" + subprotocol + ".sql"), StandardCharsets.UTF_8);
+            final List<String> statements = ArchiveDatabase.splitStatements(script);
+            for(String table : new String[] {"directories", "files", "metadata", "parts"})
+                assertTrue(subprotocol + " schema lacks " + table, statements.stream()
+                        .anyMatch(s -> s.startsWith("CREATE TABLE IF NOT EXISTS " + table + " (")));
+            statements.forEach(s -> assertFalse(s, s.contains(";")));
+        }
+    }
+
+    @Test
+    public void testEmbeddedRoundTrip() throws SQLException, IOException {
+        ArchiveDatabase db = openEmbedded();
+        try {
+            //the schema is already there; bootstrapping again is harmless
+            db.bootstrapSchema();
+            final Insert insert = db.getInsertObject();
+            final Query query = db.getQueryObject();
+            insert.createCatalog("tv");
+            final DirectoryBean catalog = query.getDirectoryByPath("tv/");
+            assertNotNull(catalog);
+            final DirectoryBean shows = createDirectory(db, "shows", catalog);
+            final DirectoryBean nova = createDirectory(db, "nova", shows);
+            final DirectoryBean movies = createDirectory(db, "movies", catalog);
+            final FileBean file = new FileBean();
+            file.setPath("episode.wtv");
+            file.setDirParentId(nova.getId());
+            file.setMd5("d41d8cd98f00b204e9800998ecf8427e");
+            file.setXxh64("ef46db3751d8e999");
+            file.setSize(1234);
+            file.setCatalog("tv");
+            file.setOnLocalDisc(true);
+            file.setId(insert.insertFile(file));
+            assertNotNull(file.getId());
+            
+            shows.move(movies, db);
+            assertEquals("tv/movies/shows/", shows.getFullPath());
+            assertEquals(nova.getId(), query.getDirectoryByPath("tv/movies/shows/nova/").getId());
+            assertNull(query.getDirectoryByPath("tv/shows/nova/"));
+            
+            shows.rename("series", db);
+            final DirectoryBean renamed = query.getDirectoryByPath("tv/movies/series/");
+            assertEquals(shows.getId(), renamed.getId());
+            assertEquals("series", renamed.getDirName());
+            assertEquals(movies.getId(), renamed.getDirParentId());
+            final List<FileBean> found = query.getAllFilesInSubtree(renamed);
+            assertEquals(1, found.size());
+            assertEquals(file.getId(), found.get(0).getId());
+            assertEquals(file.getMd5(), found.get(0).getMd5());
+            assertEquals(1234, query.getSubtreeSize(movies));
+            assertEquals(1234, query.getSubtreeSize(catalog));
+        }
+        finally {
+            db.close();
+        }
+        
+        //the data survives reopening the file
+        db = openEmbedded();
+        try {
+            assertEquals(1, db.getCatalogs().size());
+            final List<Long> sizes = new ArrayList<>();
+            try(ResultIterator<Long> it = db.iterateFileSizes()) {
+                it.forEachRemaining(sizes::add);
+            }
+            assertEquals(Arrays.asList(1234L), sizes);
+        }
+        finally {
+            db.close();
+        }
+    }
+    
+    private ArchiveDatabase openEmbedded() throws SQLException {
+        return new ArchiveDatabase("jdbc:h2:file:" + dir.resolve("archive") 
+                + ";MODE=MySQL;DATABASE_TO_UPPER=FALSE", "", "", true, 2);
+    }
+    
+    private static DirectoryBean createDirectory(ArchiveDatabase db, String name, 
+            DirectoryBean parent) {
+        final String path = parent.getFullPath() + name + "/";
+        final DirectoryBean dir = new DirectoryBean();
+        dir.setDirName(name);
+        dir.setDirParentId(parent.getId());
+        dir.setId(db.getInsertObject().createDirectory(name, parent.getId(), path));
+        dir.setFullPath(path);
+        return dir;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel;
+
+import aprel.db.beans.FileBean;
+import aprel.db.beans.FileBeanSink;
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Aprel
+ */
+public class FileWalkerTest {
+    
+    Path root;
+    
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("file-walker-test");
+        Files.write(root.resolve("a"), "linked".getBytes(StandardCharsets.US_ASCII));
+        Files.createLink(root.resolve("b"), root.resolve("a"));
+        Files.write(root.resolve("c"), "single".getBytes(StandardCharsets.US_ASCII));
+    }
+    
+    @After
+    public void tearDown() throws IOException {
+        MoreFiles.deleteRecursively(root, RecursiveDeleteOption.ALLOW_INSECURE);
+    }
+
+    @Test
+    public void testHardLinks() throws IOException, ParseException {
+        final String[][] settings = {{}, {"-t", "3"}, {"--device-threads", "2"}, 
+                {"--walk-threads", "2", "-t", "2"}};
+        for(String[] options : settings) {
+            final List<FileBean> beans = walk(new HashMap<>(), options);
+            assertEquals(3, beans.size());
+            final List<FileBean> links = new ArrayList<>();
+            beans.stream().filter(b -> !b.getPath().equals("c")).forEach(links::add);
+            assertEquals(2, links.size());
+            //the link found first is hashed; the other is its alias
+            final FileBean first = links.get(0), alias = links.get(1);
+            assertFalse(first.isHardLink());
+            assertTrue(alias.isHardLink());
+            assertEquals(first.getPath(), alias.getHardLinkOf());
+            assertEquals(md5("linked"), first.getMd5());
+            assertEquals(first.getMd5(), alias.getMd5());
+            assertEquals(first.getXxh64(), alias.getXxh64());
+            assertEquals(first.getSize(), alias.getSize());
+            assertEquals(md5("single"), beans.stream().filter(b -> b.getPath().equals("c"))
+                    .findFirst().get().getMd5());
+        }
+    }
+    
+    @Test
+    public void testIgnoreHardLinks() throws IOException, ParseException {
+        final List<FileBean> beans = walk(new HashMap<>(), "--ignore-hard-links");
+        assertEquals(3, beans.size());
+        beans.forEach(b -> assertFalse(b.getPath(), b.isHardLink()));
+        assertEquals(2, beans.stream().filter(b -> md5("linked").equals(b.getMd5())).count());
+    }
+    
+    /**
+     * The walk is interrupted after the first link to an inode was journaled, 
+     * and resumed.
+     */
+    @Test
+    public void testResumeBetweenHardLinks() throws IOException, ParseException {
+        final List<FileBean> full = walk(new HashMap<>());
+        final FileBean first = full.stream().filter(b -> b.getHardLinkOf() == null 
+                && !b.getPath().equals("c")).findFirst().get();
+        final Map<String,FileBean> journaled = new HashMap<>();
+        journaled.put(first.getPath(), first);
+        
+        final List<FileBean> resumed = walk(journaled);
+        assertEquals(2, resumed.size());
+        final FileBean second = resumed.stream().filter(b -> !b.getPath().equals("c"))
+                .findFirst().get();
+        assertNotEquals(first.getPath(), second.getPath());
+        assertEquals(first.getPath(), second.getHardLinkOf());
+        assertEquals(first.getMd5(), second.getMd5());
+        assertEquals(first.getXxh64(), second.getXxh64());
+        assertTrue(journaled.isEmpty());
+    }
+    
+    private static String md5(String contents) {
+        return Hashing.md5().hashString(contents, StandardCharsets.US_ASCII).toString();
+    }
+    
+    static List<FileBean> walk(Path root, Map<String,FileBean> alreadyWritten, 
+            String... options) throws IOException, ParseException {
+        final Options walkOptions = new Options();
+        FileWalker.addWalkOptions(walkOptions);
+        final String[] args = new String[options.length + 3];
+        args[0] = "-" + FileWalker.OPTION_PATH;
+        args[1] = root.toString();
+        args[2] = "--no-ffprobe";
+        System.arraycopy(options, 0, args, 3, options.length);
+        final CommandLine cmd = new DefaultParser().parse(walkOptions, args);
+        final List<FileBean> beans = new ArrayList<>();
+        FileWalker.walk(root, new FileBeanSink() {
+            @Override
+            public void write(FileBean bean) {
+                beans.add(bean);
+            }
+
+            @Override
+            public void flush() {
+            }
+        }, null, FileWalker.configureWalk(cmd, true), alreadyWritten);
+        return beans;
+    }
+    
+    private List<FileBean> walk(Map<String,FileBean> alreadyWritten, String... options) 
+            throws IOException, ParseException {
+        return walk(root, alreadyWritten, options);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel;
+
+import aprel.db.beans.CatalogDoesNotExistException;
+import aprel.db.beans.DirectoryCache;
+import aprel.db.beans.FileBean;
+import aprel.jdbi.Query;
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import org.apache.commons.cli.ParseException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Aprel
+ */
+public class IngesterTest {
+    
+    Path dir, root;
+    ArchiveDatabase db;
+    
+    @Before
+    public void setUp() throws IOException, SQLException {
+        dir = Files.createTempDirectory("ingester-test");
+        root = Files.createDirectory(dir.resolve("root"));
+        write("a", "linked");
+        Files.createLink(root.resolve("b"), root.resolve("a"));
+        write("c", "twice");
+        write("d", "twice");
+        write("e", "archived");
+        Files.createDirectory(root.resolve("sub"));
+        write("sub/f", "deeper");
+        //directory ids of the databases of other tests
+        DirectoryCache.getDefault().invalidateAll();
+        db = new ArchiveDatabase("jdbc:h2:file:" + dir.resolve("archive") 
+                + ";MODE=MySQL;DATABASE_TO_UPPER=FALSE", "", "", false, 2);
+        db.getInsertObject().createCatalog("tv");
+    }
+    
+    @After
+    public void tearDown() throws IOException, SQLException {
+        db.close();
+        MoreFiles.deleteRecursively(dir, RecursiveDeleteOption.ALLOW_INSECURE);
+    }
+
+    /**
+     * Files are inserted in batches smaller than the walk; duplicates are 
+     * found within a batch, across batches and in the archive.
+     */
+    @Test
+    public void testDatabaseSink() throws IOException, ParseException, 
+            CatalogDoesNotExistException {
+        final FileBean archived = new FileBean();
+        archived.setPath("old.wtv");
+        archived.setMd5(md5("archived"));
+        archived.setXxh64("0000000000000000");
+        archived.setSize(8);
+        new Inserter(dir.toString(), "tv", "/", false, false, false, 2, false)
+                .insertChunk(db, Collections.singletonList(archived), 0);
+        
+        final List<FileBean> beans = FileWalkerTest.walk(root, new HashMap<>());
+        assertEquals(6, beans.size());
+        final Inserter job = new Inserter(root.toString(), "tv", "/", 
+                false, false, false, 2, false);
+        final Ingester.DatabaseSink sink = new Ingester.DatabaseSink(db, job, 2);
+        try {
+            for(FileBean bean : beans)
+                sink.write(bean);
+        }
+        finally {
+            sink.close();
+        }
+        assertEquals(3, sink.inserted);
+        assertEquals(2, sink.duplicates);
+        assertEquals(1, sink.hardLinks);
+        
+        final Query query = db.getQueryObject();
+        final FileBean first = beans.stream().filter(b -> md5("linked").equals(b.getMd5()) 
+                && !b.isHardLink()).findFirst().get();
+        assertNotNull(query.getFileByPath("tv/", first.getPath()));
+        assertEquals(md5("deeper"), query.getFileByPath("tv/sub/", "f").getMd5());
+        assertNull(query.getFileByPath("tv/", "e"));
+        //both files with the same contents are one file in the archive
+        assertEquals(1, query.getAllFilesInDirectoryBesidesOtherDirectories(
+                query.getDirectoryByPath("tv/").getId()).stream()
+                .filter(f -> md5("twice").equals(f.getMd5())).count());
+    }
+    
+    private void write(String path, String contents) throws IOException {
+        Files.write(root.resolve(path), contents.getBytes(StandardCharsets.US_ASCII));
+    }
+    
+    private static String md5(String contents) {
+        return Hashing.md5().hashString(contents, StandardCharsets.US_ASCII).toString();
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel;
+
+import aprel.db.beans.CatalogDoesNotExistException;
+import aprel.db.beans.DirectoryBean;
+import aprel.db.beans.DirectoryCache;
+import aprel.db.beans.FileBean;
+import aprel.db.beans.MetadataXmlWriter;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Aprel
+ */
+public class InserterTest {
+    
+    Path dir;
+    ArchiveDatabase db;
+    
+    @Before
+    public void setUp() throws IOException, SQLException {
+        dir = Files.createTempDirectory("inserter-test");
+        //directory ids of the databases of other tests
+        DirectoryCache.getDefault().invalidateAll();
+        db = new ArchiveDatabase("jdbc:h2:file:" + dir.resolve("archive") 
+                + ";MODE=MySQL;DATABASE_TO_UPPER=FALSE", "", "", false, 2);
+        db.getInsertObject().createCatalog("tv");
+    }
+    
+    @After
+    public void tearDown() throws IOException, SQLException {
+        db.close();
+        MoreFiles.deleteRecursively(dir, RecursiveDeleteOption.ALLOW_INSECURE);
+    }
+
+    /**
+     * The first chunk is committed, but the run stops before its progress is 
+     * saved.
+     */
+    @Test
+    public void testResumeAfterUnrecordedCommit() throws IOException, 
+            CatalogDoesNotExistException {
+        final List<FileBean> files = Arrays.asList(
+                file("a.wtv", "0cc175b9c0f1b6a831c399e269772661"), 
+                file("sub/b.wtv", "92eb5ffee6ae2fec3ad71c777531578f"), 
+                file("sub/c.wtv", "4a8a08f09d37b73795649038408b5f33"));
+        try(OutputStream out = Files.newOutputStream(dir.resolve("METADATA.xml"));
+                MetadataXmlWriter writer = new MetadataXmlWriter(out)) {
+            for(FileBean f : files)
+                writer.write(f);
+        }
+        final Inserter first = new Inserter(dir.toString(), "tv", "/", 
+                false, false, false, 2, false);
+        assertTrue(first.prepare());
+        assertTrue(first.check(db));
+        first.insertChunk(db, Arrays.asList(file("a.wtv", files.get(0).getMd5()), 
+                file("sub/b.wtv", files.get(1).getMd5())), 0);
+        Files.write(dir.resolve("METADATA.xml.progress"), "files=0\n".getBytes("UTF-8"));
+        
+        final Inserter resumed = new Inserter(dir.toString(), "tv", "/", 
+                false, false, true, 2, false);
+        assertTrue(resumed.prepare());
+        assertTrue("committed files were reported as duplicates", resumed.check(db));
+        assertTrue(Files.readAllLines(dir.resolve("METADATA.xml.progress")).contains("files=2"));
+        resumed.insert(db);
+        assertFalse(Files.exists(dir.resolve("METADATA.xml.progress")));
+        assertEquals(3, db.getQueryObject().getAllFilesInSubtree(
+                db.getQueryObject().getDirectoryByPath("tv/")).size());
+        assertEquals(files.get(2).getMd5(), 
+                db.getQueryObject().getFileByPath("tv/sub/", "c.wtv").getMd5());
+    }
+
+    /**
+     * A file at the same path with a different checksum is not the one that 
+     * was committed.
+     */
+    @Test
+    public void testResumeStillReportsDuplicates() throws IOException, 
+            CatalogDoesNotExistException {
+        try(OutputStream out = Files.newOutputStream(dir.resolve("METADATA.xml"));
+                MetadataXmlWriter writer = new MetadataXmlWriter(out)) {
+            writer.write(file("a.wtv", "0cc175b9c0f1b6a831c399e269772661"));
+        }
+        final Inserter other = new Inserter(dir.toString(), "tv", "/", 
+                false, false, false, 2, false);
+        other.insertChunk(db, Arrays.asList(file("a.wtv", "92eb5ffee6ae2fec3ad71c777531578f"), 
+                file("b.wtv", "0cc175b9c0f1b6a831c399e269772661")), 0);
+        Files.write(dir.resolve("METADATA.xml.progress"), "files=0\n".getBytes("UTF-8"));
+        
+        final Inserter resumed = new Inserter(dir.toString(), "tv", "/", 
+                false, false, true, 2, false);
+        assertTrue(resumed.prepare());
+        assertFalse(resumed.check(db));
+    }
+    
+    @Test
+    public void testHardLinksAreSkipped() throws IOException, CatalogDoesNotExistException {
+        final FileBean alias = file("sub/b.wtv", "0cc175b9c0f1b6a831c399e269772661");
+        alias.setHardLinkOf("a.wtv");
+        try(OutputStream out = Files.newOutputStream(dir.resolve("METADATA.xml"));
+                MetadataXmlWriter writer = new MetadataXmlWriter(out)) {
+            writer.write(file("a.wtv", "0cc175b9c0f1b6a831c399e269772661"));
+            writer.write(alias);
+            writer.write(file("sub/c.wtv", "4a8a08f09d37b73795649038408b5f33"));
+        }
+        final Inserter job = new Inserter(dir.toString(), "tv", "/", 
+                false, false, false, 1, false);
+        assertTrue(job.prepare());
+        //an alias shares the checksum of its first link without being a duplicate
+        assertTrue(job.check(db));
+        job.insert(db);
+        assertEquals(2, db.getQueryObject().getAllFilesInSubtree(
+                db.getQueryObject().getDirectoryByPath("tv/")).size());
+        assertNull(db.getQueryObject().getFileByPath("tv/sub/", "b.wtv"));
+    }
+    
+    /**
+     * A job whose archive path is not in the archive is skipped without 
+     * affecting the others.
+     */
+    @Test
+    public void testRunJobsSkipsMissingArchivePath() throws IOException, 
+            InterruptedException, SQLException {
+        final Inserter missing = job("missing", "/not/there", 
+                file("a.wtv", "0cc175b9c0f1b6a831c399e269772661"));
+        final Inserter good = job("good", "/", 
+                file("b.wtv", "92eb5ffee6ae2fec3ad71c777531578f"));
+        assertEquals(1, runJobs(missing, good));
+        assertNotNull(db.getQueryObject().getFileByPath("tv/", "b.wtv"));
+        assertNull(db.getQueryObject().getFileByPath("tv/", "a.wtv"));
+    }
+    
+    /**
+     * A job that shares a checksum with an earlier job is skipped; the 
+     * others are inserted.
+     */
+    @Test
+    public void testRunJobsSkipsSharedChecksums() throws IOException, 
+            InterruptedException, SQLException {
+        final Inserter first = job("first", "/", 
+                file("a.wtv", "0cc175b9c0f1b6a831c399e269772661"));
+        final Inserter shared = job("shared", "/", 
+                file("b.wtv", "92eb5ffee6ae2fec3ad71c777531578f"), 
+                file("c.wtv", "0cc175b9c0f1b6a831c399e269772661"));
+        final Inserter other = job("other", "/", 
+                file("d.wtv", "4a8a08f09d37b73795649038408b5f33"));
+        assertEquals(2, runJobs(first, shared, other));
+        assertNotNull(db.getQueryObject().getFileByPath("tv/", "a.wtv"));
+        assertNull(db.getQueryObject().getFileByPath("tv/", "b.wtv"));
+        assertNull(db.getQueryObject().getFileByPath("tv/", "c.wtv"));
+        assertNotNull(db.getQueryObject().getFileByPath("tv/", "d.wtv"));
+    }
+    
+    @Test
+    public void testConflictsWith() {
+        final Inserter root = new Inserter(dir.toString(), "tv", "/", 
+                false, false, false, 2, false);
+        final Inserter shows = new Inserter(dir.toString(), "tv", "/shows/", 
+                false, false, false, 2, false);
+        final Inserter nova = new Inserter(dir.toString(), "tv", "shows/nova", 
+                false, false, false, 2, false);
+        final Inserter showsOther = new Inserter(dir.toString(), "tv", "/showsother", 
+                false, false, false, 2, false);
+        final Inserter otherCatalog = new Inserter(dir.toString(), "radio", "/", 
+                false, false, false, 2, false);
+        assertTrue(root.conflictsWith(shows));
+        assertTrue(nova.conflictsWith(shows));
+        assertTrue(shows.conflictsWith(nova));
+        assertTrue(shows.conflictsWith(shows));
+        //a name that starts with another is not within it
+        assertFalse(shows.conflictsWith(showsOther));
+        assertFalse(root.conflictsWith(otherCatalog));
+        //jobs from optical discs of one catalog share the next disc number
+        final Inserter opticalA = new Inserter(dir.toString(), "tv", "/a", 
+                true, false, false, 2, false);
+        final Inserter opticalB = new Inserter(dir.toString(), "tv", "/b", 
+                true, false, false, 2, false);
+        assertTrue(opticalA.conflictsWith(opticalB));
+        assertFalse(opticalA.conflictsWith(showsOther));
+    }
+    
+    /**
+     * Jobs whose subtrees overlap create the same new directory; run one 
+     * after the other, they share it.
+     */
+    @Test
+    public void testRunJobsSerialisesNestedSubtrees() throws IOException, 
+            InterruptedException, SQLException {
+        final String shows = db.getInsertObject().createDirectory("shows", 
+                db.getQueryObject().getDirectoryByPath("tv/").getId(), "tv/shows/");
+        final List<FileBean> outer = new ArrayList<>(), inner = new ArrayList<>();
+        for(int i = 0; i < 20; i++) {
+            outer.add(file("shows/new/a" + i + ".wtv", String.format("%032x", i)));
+            inner.add(file("new/b" + i + ".wtv", String.format("%032x", 100 + i)));
+        }
+        final Inserter first = job("outer", "/", outer.toArray(new FileBean[0]));
+        final Inserter second = job("inner", "/shows", inner.toArray(new FileBean[0]));
+        assertEquals(2, runJobs(first, second));
+        final List<DirectoryBean> created = db.getQueryObject().getAllDirectoriesInDirectory(shows);
+        assertEquals(1, created.size());
+        assertEquals(40, db.getQueryObject().getAllFilesInSubtree(created.get(0)).size());
+    }
+    
+    /**
+     * Writes the metadata of a job in its own directory.
+     * @return the prepared job
+     */
+    private Inserter job(String name, String archivePath, FileBean... files) 
+            throws IOException {
+        final Path local = Files.createDirectory(dir.resolve(name));
+        try(OutputStream out = Files.newOutputStream(local.resolve("METADATA.xml"));
+                MetadataXmlWriter writer = new MetadataXmlWriter(out)) {
+            for(FileBean f : files)
+                writer.write(f);
+        }
+        final Inserter job = new Inserter(local.toString(), "tv", archivePath, 
+                false, false, false, 2, false);
+        assertTrue(job.prepare());
+        return job;
+    }
+    
+    private int runJobs(Inserter... jobs) throws InterruptedException, SQLException {
+        final ArchiveDatabase session = db.newSession();
+        try {
+            return Inserter.runJobs(Arrays.asList(jobs), 
+                    new ArchiveDatabasePool(Arrays.asList(db, session)), 2, false);
+        }
+        finally {
+            session.close();
+        }
+    }
+    
+    private FileBean file(String path, String md5) {
+        final FileBean bean = new FileBean();
+        bean.setPath(path);
+        bean.setMd5(md5);
+        bean.setXxh64("0000000000000000");
+        bean.setSize(md5.length());
+        return bean;
+    }
+}
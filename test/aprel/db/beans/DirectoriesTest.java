@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel.db.beans;
+
+import aprel.ArchiveDatabase;
+import aprel.jdbi.Query;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Aprel
+ */
+public class DirectoriesTest {
+    
+    Path dir;
+    ArchiveDatabase db;
+    
+    @Before
+    public void setUp() throws IOException, SQLException {
+        dir = Files.createTempDirectory("directories-test");
+        //directory ids of the databases of other tests
+        DirectoryCache.getDefault().invalidateAll();
+        db = new ArchiveDatabase("jdbc:h2:file:" + dir.resolve("archive") 
+                + ";MODE=MySQL;DATABASE_TO_UPPER=FALSE", "", "", false, 2);
+        db.getInsertObject().createCatalog("tv");
+    }
+    
+    @After
+    public void tearDown() throws IOException, SQLException {
+        db.close();
+        MoreFiles.deleteRecursively(dir, RecursiveDeleteOption.ALLOW_INSECURE);
+    }
+
+    /**
+     * New directories several levels below the base path, some below a 
+     * directory that already exists.
+     */
+    @Test
+    public void testCommitNewTree() throws CatalogDoesNotExistException {
+        final Query query = db.getQueryObject();
+        final DirectoryBean catalog = query.getDirectoryByPath("tv/");
+        final String showsId = db.getInsertObject().createDirectory("shows", 
+                catalog.getId(), "tv/shows/");
+        final List<String> paths = Arrays.asList("top.wtv", "shows/nova/s01/e1.wtv", 
+                "shows/nova/s02/e2.wtv", "shows/new/e3.wtv", "movies/a/b/c/d/m.wtv", 
+                "movies/a/m2.wtv");
+        final List<FileBean> files = new ArrayList<>();
+        for(int i = 0; i < paths.size(); i++) {
+            final FileBean bean = new FileBean();
+            bean.setPath(paths.get(i));
+            bean.setMd5(String.format("%032x", i));
+            bean.setXxh64(String.format("%016x", i));
+            bean.setSize(i);
+            bean.setCatalog("tv");
+            files.add(bean);
+        }
+        
+        final Directories directories = new Directories("tv", "/", db);
+        directories.addFiles(files, dir.toString());
+        assertEquals(9, directories.getDirectoriesToBeCreated().size());
+        directories.commitToDatabase();
+        
+        assertEquals(showsId, query.getDirectoryByPath("tv/shows/").getId());
+        for(String fullPath : new String[] {"tv/shows/nova/s01/", "tv/shows/nova/s02/", 
+                "tv/shows/new/", "tv/movies/a/b/c/d/"}) {
+            //every directory up to the catalog has its parent's id
+            String path = fullPath;
+            while(!path.equals("tv/")) {
+                final String parentPath = path.substring(0, 
+                        path.lastIndexOf('/', path.length() - 2) + 1);
+                assertEquals(path, query.getDirectoryByPath(parentPath).getId(), 
+                        query.getDirectoryByPath(path).getDirParentId());
+                path = parentPath;
+            }
+        }
+        assertEquals(9 + 2, query.getSubtreeDirectories(catalog).size());
+        for(FileBean bean : files) {
+            final String dirPath = "tv/" + bean.getPath().substring(0, 
+                    bean.getPath().length() - bean.getFilename().length());
+            final FileBean row = query.getFileByPath(dirPath, bean.getFilename());
+            assertEquals(bean.getPath(), bean.getId(), row.getId());
+            assertEquals(query.getDirectoryByPath(dirPath).getId(), row.getDirParentId());
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel.db.beans;
+
+import aprel.ArchiveDatabase;
+import aprel.jdbi.Query;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author Aprel
+ */
+public class DirectoryCacheTest {
+    
+    ArchiveDatabase db;
+    Query query;
+    DirectoryBean dir;
+    
+    @Before
+    public void setUp() {
+        db = mock(ArchiveDatabase.class);
+        query = mock(Query.class);
+        when(db.getQueryObject()).thenReturn(query);
+        dir = new DirectoryBean();
+        dir.setId("7");
+        dir.setDirName("shows");
+        dir.setDirParentId("1");
+        when(query.getDirectory("shows", "1")).thenReturn(dir);
+    }
+    
+    @Test
+    public void testHitsAndMisses() {
+        final DirectoryCache cache = new DirectoryCache(10);
+        assertSame(dir, cache.get("shows", "1", db));
+        assertSame(dir, cache.get("shows", "1", db));
+        assertNull(cache.get("movies", "1", db));
+        assertNull(cache.get("movies", "1", db));
+        //existing directories are queried once, missing ones every time
+        verify(query, times(1)).getDirectory("shows", "1");
+        verify(query, times(2)).getDirectory("movies", "1");
+        assertEquals(1, cache.getStats().hitCount());
+        assertEquals(3, cache.getStats().missCount());
+    }
+    
+    @Test
+    public void testInvalidate() {
+        final DirectoryCache cache = new DirectoryCache(10);
+        cache.get("shows", "1", db);
+        cache.invalidate("shows", "1");
+        assertEquals(0, cache.size());
+        cache.get("shows", "1", db);
+        verify(query, times(2)).getDirectory("shows", "1");
+    }
+    
+    @Test
+    public void testBounded() {
+        final DirectoryCache cache = new DirectoryCache(1);
+        final DirectoryBean other = new DirectoryBean();
+        other.setDirName("movies");
+        when(query.getDirectory("movies", "1")).thenReturn(other);
+        cache.get("shows", "1", db);
+        cache.get("movies", "1", db);
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getStats().evictionCount());
+    }
+}
@@ -79,16 +79,19 @@ public class DirectoryStructureTest {
         thisDir.setDirName("thisone");
         thisDir.setDirParentId("256");
         thisDir.setId("512");
+        thisDir.setFullPath("here/thisone/");
         
         dir1 = new DirectoryBean();
         dir1.setDirName("firstdir");
         dir1.setDirParentId(thisDir.getId());
         dir1.setId("775");
+        dir1.setFullPath("here/thisone/firstdir/");
         
         dir2 = new DirectoryBean();
         dir2.setDirName("another");
         dir2.setDirParentId(thisDir.getId());
         dir2.setId("777");
+        dir2.setFullPath("here/thisone/another/");
         
         file1 = new FileBean();
         file1.setCatalog("here");
@@ -128,12 +131,14 @@ public class DirectoryStructureTest {
         
         DirectoryStructure ds = new DirectoryStructure(thisDir, db);
         final String newName = "a new name no one has thought of before";
-        when(ins.createDirectory(newName, id)).thenReturn("1865");
+        final String fullPath = "here/thisone/" + newName + "/";
+        when(ins.createDirectory(newName, id, fullPath)).thenReturn("1865");
         DirectoryBean result = ds.createDirectory(newName);
         assertTrue(result.getDirName().equals(newName));
         assertTrue(result.getDirParentId().equals(id));
         assertTrue(result.getId().equals("1865"));
-        verify(ins).createDirectory(newName, id);
+        assertTrue(result.getFullPath().equals(fullPath));
+        verify(ins).createDirectory(newName, id, fullPath);
         verifyNoMoreInteractions(ins);
         verifyZeroInteractions(delete);
     }
@@ -373,6 +378,7 @@ public class DirectoryStructureTest {
         beanAdoptiveDir.setDirName("adopt");
         beanAdoptiveDir.setId("143");
         beanAdoptiveDir.setDirParentId("134");
+        beanAdoptiveDir.setFullPath("here/adopt/");
         FileBean sameNameAsFile2 = new FileBean();
         sameNameAsFile2.setFilename(file2.getFilename());
         sameNameAsFile2.setDirParentId(beanAdoptiveDir.getId());
@@ -392,7 +398,8 @@ public class DirectoryStructureTest {
             assertEquals(2+1, adoptive.getFiles().size());
         });
         
-        verify(ins).updateParentOfDirectory(dir1, beanAdoptiveDir.getId());
+        verify(ins).updateParentOfDirectory(dir1, beanAdoptiveDir.getId(), "here/adopt/firstdir/");
+        assertEquals("here/adopt/firstdir/", dir1.getFullPath());
         verify(ins).updateParentOfFile(file1, beanAdoptiveDir.getId());
         verifyNoMoreInteractions(ins);
         verifyZeroInteractions(delete);
@@ -411,6 +418,16 @@ public class DirectoryStructureTest {
         biological.moveTo(adoptive, dir1);
     }
     
+    @Test
+    public void testMoveTo_DirectoryStructure_NoFullPath() {
+        DirectoryStructure biological = new DirectoryStructure(thisDir, db);
+        dir2.setFullPath(null);
+        DirectoryStructure adoptive = new DirectoryStructure(dir2, db);
+        exception.expect(IllegalStateException.class);
+        exception.expectMessage("--rebuild-paths");
+        biological.moveTo(adoptive, dir1);
+    }
+    
     @Test
     public void testMoveTo_DirectoryStructure_NotTheParent() {
         DirectoryStructure biological = new DirectoryStructure(thisDir, db);
@@ -434,7 +451,8 @@ public class DirectoryStructureTest {
         assertTrue(ds.rename(file1, "a totally original file name"));
         assertFalse(ds.rename(file2, file3.getFilename()));
         assertFalse(ds.rename(file2, dir2.getName()));
-        verify(ins).renameDirectory(dir1, "a totally novel directory name");
+        verify(ins).renameDirectory(dir1, "a totally novel directory name", 
+                "here/thisone/a totally novel directory name/");
         verify(ins).renameFile(file1, "a totally original file name");
         verifyNoMoreInteractions(ins);
         
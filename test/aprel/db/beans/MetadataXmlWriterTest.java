@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel.db.beans;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Aprel
+ */
+public class MetadataXmlWriterTest {
+    
+    /**
+     * Test that the streamed document can be read as a FilesRootContainer.
+     */
+    @Test
+    public void testReadableAsFilesRootContainer() throws IOException, JAXBException {
+        System.out.println("write");
+        FileBean plain = new FileBean();
+        plain.setPath("dir/a <file> & \"more\".txt");
+        plain.setSize(37);
+        plain.setMd5("349fbf34f07f557eee94deec0261a34e");
+        FileBean media = new FileBean();
+        media.setPath("show.wtv");
+        media.setSize(2382102528L);
+        media.setMd5("bdaeb324c6708b1671f6f9204505819c");
+        FileBean.MediaMetadata meta = new FileBean.MediaMetadata();
+        meta.setTitle("Title");
+        meta.setDescription("Line one\nline two");
+        meta.setDuration100Nanos("17976480000");
+        media.setMedia(meta);
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        MetadataXmlWriter writer = new MetadataXmlWriter(bytes, 1);
+        writer.write(plain);
+        writer.write(media);
+        assertEquals(2, writer.getFilesWritten());
+        writer.close();
+        
+        FilesRootContainer read = (FilesRootContainer) JAXBContext.newInstance(
+                FilesRootContainer.class).createUnmarshaller().unmarshal(
+                        new ByteArrayInputStream(bytes.toByteArray()));
+        List<FileBean> files = read.getFiles();
+        assertEquals(2, files.size());
+        assertEquals(plain.getPath(), files.get(0).getPath());
+        assertEquals(37, files.get(0).getSize());
+        assertEquals(plain.getMd5(), files.get(0).getMd5());
+        assertFalse(files.get(0).hasMediaData());
+        assertEquals(media.getPath(), files.get(1).getPath());
+        assertEquals(2382102528L, files.get(1).getSize());
+        assertEquals("Title", files.get(1).getMedia().getTitle());
+        assertEquals("Line one\nline two", files.get(1).getMedia().getDescription());
+        assertEquals("17976480000", files.get(1).getMedia().getDuration100Nanos());
+    }
+    
+    @Test
+    public void testEmptyDocument() throws IOException, JAXBException {
+        System.out.println("empty");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new MetadataXmlWriter(bytes).close();
+        FilesRootContainer read = (FilesRootContainer) JAXBContext.newInstance(
+                FilesRootContainer.class).createUnmarshaller().unmarshal(
+                        new ByteArrayInputStream(bytes.toByteArray()));
+        assertTrue(read.getFiles() == null || read.getFiles().isEmpty());
+    }
+}
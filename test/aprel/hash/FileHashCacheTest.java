@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel.hash;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author Aprel
+ */
+public class FileHashCacheTest {
+    
+    private static final Digests DIGESTS = new Digests(
+            "d41d8cd98f00b204e9800998ecf8427e", "ef46db3751d8e999");
+    private static final Path FILE = Paths.get("/archive/tv/show.wtv");
+    
+    Path cacheFile;
+    
+    @Before
+    public void setUp() throws IOException {
+        cacheFile = Files.createTempFile("file-hash-cache-test", ".tsv");
+        Files.delete(cacheFile);
+    }
+    
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(cacheFile);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        final FileHashCache cache = new FileHashCache(cacheFile);
+        assertNull(cache.lookup(FILE, attrs(100, 5, "(dev=801,ino=12)")));
+        cache.update(FILE, attrs(100, 5, "(dev=801,ino=12)"), DIGESTS);
+        assertEquals(DIGESTS, cache.lookup(FILE, attrs(100, 5, "(dev=801,ino=12)")));
+        cache.close();
+        assertTrue(Files.exists(cacheFile));
+        
+        final FileHashCache reloaded = new FileHashCache(cacheFile);
+        assertEquals(DIGESTS, reloaded.lookup(FILE, attrs(100, 5, "(dev=801,ino=12)")));
+        assertNull(reloaded.lookup(Paths.get("/archive/tv/other.wtv"), 
+                attrs(100, 5, "(dev=801,ino=12)")));
+        reloaded.close();
+    }
+
+    @Test
+    public void testInvalidation() throws IOException {
+        final FileHashCache cache = new FileHashCache(cacheFile);
+        cache.update(FILE, attrs(100, 5, "(dev=801,ino=12)"), DIGESTS);
+        assertNull("size changed", cache.lookup(FILE, attrs(101, 5, "(dev=801,ino=12)")));
+        assertNull("mtime changed", cache.lookup(FILE, attrs(100, 6, "(dev=801,ino=12)")));
+        assertNull("file replaced", cache.lookup(FILE, attrs(100, 5, "(dev=801,ino=13)")));
+        assertNull("file key lost", cache.lookup(FILE, attrs(100, 5, null)));
+        cache.close();
+        
+        final FileHashCache reloaded = new FileHashCache(cacheFile);
+        assertNull(reloaded.lookup(FILE, attrs(100, 5, "(dev=801,ino=13)")));
+        reloaded.close();
+    }
+
+    @Test
+    public void testIgnoresOldAndMalformedLines() throws IOException {
+        Files.write(cacheFile, ("d41d8cd98f00b204e9800998ecf8427e\t100\t5\t-\t/archive/a\n"
+                + "not a cache line\n"
+                + DIGESTS.getMd5() + "/" + DIGESTS.getXxh64() + "\tx\t5\t-\t/archive/b\n"
+                + DIGESTS.getMd5() + "/" + DIGESTS.getXxh64() + "\t100\t5\t-\t/archive/c\n")
+                .getBytes("UTF-8"));
+        final FileHashCache cache = new FileHashCache(cacheFile);
+        assertNull(cache.lookup(Paths.get("/archive/a"), attrs(100, 5, null)));
+        assertNull(cache.lookup(Paths.get("/archive/b"), attrs(100, 5, null)));
+        assertEquals(DIGESTS, cache.lookup(Paths.get("/archive/c"), attrs(100, 5, null)));
+        cache.close();
+    }
+    
+    /**
+     * Every update makes a save due, so saves run while other threads update.
+     */
+    @Test
+    public void testConcurrentUpdatesAreSaved() throws Exception {
+        final FileHashCache cache = new FileHashCache(cacheFile, 0);
+        final int threads = 4, perThread = 500;
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        final List<Future<?>> done = new ArrayList<>();
+        for(int t = 0; t < threads; t++) {
+            final int thread = t;
+            done.add(pool.submit(() -> {
+                for(int i = 0; i < perThread; i++)
+                    cache.update(Paths.get("/archive/" + thread + "/" + i), 
+                            attrs(i, 5, null), DIGESTS);
+            }));
+        }
+        for(Future<?> f : done)
+            f.get();
+        pool.shutdown();
+        assertTrue("no save happened before close", Files.exists(cacheFile));
+        cache.close();
+        
+        final FileHashCache reloaded = new FileHashCache(cacheFile);
+        for(int t = 0; t < threads; t++) {
+            for(int i = 0; i < perThread; i++)
+                assertEquals(DIGESTS, reloaded.lookup(Paths.get("/archive/" + t + "/" + i), 
+                        attrs(i, 5, null)));
+        }
+        reloaded.close();
+    }
+    
+    private static BasicFileAttributes attrs(long size, long mtimeNanos, Object fileKey) {
+        final BasicFileAttributes attrs = mock(BasicFileAttributes.class);
+        when(attrs.size()).thenReturn(size);
+        when(attrs.lastModifiedTime()).thenReturn(FileTime.from(mtimeNanos, TimeUnit.NANOSECONDS));
+        when(attrs.fileKey()).thenReturn(fileKey);
+        return attrs;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel.hash;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Aprel
+ */
+public class HashingEngineTest {
+
+    @SuppressWarnings("deprecation")
+    private static final HashFunction MD5 = Hashing.md5();
+
+    Path dir, file;
+    byte[] contents;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("hashing-engine-test");
+        file = dir.resolve("data");
+        contents = new byte[100_000];
+        new Random(42).nextBytes(contents);
+        Files.write(file, contents);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(dir.resolve("copy"));
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(dir);
+    }
+
+    @Test
+    public void testMd5WholeFile() throws IOException {
+        final String expected = MD5.hashBytes(contents).toString();
+        //read size that does not divide the file size
+        assertEquals(expected, new HashingEngine(4096 + 7, Long.MAX_VALUE).md5(file));
+        //always memory-mapped
+        assertEquals(expected, new HashingEngine(4096, 1).md5(file));
+    }
+
+    @Test
+    public void testMd5Range() throws IOException {
+        final String expected = MD5.hashBytes(contents, 12_345, 50_000).toString();
+        assertEquals(expected, new HashingEngine(1000, Long.MAX_VALUE)
+                .md5(file, 12_345, 50_000));
+        assertEquals(expected, new HashingEngine(1000, 1).md5(file, 12_345, 50_000));
+    }
+
+    @Test
+    public void testDigests() throws IOException {
+        final Digests expected = new Digests(MD5.hashBytes(contents).toString(),
+                XxHash64.toHex(XxHash64.hash(contents)));
+        assertEquals(expected, new HashingEngine(4096 + 7, Long.MAX_VALUE).digests(file));
+        assertEquals(expected, new HashingEngine(4096, 1).digests(file));
+        assertEquals(expected.getXxh64(), new HashingEngine(1000, Long.MAX_VALUE)
+                .xxh64(file, 0, contents.length));
+    }
+
+    @Test(expected = EOFException.class)
+    public void testMd5RangePastEndOfFile() throws IOException {
+        new HashingEngine(1000, Long.MAX_VALUE).md5(file, 90_000, 20_000);
+    }
+
+    @Test
+    public void testCopy() throws IOException {
+        final HashingEngine engine = new HashingEngine(3000, Long.MAX_VALUE);
+        final Path copy = dir.resolve("copy");
+        final String md5 = engine.copy(file, 1000, 60_000, copy, true);
+        final byte[] expected = Arrays.copyOfRange(contents, 1000, 61_000);
+        assertArrayEquals(expected, Files.readAllBytes(copy));
+        assertEquals(MD5.hashBytes(expected).toString(), md5);
+        assertNull(engine.copy(file, 0, 10, copy, false));
+        assertEquals(10, Files.size(copy));
+        assertEquals(60_010, engine.getBytesRead());
+        final Digests digests = engine.copyWithDigests(file, 1000, 60_000, copy, false);
+        assertNull(digests.getMd5());
+        assertEquals(XxHash64.toHex(XxHash64.hash(expected)), digests.getXxh64());
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel.hash;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Aprel
+ */
+public class Md5SumIndexTest {
+    
+    private static final String A = "0123456789abcdef0123456789abcdef";
+    private static final String B = "fedcba9876543210fedcba9876543210";
+    
+    Path file;
+    
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("md5-sum-index-test", ".md5");
+    }
+    
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void testFormats() throws IOException {
+        write(A + "  dir/text mode.txt\n"
+                + A.toUpperCase() + " *dir/binary mode\n"
+                + "MD5 (./bsd (1).txt) = " + B + "\n"
+                + "\n"
+                + "not a checksum line\n"
+                + "\\" + B + "  back\\\\slash\\nnewline\n"
+                + B + "  ./\u00fcmlaut\r\n"
+                + A + "  last line without break");
+        final Md5SumIndex index = Md5SumIndex.load(file);
+        assertEquals(6, index.size());
+        assertEquals(A, index.get("dir/text mode.txt"));
+        assertEquals(A, index.get("dir/binary mode"));
+        assertEquals(B, index.get("bsd (1).txt"));
+        assertEquals(B, index.get("back\\slash\nnewline"));
+        assertEquals(B, index.get("\u00fcmlaut"));
+        assertEquals(A, index.get("last line without break"));
+        assertNull(index.get("dir"));
+        assertNull(index.get("not a checksum line"));
+    }
+    
+    @Test
+    public void testManyLinesAndDuplicates() throws IOException {
+        final StringBuilder lines = new StringBuilder();
+        for(int i = 0; i < 10_000; i++)
+            lines.append(A).append("  file").append(i).append('\n');
+        lines.append(B).append("  file42\n");
+        write(lines.toString());
+        final Md5SumIndex index = Md5SumIndex.load(file);
+        assertEquals(10_000, index.size());
+        assertEquals(A, index.get("file9999"));
+        //the last line for a path wins
+        assertEquals(B, index.get("file42"));
+        assertNull(index.get("file10000"));
+    }
+    
+    private void write(String contents) throws IOException {
+        Files.write(file, contents.getBytes(StandardCharsets.UTF_8));
+    }
+}
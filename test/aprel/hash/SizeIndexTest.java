@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel.hash;
+
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Aprel
+ */
+public class SizeIndexTest {
+
+    @Test
+    public void testContains() {
+        final SizeIndex index = SizeIndex.of(700, 0, 42, 700, Long.MAX_VALUE, 42);
+        assertEquals(4, index.size());
+        assertTrue(index.contains(0));
+        assertTrue(index.contains(42));
+        assertTrue(index.contains(700));
+        assertTrue(index.contains(Long.MAX_VALUE));
+        assertFalse(index.contains(1));
+        assertFalse(index.contains(701));
+    }
+
+    @Test
+    public void testGrowsPastInitialCapacity() {
+        final Long[] sizes = new Long[5000];
+        for(int i = 0; i < sizes.length; i++)
+            sizes[i] = (long) (sizes.length - i) * 3;
+        final SizeIndex index = SizeIndex.of(Arrays.asList(sizes).iterator());
+        assertEquals(sizes.length, index.size());
+        assertTrue(index.contains(3));
+        assertTrue(index.contains(15_000));
+        assertFalse(index.contains(14_999));
+    }
+
+    @Test
+    public void testEmpty() {
+        final SizeIndex index = SizeIndex.of();
+        assertEquals(0, index.size());
+        assertFalse(index.contains(0));
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel.hash;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ *
+ * @author Aprel
+ */
+public class XattrHashCacheTest {
+    
+    private static final Digests DIGESTS = new Digests(
+            "5d41402abc4b2a76b9719d911017c592", "26c7827d889f6da3");
+    
+    Path file, other;
+    
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("xattr-hash-cache-test", ".bin");
+        other = Files.createTempFile("xattr-hash-cache-test", ".bin");
+        Files.write(file, "hello".getBytes("US-ASCII"));
+        Files.write(other, "hello".getBytes("US-ASCII"));
+        final UserDefinedFileAttributeView view = Files.getFileAttributeView(file, 
+                UserDefinedFileAttributeView.class);
+        boolean supported = view != null;
+        if(supported) {
+            try {
+                view.write("aprel.test", ByteBuffer.wrap(new byte[] {1}));
+                view.delete("aprel.test");
+            }
+            catch(IOException | UnsupportedOperationException ex) {
+                supported = false;
+            }
+        }
+        assumeTrue("Temporary directory does not support user extended attributes", 
+                supported);
+    }
+    
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(other);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        final XattrHashCache cache = new XattrHashCache();
+        assertNull(cache.lookup(file, attrs(file)));
+        cache.update(file, attrs(file), DIGESTS);
+        assertEquals(DIGESTS, new XattrHashCache().lookup(file, attrs(file)));
+        //the attribute follows the file, not the name
+        final Path moved = file.resolveSibling(file.getFileName() + ".moved");
+        Files.move(file, moved);
+        file = moved;
+        assertEquals(DIGESTS, cache.lookup(file, attrs(file)));
+        //another file with the same contents, size and name pattern has no entry
+        Files.setLastModifiedTime(other, attrs(file).lastModifiedTime());
+        assertNull(cache.lookup(other, attrs(other)));
+    }
+
+    @Test
+    public void testInvalidation() throws IOException {
+        final XattrHashCache cache = new XattrHashCache();
+        cache.update(file, attrs(file), DIGESTS);
+        
+        final FileTime mtime = attrs(file).lastModifiedTime();
+        Files.setLastModifiedTime(file, FileTime.fromMillis(mtime.toMillis() + 2000));
+        assertNull("mtime changed", cache.lookup(file, attrs(file)));
+        Files.setLastModifiedTime(file, mtime);
+        assertEquals(DIGESTS, cache.lookup(file, attrs(file)));
+        
+        Files.write(file, "!".getBytes("US-ASCII"), StandardOpenOption.APPEND);
+        Files.setLastModifiedTime(file, mtime);
+        assertNull("size changed", cache.lookup(file, attrs(file)));
+    }
+    
+    private static BasicFileAttributes attrs(Path p) throws IOException {
+        return Files.readAttributes(p, BasicFileAttributes.class);
+    }
+}
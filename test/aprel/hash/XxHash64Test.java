@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel.hash;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Aprel
+ */
+public class XxHash64Test {
+
+    @Test
+    public void testKnownValues() {
+        assertEquals(0xEF46DB3751D8E999L, XxHash64.hash(new byte[0]));
+        assertEquals("44bc2cf5ad770999", XxHash64.toHex(XxHash64.hash(
+                "abc".getBytes(StandardCharsets.US_ASCII))));
+        //longer than one 32-byte stripe
+        assertEquals("fbcea83c8a378bf1", XxHash64.toHex(XxHash64.hash(
+                "Nobody inspects the spammish repetition".getBytes(StandardCharsets.US_ASCII))));
+    }
+
+    @Test
+    public void testStreaming() {
+        final byte[] data = new byte[10_000];
+        new Random(7).nextBytes(data);
+        final long expected = XxHash64.hash(data);
+        final XxHash64 xx = new XxHash64();
+        final Random chunks = new Random(11);
+        int offset = 0;
+        while(offset < data.length) {
+            final int length = Math.min(chunks.nextInt(70), data.length - offset);
+            //direct buffers take a different path than heap arrays
+            final ByteBuffer buf = ByteBuffer.allocateDirect(length);
+            buf.put(data, offset, length).flip();
+            xx.update(buf);
+            assertFalse(buf.hasRemaining());
+            offset += length;
+        }
+        assertEquals(expected, xx.getValue());
+        xx.reset();
+        assertEquals(0xEF46DB3751D8E999L, xx.getValue());
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel.jdbi;
+
+import aprel.ArchiveDatabase;
+import aprel.db.beans.DirectoryBean;
+import aprel.db.beans.FileBean;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Aprel
+ */
+public class BatchInsertTest {
+    
+    Path dir;
+    ArchiveDatabase db;
+    DirectoryBean catalog;
+    
+    @Before
+    public void setUp() throws IOException, SQLException {
+        dir = Files.createTempDirectory("batch-insert-test");
+        db = new ArchiveDatabase("jdbc:h2:file:" + dir.resolve("archive") 
+                + ";MODE=MySQL;DATABASE_TO_UPPER=FALSE", "", "", false, 2);
+        db.getInsertObject().createCatalog("tv");
+        catalog = db.getQueryObject().getDirectoryByPath("tv/");
+    }
+    
+    @After
+    public void tearDown() throws IOException, SQLException {
+        db.close();
+        MoreFiles.deleteRecursively(dir, RecursiveDeleteOption.ALLOW_INSECURE);
+    }
+
+    /**
+     * More files than fit in one batch, in one transaction.
+     */
+    @Test
+    public void testInsertFilesInSeveralBatches() {
+        final List<FileBean> files = new ArrayList<>();
+        for(int i = 0; i < 2 * BatchInsert.BATCH_SIZE + 1; i++) {
+            final FileBean bean = new FileBean();
+            bean.setPath("f" + i + ".wtv");
+            bean.setDirParentId(catalog.getId());
+            bean.setMd5(String.format("%032x", i));
+            bean.setXxh64(String.format("%016x", i));
+            bean.setSize(i);
+            bean.setCatalog("tv");
+            if(i % 500 == 0) {
+                final FileBean.MediaMetadata media = new FileBean.MediaMetadata();
+                media.setTitle("title " + i);
+                bean.setMedia(media);
+            }
+            files.add(bean);
+        }
+        db.getHandle().begin();
+        BatchInsert.insertFiles(db.getHandle(), files);
+        BatchInsert.insertMetadata(db.getHandle(), files);
+        db.getHandle().commit();
+        
+        final Map<String,String> idsByName = db.getQueryObject()
+                .getAllFilesInDirectoryBesidesOtherDirectories(catalog.getId()).stream()
+                .collect(Collectors.toMap(FileBean::getFilename, FileBean::getId));
+        assertEquals(files.size(), idsByName.size());
+        for(FileBean bean : files) {
+            assertEquals(bean.getFilename(), idsByName.get(bean.getFilename()), bean.getId());
+            if(bean.hasMediaData())
+                assertEquals(bean.getMedia().getTitle(), 
+                        db.getQueryObject().getMetadata(bean.getId()).getTitle());
+            else
+                assertNull(db.getQueryObject().getMetadata(bean.getId()));
+        }
+    }
+    
+    @Test
+    public void testCreateDirectoriesInSeveralBatches() {
+        final List<DirectoryBean> dirs = new ArrayList<>();
+        for(int i = 0; i < BatchInsert.BATCH_SIZE + 1; i++) {
+            final DirectoryBean d = new DirectoryBean();
+            d.setDirName("d" + i);
+            d.setParent(catalog);
+            dirs.add(d);
+        }
+        BatchInsert.createDirectories(db.getHandle(), dirs);
+        
+        assertEquals(dirs.size(), new HashSet<>(dirs.stream().map(DirectoryBean::getId)
+                .collect(Collectors.toList())).size());
+        for(DirectoryBean d : dirs) {
+            final DirectoryBean row = db.getQueryObject().getDirectoryByPath(d.getFullPath());
+            assertEquals("tv/" + d.getDirName() + "/", d.getFullPath());
+            assertEquals(d.getId(), row.getId());
+            assertEquals(catalog.getId(), row.getDirParentId());
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel.jdbi;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Aprel
+ */
+public class BulkLoaderTest {
+
+    @Test
+    public void testWriteRow() throws IOException {
+        final StringWriter w = new StringWriter();
+        BulkLoader.writeRow(w, new Object[] {"plain", null, 42L, true, false});
+        assertEquals("plain\t\\N\t42\t1\t0\n", w.toString());
+    }
+
+    @Test
+    public void testWriteRowEscapes() throws IOException {
+        final StringWriter w = new StringWriter();
+        BulkLoader.writeRow(w, new Object[] {"a\tb\nc\\d\re\0", "N"});
+        assertEquals("a\\tb\\nc\\\\d\\re\\0\tN\n", w.toString());
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel.jdbi;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Properties;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author Aprel
+ */
+public class ConnectionPoolTest {
+    private static final String URL = "jdbc:aprel-pool-test:db";
+    private Driver driver;
+    private Connection lastConnected;
+    
+    @Before
+    public void setUp() throws SQLException {
+        driver = mock(Driver.class);
+        when(driver.acceptsURL(anyString())).thenAnswer(i -> URL.equals(i.getArgument(0)));
+        when(driver.connect(anyString(), any(Properties.class))).thenAnswer(i -> {
+            final Connection c = mock(Connection.class);
+            when(c.getAutoCommit()).thenReturn(true);
+            when(c.isValid(anyInt())).thenReturn(true);
+            lastConnected = c;
+            return c;
+        });
+        DriverManager.registerDriver(driver);
+    }
+    
+    @After
+    public void tearDown() throws SQLException {
+        DriverManager.deregisterDriver(driver);
+    }
+
+    @Test
+    public void testConnectionIsReused() throws SQLException {
+        final ConnectionPool pool = new ConnectionPool(URL, "u", "p", 2, 1000);
+        final Connection first = pool.getConnection();
+        assertEquals(1, pool.getActiveCount());
+        first.close();
+        assertTrue(first.isClosed());
+        assertEquals(0, pool.getActiveCount());
+        assertEquals(1, pool.getIdleCount());
+        pool.getConnection().close();
+        verify(driver, times(1)).connect(anyString(), any(Properties.class));
+        pool.close();
+        assertEquals(0, pool.getIdleCount());
+    }
+
+    @Test
+    public void testBounded() throws SQLException {
+        final ConnectionPool pool = new ConnectionPool(URL, "u", "p", 1, 50);
+        final Connection held = pool.getConnection();
+        try {
+            pool.getConnection();
+            fail("Pool handed out more connections than its maximum");
+        }
+        catch(SQLTimeoutException expected) {
+        }
+        held.close();
+        pool.getConnection().close();
+        pool.close();
+    }
+
+    @Test
+    public void testUncommittedWorkIsRolledBack() throws SQLException {
+        final ConnectionPool pool = new ConnectionPool(URL, "u", "p", 1, 1000);
+        final Connection c = pool.getConnection();
+        final Connection physical = lastConnected;
+        when(physical.getAutoCommit()).thenReturn(false);
+        c.close();
+        verify(physical).rollback();
+        verify(physical).setAutoCommit(true);
+        try {
+            c.createStatement();
+            fail("A returned connection was still usable");
+        }
+        catch(SQLException expected) {
+        }
+        pool.close();
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel.media;
+
+import aprel.WtvMetadata;
+import aprel.db.beans.FileBean;
+import java.nio.file.Paths;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Aprel
+ */
+public class FfprobeExecutorTest {
+    
+    private static final String OUTPUT = "{\n"
+            + "    \"programs\": [\n"
+            + "        {\n"
+            + "            \"program_id\": 1,\n"
+            + "            \"tags\": {\n"
+            + "                \"service_name\": \"KQED-HD\",\n"
+            + "                \"Title\": \"Program title\"\n"
+            + "            }\n"
+            + "        }\n"
+            + "    ],\n"
+            + "    \"format\": {\n"
+            + "        \"filename\": \"show.wtv\",\n"
+            + "        \"duration\": \"1797.648000\",\n"
+            + "        \"tags\": {\n"
+            + "            \"Title\": \"Nova \\u0026 \\\"Friends\\\"\",\n"
+            + "            \"WM/SubTitle\": \"Black Hole Apocalypse\",\n"
+            + "            \"WM/MediaOriginalBroadcastDateTime\": \"2018-01-10T05:00:00Z\",\n"
+            + "            \"Duration\": \"17976480000\"\n"
+            + "        }\n"
+            + "    }\n"
+            + "}\n";
+
+    @Test
+    public void testParse() {
+        final FileBean.MediaMetadata media = FfprobeExecutor.parse(OUTPUT, Paths.get("show.wtv"));
+        assertEquals("Nova & \"Friends\"", media.getTitle());
+        assertEquals("Black Hole Apocalypse", media.getSubtitle());
+        assertEquals("KQED-HD", media.getChannel());
+        assertEquals("2018-01-10 05:00:00", media.getOriginalBroadcast());
+        assertEquals("17976480000", media.getDuration100Nanos());
+        assertEquals("00:29:57.65", media.getDuration());
+        assertNull(media.getDescription());
+    }
+    
+    @Test
+    public void testParseWithoutMetadata() {
+        assertNull(FfprobeExecutor.parse("{\"format\": {}}", Paths.get("a.wtv")));
+        assertNull(FfprobeExecutor.parse("{\"format\": ", Paths.get("a.wtv")));
+    }
+    
+    @Test
+    public void testFormatDuration() {
+        assertEquals("00:00:00.00", WtvMetadata.formatDuration("0.000000"));
+        assertEquals("01:00:00.00", WtvMetadata.formatDuration("3599.995000"));
+        assertEquals("10:02:03.04", WtvMetadata.formatDuration("36123.04"));
+    }
+}
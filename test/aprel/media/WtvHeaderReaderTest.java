@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel.media;
+
+import aprel.db.beans.FileBean;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Aprel
+ */
+public class WtvHeaderReaderTest {
+    
+    private static final int[] WTV_GUID = {0xB7, 0xD8, 0x00, 0x20, 0x37, 0x49, 
+            0xDA, 0x11, 0xA6, 0x4E, 0x00, 0x07, 0xE9, 0x5E, 0xAD, 0x8D};
+    private static final int[] DIR_ENTRY_GUID = {0x92, 0xB7, 0x74, 0x91, 0x59, 0x70, 
+            0x70, 0x44, 0x88, 0xDF, 0x06, 0x3B, 0x82, 0xCC, 0x21, 0x3D};
+    private static final int[] METADATA_GUID = {0x5A, 0xFE, 0xD7, 0x6D, 0xC8, 0x1D, 
+            0x8F, 0x4A, 0x99, 0x22, 0xFA, 0xB1, 0x1C, 0x38, 0x14, 0x53};
+    private static final int SECTOR = WtvHeaderReader.SECTOR_SIZE;
+    
+    Path file;
+    
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("wtv-header-reader-test", ".wtv");
+    }
+    
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void testRead() throws IOException {
+        Files.write(file, sampleWtv());
+        
+        final FileBean.MediaMetadata media = WtvHeaderReader.read(file);
+        assertEquals("Nova", media.getTitle());
+        assertNull(media.getSubtitle());
+        assertEquals("KQED", media.getChannel());
+        assertEquals("2018-01-10 05:00:00", media.getOriginalBroadcast());
+        assertEquals("17976480000", media.getDuration100Nanos());
+        assertEquals("00:29:57.65", media.getDuration());
+    }
+    
+    @Test
+    public void testTruncated() throws IOException {
+        final byte[] wtv = sampleWtv();
+        //ends inside the root directory, before the sector list and the table
+        Files.write(file, Arrays.copyOf(wtv, SECTOR + 100));
+        assertNull(WtvHeaderReader.read(file));
+        //ends inside the sector list
+        Files.write(file, Arrays.copyOf(wtv, 2 * SECTOR + 8));
+        assertNull(WtvHeaderReader.read(file));
+        //ends before the table
+        Files.write(file, Arrays.copyOf(wtv, 3 * SECTOR));
+        assertNull(WtvHeaderReader.read(file));
+    }
+    
+    /**
+     * 
+     * @return a WTV file whose attribute table spans two sectors
+     */
+    private static byte[] sampleWtv() throws IOException {
+        final ByteArrayOutputStream attributes = new ByteArrayOutputStream();
+        //a large attribute that is not needed, so the rest crosses a sector boundary
+        attribute(attributes, "WM/Picture", 2, new byte[5000]);
+        attribute(attributes, "Title", 1, utf16("Nova"));
+        attribute(attributes, "WM/SubTitle", 1, utf16(""));
+        attribute(attributes, "WM/MediaStationName", 1, utf16("KQED"));
+        attribute(attributes, "WM/MediaOriginalBroadcastDateTime", 4, 
+                le(8).putLong(131_600_340_000_000_000L).array());
+        attribute(attributes, "Duration", 4, le(8).putLong(17_976_480_000L).array());
+        attribute(attributes, "WM/MediaIsHDContent", 3, le(4).putInt(1).array());
+        final byte[] table = attributes.toByteArray();
+        
+        final ByteBuffer wtv = le(5 * SECTOR);
+        put(wtv, 0, WTV_GUID);
+        wtv.putInt(0x30, 2 * (48 + 2 * 32));
+        wtv.putInt(0x38, 1);
+        //root directory in sector 1
+        int pos = directoryEntry(wtv, SECTOR, "table.0.header", 0, 0, 0);
+        directoryEntry(wtv, pos, WtvHeaderReader.LEGACY_ATTRIB, 
+                table.length | Long.MIN_VALUE, 2, 1);
+        //sector list in sector 2: the table is in sectors 3 and 4
+        wtv.putInt(2 * SECTOR, 3);
+        wtv.putInt(2 * SECTOR + 4, 0);
+        wtv.putInt(2 * SECTOR + 8, 4);
+        wtv.position(3 * SECTOR);
+        wtv.put(table);
+        return wtv.array();
+    }
+    
+    @Test
+    public void testNotWtv() throws IOException {
+        Files.write(file, new byte[SECTOR]);
+        assertNull(WtvHeaderReader.read(file));
+        Files.write(file, new byte[10]);
+        assertNull(WtvHeaderReader.read(file));
+    }
+    
+    private static int directoryEntry(ByteBuffer wtv, int pos, String name, 
+            long length, int firstSector, int depth) {
+        final int nameSize = 2 * 32;
+        final int entryLength = 48 + nameSize;
+        put(wtv, pos, DIR_ENTRY_GUID);
+        wtv.putShort(pos + 16, (short) entryLength);
+        wtv.putLong(pos + 24, length);
+        wtv.putInt(pos + 32, nameSize / 2);
+        final byte[] encoded = name.getBytes(StandardCharsets.UTF_16LE);
+        for(int i = 0; i < encoded.length; i++)
+            wtv.put(pos + 40 + i, encoded[i]);
+        wtv.putInt(pos + 40 + nameSize, firstSector);
+        wtv.putInt(pos + 44 + nameSize, depth);
+        return pos + entryLength;
+    }
+    
+    private static void attribute(ByteArrayOutputStream out, String key, int type, 
+            byte[] value) throws IOException {
+        final ByteBuffer head = le(24);
+        put(head, 0, METADATA_GUID);
+        head.putInt(16, type);
+        head.putInt(20, value.length);
+        out.write(head.array());
+        out.write(utf16(key));
+        out.write(value);
+    }
+    
+    private static byte[] utf16(String s) {
+        return (s + "\0").getBytes(StandardCharsets.UTF_16LE);
+    }
+    
+    private static ByteBuffer le(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+    
+    private static void put(ByteBuffer buf, int pos, int[] bytes) {
+        for(int i = 0; i < bytes.length; i++)
+            buf.put(pos + i, (byte) bytes[i]);
+    }
+}
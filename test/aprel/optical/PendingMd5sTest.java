@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel.optical;
+
+import aprel.db.beans.FileBean;
+import aprel.hash.HashingEngine;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Aprel
+ */
+public class PendingMd5sTest {
+
+    @SuppressWarnings("deprecation")
+    private static final HashFunction MD5 = Hashing.md5();
+
+    Path dir, staging, source;
+    byte[] contents;
+    FileBean file;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("pending-md5s-test");
+        staging = Files.createDirectory(dir.resolve("staging"));
+        source = dir.resolve("source");
+        contents = new byte[100_000];
+        new Random(7).nextBytes(contents);
+        Files.write(source, contents);
+        file = new FileBean();
+        file.setId("1");
+        file.setSize(contents.length);
+        file.setLocalStoragePath(source.toString());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try(DirectoryStream<Path> staged = Files.newDirectoryStream(staging)) {
+            for(Path p : staged)
+                Files.delete(p);
+        }
+        Files.delete(staging);
+        Files.delete(source);
+        Files.delete(dir);
+    }
+
+    private Optical opticalWith(long offset, long size) {
+        final Part p = new Part(file);
+        p.setOffset(offset);
+        p.setSize(size);
+        p.setPartFilename("part-" + offset);
+        final Optical opt = new Optical();
+        opt.add(p);
+        return opt;
+    }
+
+    @Test
+    public void testPartsInOrder() throws IOException {
+        final PendingMd5s pending = new PendingMd5s(Arrays.asList(file));
+        final Optical first = opticalWith(0, 30_000);
+        first.writePartsToDir(staging.toString(), true, pending);
+        assertTrue(pending.drainCompleted().isEmpty());
+        opticalWith(30_000, 70_000).writePartsToDir(staging.toString(), true, pending);
+        assertEquals(Arrays.asList(file), pending.drainCompleted());
+        assertEquals(MD5.hashBytes(contents).toString(), file.getMd5());
+        assertEquals(MD5.hashBytes(contents, 0, 30_000).toString(), 
+                first.getParts().get(0).getMd5());
+    }
+
+    @Test
+    public void testRemainderAndSkippedParts() throws IOException {
+        final PendingMd5s pending = new PendingMd5s(Arrays.asList(file));
+        //the first part was staged elsewhere
+        opticalWith(40_000, 20_000).writePartsToDir(staging.toString(), false, pending);
+        assertNull(file.getMd5());
+        pending.finishRemaining(HashingEngine.getDefault());
+        assertEquals(Arrays.asList(file), pending.drainCompleted());
+        assertEquals(MD5.hashBytes(contents).toString(), file.getMd5());
+    }
+
+    @Test
+    public void testKnownMd5IsKept() throws IOException {
+        file.setMd5("known");
+        final PendingMd5s pending = new PendingMd5s(Arrays.asList(file));
+        final Optical whole = opticalWith(0, contents.length);
+        whole.writePartsToDir(staging.toString(), false, pending);
+        pending.finishRemaining(HashingEngine.getDefault());
+        assertTrue(pending.drainCompleted().isEmpty());
+        assertEquals("known", file.getMd5());
+        assertEquals(MD5.hashBytes(contents).toString(), whole.getParts().get(0).getMd5());
+    }
+}
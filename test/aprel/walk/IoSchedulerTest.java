@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel.walk;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Aprel
+ */
+public class IoSchedulerTest {
+
+    @Test
+    public void testElevatorOrderWithinDevice() throws Exception {
+        final List<Long> order = new ArrayList<>();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        try(IoScheduler scheduler = new IoScheduler(1)) {
+            //occupies the only thread of the lane while the rest are queued
+            final Future<?> first = scheduler.submit(new FileIdentity("sda", 40), () -> {
+                started.countDown();
+                release.await();
+                return null;
+            });
+            started.await();
+            final List<Future<?>> rest = new ArrayList<>();
+            for(long inode : new long[] {50, 10, 70, 30}) {
+                rest.add(scheduler.submit(new FileIdentity("sda", inode), () -> {
+                    synchronized(order) {
+                        order.add(inode);
+                    }
+                    return null;
+                }));
+            }
+            release.countDown();
+            first.get();
+            for(Future<?> f : rest)
+                f.get();
+        }
+        assertEquals(Arrays.asList(50L, 70L, 10L, 30L), order);
+    }
+    
+    @Test
+    public void testDevicesReadConcurrently() throws Exception {
+        //each task only completes if the other device's task runs at the same time
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        try(IoScheduler scheduler = new IoScheduler(1)) {
+            final Future<Integer> a = scheduler.submit(new FileIdentity("sda", 1), 
+                    () -> barrier.await(10, TimeUnit.SECONDS));
+            final Future<Integer> b = scheduler.submit(new FileIdentity("sdb", 1), 
+                    () -> barrier.await(10, TimeUnit.SECONDS));
+            a.get();
+            b.get();
+            assertEquals(2, scheduler.getDeviceCount());
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel.walk;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Aprel
+ */
+public class OrderedPipelineTest {
+
+    @Test
+    public void testOrderIsKept() throws IOException {
+        final List<Integer> out = Collections.synchronizedList(new ArrayList<>());
+        final List<CompletableFuture<Integer>> tasks = new ArrayList<>();
+        try(OrderedPipeline<Integer> pipeline = new OrderedPipeline<>(10, out::add)) {
+            for(int i = 0; i < 5; i++) {
+                final CompletableFuture<Integer> task = new CompletableFuture<>();
+                tasks.add(task);
+                pipeline.add(task);
+            }
+            //the last task completes first
+            for(int i = tasks.size() - 1; i >= 0; i--)
+                tasks.get(i).complete(i);
+        }
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), out);
+    }
+
+    @Test
+    public void testBounded() throws Exception {
+        final int capacity = 3;
+        final List<CompletableFuture<Integer>> tasks = new ArrayList<>();
+        for(int i = 0; i < 20; i++)
+            tasks.add(new CompletableFuture<>());
+        final List<Integer> out = Collections.synchronizedList(new ArrayList<>());
+        final OrderedPipeline<Integer> pipeline = new OrderedPipeline<>(capacity, out::add);
+        final AtomicInteger added = new AtomicInteger();
+        final Thread producer = new Thread(() -> {
+            try {
+                for(CompletableFuture<Integer> task : tasks) {
+                    pipeline.add(task);
+                    added.incrementAndGet();
+                }
+            }
+            catch(IOException ex) {
+                throw new IllegalStateException(ex);
+            }
+        });
+        producer.start();
+        //the emitter waits on the first task, holding it, while the rest fill the queue
+        int before;
+        do {
+            before = added.get();
+            Thread.sleep(100);
+        } while(added.get() != before);
+        assertTrue("added " + added.get(), added.get() <= capacity + 1);
+        assertTrue(producer.isAlive());
+        for(int i = 0; i < tasks.size(); i++)
+            tasks.get(i).complete(i);
+        producer.join(TimeUnit.SECONDS.toMillis(10));
+        assertFalse(producer.isAlive());
+        pipeline.close();
+        assertEquals(tasks.size(), out.size());
+    }
+
+    @Test
+    public void testFailedTaskIsReported() throws IOException {
+        final List<Integer> out = Collections.synchronizedList(new ArrayList<>());
+        final OrderedPipeline<Integer> pipeline = new OrderedPipeline<>(10, out::add);
+        final IOException cause = new IOException("unreadable");
+        final CompletableFuture<Integer> failed = new CompletableFuture<>();
+        failed.completeExceptionally(cause);
+        pipeline.add(CompletableFuture.completedFuture(1));
+        pipeline.add(failed);
+        pipeline.add(CompletableFuture.completedFuture(3));
+        try {
+            pipeline.close();
+            fail("The failure of a task was not reported");
+        }
+        catch(IOException ex) {
+            assertSame(cause, ex);
+        }
+        //nothing after the failed task reaches the sink
+        assertEquals(Arrays.asList(1), out);
+    }
+
+    @Test
+    public void testFailedSinkIsReportedToProducer() throws Exception {
+        final OrderedPipeline<Integer> pipeline = new OrderedPipeline<>(10, i -> {
+            throw new IOException("disk full");
+        });
+        pipeline.add(CompletableFuture.completedFuture(1));
+        //the failure is seen by the next add once the emitter has run
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        IOException seen = null;
+        while(seen == null && System.nanoTime() < deadline) {
+            try {
+                pipeline.add(CompletableFuture.completedFuture(2));
+                Thread.sleep(10);
+            }
+            catch(IOException ex) {
+                seen = ex;
+            }
+        }
+        assertNotNull(seen);
+        assertEquals("disk full", seen.getMessage());
+        try {
+            pipeline.close();
+            fail("The failure of the sink was not reported");
+        }
+        catch(IOException expected) {
+        }
+    }
+
+    @Test
+    public void testEndOfInput() throws IOException {
+        final List<Integer> out = Collections.synchronizedList(new ArrayList<>());
+        final OrderedPipeline<Integer> pipeline = new OrderedPipeline<>(1, out::add);
+        //a task that completed with null is not mistaken for the end of input
+        pipeline.add(CompletableFuture.completedFuture(null));
+        pipeline.add(CompletableFuture.completedFuture(7));
+        pipeline.close();
+        assertEquals(Arrays.asList(null, 7), out);
+        //closing again does nothing
+        pipeline.close();
+        try {
+            pipeline.add(CompletableFuture.completedFuture(8));
+            fail("Added to a closed pipeline");
+        }
+        catch(IllegalStateException expected) {
+        }
+        
+        final OrderedPipeline<Integer> empty = new OrderedPipeline<>(1, out::add);
+        empty.close();
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2017 Aprel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package aprel.walk;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Aprel
+ */
+public class ParallelTreeWalkerTest {
+    
+    Path root;
+    
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("parallel-tree-walker-test");
+        for(int i = 0; i < 5; i++) {
+            final Path dir = Files.createDirectories(root.resolve("d" + i).resolve("sub"));
+            for(int j = 0; j < 7; j++) {
+                Files.createFile(dir.resolve("f" + j));
+                Files.createFile(dir.getParent().resolve("g" + j));
+            }
+            Files.createDirectories(dir.resolve("skip").resolve("deeper"));
+        }
+        Files.createFile(root.resolve("top"));
+    }
+    
+    @After
+    public void tearDown() throws IOException {
+        try(Stream<Path> paths = Files.walk(root)) {
+            for(Path p : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList()))
+                Files.delete(p);
+        }
+    }
+    
+    /**
+     * Records every call; skips directories named "skip" and the siblings 
+     * after "g3".
+     */
+    private static class Recorder extends SimpleFileVisitor<Path> {
+        final List<String> events = new ArrayList<>();
+        
+        @Override
+        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+            events.add("pre " + dir);
+            return dir.endsWith("skip") ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+        }
+        
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+            events.add("file " + file + " " + attrs.size());
+            return file.endsWith("g3") ? FileVisitResult.SKIP_SIBLINGS : FileVisitResult.CONTINUE;
+        }
+        
+        @Override
+        public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+            events.add("post " + dir + " " + exc);
+            return FileVisitResult.CONTINUE;
+        }
+    }
+
+    @Test
+    public void testSameEventsAsWalkFileTree() throws IOException {
+        final Recorder expected = new Recorder();
+        Files.walkFileTree(root, expected);
+        for(int parallelism : new int[] {1, 4}) {
+            for(int maxPrefetched : new int[] {1, 100}) {
+                final Recorder actual = new Recorder();
+                new ParallelTreeWalker(parallelism, maxPrefetched, true).walk(root, actual);
+                assertEquals(expected.events, actual.events);
+            }
+        }
+        final Recorder actual = new Recorder();
+        new ParallelTreeWalker(2, 10, false).walk(root, actual);
+        assertEquals(expected.events, actual.events);
+    }
+    
+    @Test
+    public void testTerminate() throws IOException {
+        final List<Path> files = new ArrayList<>();
+        new ParallelTreeWalker(3, 5, true).walk(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                files.add(file);
+                return files.size() == 3 ? FileVisitResult.TERMINATE : FileVisitResult.CONTINUE;
+            }
+        });
+        assertEquals(3, files.size());
+    }
+    
+    @Test
+    public void testListsAfterPreVisit() throws IOException {
+        final Path gone = root.resolve("d1").resolve("sub").resolve("skip");
+        final List<String> events = new ArrayList<>();
+        new ParallelTreeWalker(2, 10, false).walk(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) 
+                    throws IOException {
+                events.add("pre " + dir);
+                if(dir.equals(gone)) {
+                    Files.delete(dir.resolve("deeper"));
+                    Files.delete(dir);
+                }
+                else if(dir.endsWith("skip")) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                else {
+                    Files.createFile(dir.resolve("new"));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if(file.endsWith("new"))
+                    events.add("file " + file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                events.add("failed " + file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+                events.add("post " + dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        //files created by preVisitDirectory are listed
+        assertTrue(events.contains("file " + root.resolve("new")));
+        assertTrue(events.contains("file " + root.resolve("d0").resolve("sub").resolve("new")));
+        //a directory that cannot be opened is still entered and exited
+        final int pre = events.indexOf("pre " + gone);
+        assertTrue(pre >= 0);
+        assertEquals("failed " + gone, events.get(pre + 1));
+        assertEquals("post " + gone, events.get(pre + 2));
+    }
+}